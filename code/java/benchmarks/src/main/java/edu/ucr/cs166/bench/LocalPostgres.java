@@ -0,0 +1,223 @@
+package edu.ucr.cs166.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+
+/**
+ * The PostgreSQL server the benchmarks run against, and the seeded
+ * databases on it.  By default a private server is initialized in
+ * target/pgdata with the initdb and pg_ctl found on the PATH (or in
+ * -Dbench.pg.bin) and started once; later forks reuse it while it runs.
+ * With -Dbench.pg.start=false an already running server is used instead.
+ *
+ *   bench.pg.bin      directory of initdb and pg_ctl
+ *   bench.pg.data     data directory of the private server (target/pgdata)
+ *   bench.pg.port     port of the server (54329, or 5432 when not started)
+ *   bench.pg.user     database user (the OS user)
+ *   bench.pg.start    start a private server (true)
+ *   bench.sql.dir     directory of create.sql and migrations/ (searched upward)
+ *   bench.data.dir    directory of the CSV data set (next to the sql dir)
+ *   bench.reseed      drop and reseed the databases even if already seeded
+ */
+final class LocalPostgres {
+	private static final String MARKER = "Bench_Seed";
+	//the one migration the bulk load needs, see seed()
+	private static final String PRELOAD_MIGRATION = "009_request_partition_function.sql";
+
+	private static LocalPostgres _instance;
+
+	private final int _port;
+	private final String _user;
+	private final File _sqlDir;
+	private final File _dataDir;
+
+	private LocalPostgres(int port, String user, File sqlDir, File dataDir) {
+		this._port = port;
+		this._user = user;
+		this._sqlDir = sqlDir;
+		this._dataDir = dataDir;
+	}
+
+	/**
+	 * @return the server of this JVM, started on first use
+	 */
+	static synchronized LocalPostgres get() throws Exception {
+		if (_instance == null) {
+			boolean start = Boolean.parseBoolean(System.getProperty("bench.pg.start", "true"));
+			int port = Integer.parseInt(System.getProperty("bench.pg.port", start ? "54329" : "5432"));
+			String user = System.getProperty("bench.pg.user", System.getProperty("user.name"));
+			File sqlDir = System.getProperty("bench.sql.dir") != null
+				? new File(System.getProperty("bench.sql.dir")) : findSqlDir();
+			File dataDir = System.getProperty("bench.data.dir") != null
+				? new File(System.getProperty("bench.data.dir")) : new File(sqlDir.getParentFile(), "data");
+			if (start) {
+				startServer(port, user);
+			}
+			_instance = new LocalPostgres(port, user, sqlDir, dataDir);
+		}
+		return _instance;
+	}
+
+	int getPort() { return this._port; }
+	String getUser() { return this._user; }
+
+	/**
+	 * Creates the database of a scale and seeds it with the data set
+	 * replicated that many times, unless an earlier run already did.
+	 * The migrations run after the load, so their indexes are built once
+	 * in bulk; only migration 009, whose function the load calls, also
+	 * runs before it, as in createPostgreDB.sh.
+	 *
+	 * @return the name of the database
+	 */
+	String seed(int scale, PrintStream out) throws Exception {
+		String dbname = "mechanicshop_x" + scale;
+		boolean reseed = Boolean.getBoolean("bench.reseed");
+		if (!reseed && isSeeded(dbname, scale)) {
+			return dbname;
+		}
+		out.println("Seeding " + dbname + " with " + scale + "x the data set");
+		Connection admin = connect("postgres");
+		try {
+			Statement stmt = admin.createStatement();
+			stmt.execute("DROP DATABASE IF EXISTS " + dbname);
+			stmt.execute("CREATE DATABASE " + dbname);
+			stmt.close();
+		} finally {
+			admin.close();
+		}
+
+		runScript(dbname, new File(this._sqlDir, "create.sql"));
+		runScript(dbname, new File(this._sqlDir, "migrations/" + PRELOAD_MIGRATION));
+		File csv = new File("target/bench-data/x" + scale);
+		ScaledDataSet.write(this._dataDir, scale, csv);
+		Shop shop = new Shop(dbname, this._port, this._user, 4);
+		try {
+			shop.bulkLoad(csv, false, out);
+		} finally {
+			shop.cleanup();
+		}
+		File[] migrations = new File(this._sqlDir, "migrations").listFiles();
+		if (migrations != null) {
+			Arrays.sort(migrations);
+			for (File m : migrations) {
+				if (m.getName().endsWith(".sql")) {
+					runScript(dbname, m);
+				}
+			}
+		}
+
+		Connection conn = connect(dbname);
+		try {
+			Statement stmt = conn.createStatement();
+			stmt.execute("CREATE TABLE " + MARKER + " (scale INTEGER NOT NULL)");
+			stmt.execute("INSERT INTO " + MARKER + " VALUES (" + scale + ")");
+			stmt.execute("VACUUM ANALYZE");
+			stmt.close();
+		} finally {
+			conn.close();
+		}
+		return dbname;
+	}
+
+	Connection connect(String dbname) throws SQLException {
+		return DriverManager.getConnection("jdbc:postgresql://localhost:" + this._port + "/" + dbname, this._user, "");
+	}
+
+	private boolean isSeeded(String dbname, int scale) {
+		try {
+			Connection conn = connect(dbname);
+			try {
+				Statement stmt = conn.createStatement();
+				ResultSet rs = stmt.executeQuery("SELECT scale FROM " + MARKER);
+				boolean seeded = rs.next() && rs.getInt(1) == scale;
+				stmt.close();
+				return seeded;
+			} finally {
+				conn.close();
+			}
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+
+	//the JDBC driver accepts several ;-separated statements in one execute
+	private void runScript(String dbname, File script) throws IOException, SQLException {
+		String sql = new String(Files.readAllBytes(script.toPath()), StandardCharsets.UTF_8);
+		Connection conn = connect(dbname);
+		try {
+			Statement stmt = conn.createStatement();
+			stmt.execute(sql);
+			stmt.close();
+		} catch (SQLException e) {
+			throw new SQLException(script.getName() + ": " + e.getMessage(), e);
+		} finally {
+			conn.close();
+		}
+	}
+
+	private static void startServer(int port, String user) throws Exception {
+		File data = new File(System.getProperty("bench.pg.data", "target/pgdata")).getAbsoluteFile();
+		String bin = System.getProperty("bench.pg.bin");
+		String initdb = bin != null ? new File(bin, "initdb").getPath() : "initdb";
+		final String pgctl = bin != null ? new File(bin, "pg_ctl").getPath() : "pg_ctl";
+
+		if (!new File(data, "PG_VERSION").exists()) {
+			exec(initdb, "-D", data.getPath(), "-U", user, "-A", "trust", "-E", "UTF8", "--no-locale");
+		}
+		if (runCommand(pgctl, "status", "-D", data.getPath()) == 0) {
+			return;
+		}
+		exec(pgctl, "start", "-w", "-D", data.getPath(), "-l", new File(data.getParentFile(), "pgdata.log").getPath(),
+			"-o", "-p " + port + " -k " + System.getProperty("java.io.tmpdir") + " -c listen_addresses=localhost -c fsync=off");
+		final String dir = data.getPath();
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			public void run() {
+				try {
+					runCommand(pgctl, "stop", "-m", "fast", "-D", dir);
+				} catch (Exception e) {
+					//the server is left running; the next run reuses it
+				}
+			}
+		});
+	}
+
+	private static void exec(String... command) throws Exception {
+		int status = runCommand(command);
+		if (status != 0) {
+			throw new IOException(String.join(" ", command) + " exited with " + status);
+		}
+	}
+
+	private static int runCommand(String... command) throws Exception {
+		ProcessBuilder pb = new ProcessBuilder(command).inheritIO();
+		try {
+			return pb.start().waitFor();
+		} catch (IOException e) {
+			throw new IOException(command[0] + " not found; put the PostgreSQL binaries on the PATH, "
+				+ "set -Dbench.pg.bin or use a running server with -Dbench.pg.start=false", e);
+		}
+	}
+
+	//looks for sql/create.sql or code/sql/create.sql from the working directory up
+	private static File findSqlDir() throws IOException {
+		for (File dir = new File(".").getAbsoluteFile(); dir != null; dir = dir.getParentFile()) {
+			for (String candidate : new String[]{ "sql", "code/sql" }) {
+				File sql = new File(dir, candidate);
+				if (new File(sql, "create.sql").isFile()) {
+					return sql;
+				}
+			}
+		}
+		throw new IOException("cannot find sql/create.sql; set -Dbench.sql.dir");
+	}
+}
@@ -0,0 +1,124 @@
+package edu.ucr.cs166.bench;
+
+import java.sql.ResultSet;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The lookups behind the interactive operations and the query helpers of
+ * MechanicShop: executeQuery, executeQueryAndReturnResult,
+ * executeQueryAndMap, executeQueryAndPrintResult and executeQueryAndStream,
+ * and the keyset paginated listings.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryBenchmarks {
+	private static final String CUSTOMER_BY_ID = Shop.sql("CUSTOMER_BY_ID");
+	private static final String CUSTOMERS_BY_LNAME = Shop.sql("CUSTOMERS_BY_LNAME");
+	private static final String CARS_OF_CUSTOMER = Shop.sql("CARS_OF_CUSTOMER");
+	//the open request search printed before the listings were paginated
+	private static final String OPEN_REQUESTS_MATCHING = "SELECT S.rid, S.date, S.car_vin, S.odometer, S.complain FROM Service_Request S"
+		+ " WHERE (S.car_vin = ? OR S.customer_id IN (SELECT id FROM Customer WHERE lname = ?::bpchar))"
+		+ " AND NOT EXISTS (SELECT 1 FROM Closed_Request C WHERE C.rid = S.rid) ORDER BY S.rid DESC LIMIT 50";
+	private static final int PAGE_LIMIT = 20;
+	private static final int DEEP_PAGES = 10;
+	private static final String ALL_REQUESTS = "SELECT rid, customer_id, car_vin, date, odometer FROM Service_Request";
+	private static final String ALL_REQUEST_ROWS = "SELECT * FROM Service_Request";
+
+	@State(Scope.Thread)
+	public static class Client {
+		SplittableRandom random;
+
+		@Setup(Level.Trial)
+		public void init() {
+			this.random = new SplittableRandom(166);
+		}
+	}
+
+	@Benchmark
+	public int executeQueryCustomerById(ShopState s, Client c) throws Exception {
+		return s.shop.executeQuery(CUSTOMER_BY_ID, s.ownerIds[c.random.nextInt(s.ownerIds.length)]);
+	}
+
+	@Benchmark
+	public List<List<String>> executeQueryAndReturnResultCustomersByLname(ShopState s) throws Exception {
+		return s.shop.executeQueryAndReturnResult(CUSTOMERS_BY_LNAME, "Scarlett");
+	}
+
+	@Benchmark
+	public List<List<String>> executeQueryAndReturnResultCarsOfCustomer(ShopState s, Client c) throws Exception {
+		return s.shop.executeQueryAndReturnResult(CARS_OF_CUSTOMER, s.ownerIds[c.random.nextInt(s.ownerIds.length)]);
+	}
+
+	@Benchmark
+	public int executeQueryAndPrintResultOpenRequests(ShopState s, Client c) throws Exception {
+		int i = c.random.nextInt(s.ownedVins.length);
+		return s.shop.executeQueryAndPrintResult(OPEN_REQUESTS_MATCHING, s.ownedVins[i], "Scarlett");
+	}
+
+	@Benchmark
+	public Integer pageOpenRequestsMatching(ShopState s, Client c) throws Exception {
+		return s.shop.pageOpenRequests(s.ownedVins[c.random.nextInt(s.ownedVins.length)], null, PAGE_LIMIT);
+	}
+
+	//pages through all open requests; with keyset paging each page costs
+	//about the same, where OFFSET would rescan the pages before it
+	@Benchmark
+	public Integer pageAllOpenRequestsDeep(ShopState s) throws Exception {
+		Integer after = null;
+		for (int i = 0; i < DEEP_PAGES; ++i) {
+			after = s.shop.pageOpenRequests(null, after, PAGE_LIMIT);
+			if (after == null) {
+				break;
+			}
+		}
+		return after;
+	}
+
+	@Benchmark
+	public Integer pageMechanicsByLname(ShopState s) throws Exception {
+		return s.shop.pageMechanics("Cuyler", null, PAGE_LIMIT);
+	}
+
+	//reads every service request through a cursor; grows with the scale
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public int executeQueryAndStreamAllRequests(ShopState s, final Blackhole bh) throws Exception {
+		return s.shop.executeQueryAndStream(ALL_REQUESTS, 1000, new Shop.RowConsumer() {
+			public void accept(ResultSet rs) throws Exception {
+				bh.consume(rs.getInt(1));
+				bh.consume(rs.getString(3));
+			}
+		});
+	}
+
+	//every service request as typed rows, against the same rows as strings
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public List<?> executeQueryAndMapAllRequests(ShopState s) throws Exception {
+		return s.shop.executeQueryAndMap(ALL_REQUEST_ROWS, "ServiceRequest");
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public List<List<String>> executeQueryAndReturnResultAllRequests(ShopState s) throws Exception {
+		return s.shop.executeQueryAndReturnResult(ALL_REQUEST_ROWS);
+	}
+}
@@ -0,0 +1,142 @@
+package edu.ucr.cs166.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares two JMH result files written with -rf csv and fails when a
+ * benchmark got slower than the baseline by more than a threshold, so a
+ * build can gate on it:
+ *
+ *   java -cp benchmarks.jar edu.ucr.cs166.bench.RegressionCheck baseline.csv current.csv [threshold]
+ *
+ * The threshold is a fraction, 0.10 (10%) by default.  Benchmarks are
+ * matched by name and parameters; the exit status is 0 without
+ * regressions, 1 with regressions and 2 on bad arguments.
+ */
+public final class RegressionCheck {
+	private static final double DEFAULT_THRESHOLD = 0.10;
+
+	private RegressionCheck() { }
+
+	private static final class Result {
+		final String mode;
+		final double score;
+		final double error;
+		final String unit;
+
+		Result(String mode, double score, double error, String unit) {
+			this.mode = mode;
+			this.score = score;
+			this.error = error;
+			this.unit = unit;
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2 || args.length > 3) {
+			System.err.println("Usage: RegressionCheck <baseline.csv> <current.csv> [threshold, default " + DEFAULT_THRESHOLD + "]");
+			System.exit(2);
+		}
+		double threshold = args.length == 3 ? Double.parseDouble(args[2]) : DEFAULT_THRESHOLD;
+		Map<String, Result> baseline = read(new File(args[0]));
+		Map<String, Result> current = read(new File(args[1]));
+
+		int regressions = 0;
+		for (Map.Entry<String, Result> e : current.entrySet()) {
+			Result now = e.getValue();
+			Result before = baseline.get(e.getKey());
+			if (before == null) {
+				System.out.println(String.format("NEW   %-70s %12.3f %s", e.getKey(), now.score, now.unit));
+				continue;
+			}
+			if (!before.unit.equals(now.unit) || !before.mode.equals(now.mode)) {
+				System.out.println(String.format("SKIP  %-70s mode or unit changed", e.getKey()));
+				continue;
+			}
+			//throughput is better when higher, every other mode when lower
+			double change = now.mode.equals("thrpt")
+				? (before.score - now.score) / before.score
+				: (now.score - before.score) / before.score;
+			//a difference inside the two error bars is noise, not a regression
+			boolean noise = Math.abs(now.score - before.score) <= now.error + before.error;
+			boolean regressed = change > threshold && !noise;
+			if (regressed) {
+				++regressions;
+			}
+			System.out.println(String.format("%s  %-70s %12.3f -> %12.3f %s  %+6.1f%%",
+				regressed ? "FAIL" : "ok  ", e.getKey(), before.score, now.score, now.unit, change * 100));
+		}
+		System.out.println(regressions + " regression(s) over " + Math.round(threshold * 100) + "%");
+		System.exit(regressions == 0 ? 0 : 1);
+	}
+
+	//benchmark name plus its parameters -> result
+	private static Map<String, Result> read(File file) throws IOException {
+		List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+		if (lines.isEmpty()) {
+			throw new IOException(file + " is empty");
+		}
+		List<String> header = split(lines.get(0));
+		int name = header.indexOf("Benchmark");
+		int mode = header.indexOf("Mode");
+		int score = header.indexOf("Score");
+		int error = header.indexOf("Score Error (99.9%)");
+		int unit = header.indexOf("Unit");
+		if (name < 0 || mode < 0 || score < 0 || unit < 0) {
+			throw new IOException(file + " is not a JMH csv result file");
+		}
+
+		Map<String, Result> results = new LinkedHashMap<String, Result>();
+		for (int i = 1; i < lines.size(); ++i) {
+			if (lines.get(i).trim().isEmpty()) {
+				continue;
+			}
+			List<String> f = split(lines.get(i));
+			StringBuilder key = new StringBuilder(f.get(name));
+			for (int c = 0; c < header.size(); ++c) {
+				if (header.get(c).startsWith("Param: ") && c < f.size() && !f.get(c).isEmpty()) {
+					key.append(' ').append(header.get(c).substring(7)).append('=').append(f.get(c));
+				}
+			}
+			double err = error >= 0 ? parse(f.get(error)) : 0;
+			results.put(key.toString(), new Result(f.get(mode), parse(f.get(score)), Double.isNaN(err) ? 0 : err, f.get(unit)));
+		}
+		return results;
+	}
+
+	private static double parse(String s) {
+		return s.isEmpty() || s.equals("NaN") ? Double.NaN : Double.parseDouble(s.replace(',', '.'));
+	}
+
+	//splits a csv line whose fields may be double quoted
+	private static List<String> split(String line) {
+		List<String> fields = new ArrayList<String>();
+		StringBuilder current = new StringBuilder();
+		boolean quoted = false;
+		for (int i = 0; i < line.length(); ++i) {
+			char c = line.charAt(i);
+			if (c == '"') {
+				if (quoted && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+					current.append('"');
+					++i;
+				} else {
+					quoted = !quoted;
+				}
+			} else if (c == ',' && !quoted) {
+				fields.add(current.toString());
+				current.setLength(0);
+			} else {
+				current.append(c);
+			}
+		}
+		fields.add(current.toString());
+		return fields;
+	}
+}
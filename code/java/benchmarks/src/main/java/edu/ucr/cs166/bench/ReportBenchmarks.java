@@ -0,0 +1,53 @@
+package edu.ucr.cs166.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Menu operations 6 to 10, run and rendered as a table the way the menu
+ * prints them, with the output discarded.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReportBenchmarks {
+	private static final String BILL_LESS_THAN_100 = Shop.sql("REPORT_BILL_LESS_THAN_100");
+	private static final String MORE_THAN_20_CARS = Shop.sql("REPORT_MORE_THAN_20_CARS");
+	private static final String CARS_BEFORE_1995 = Shop.sql("REPORT_CARS_BEFORE_1995");
+	private static final String K_MOST_SERVICED_CARS = Shop.sql("REPORT_K_MOST_SERVICED_CARS");
+	private static final String TOTAL_BILL = Shop.sql("REPORT_TOTAL_BILL");
+
+	@Benchmark
+	public int listCustomersWithBillLessThan100(ShopState s) throws Exception {
+		return s.shop.executeQueryAndPrintResult(BILL_LESS_THAN_100);
+	}
+
+	@Benchmark
+	public int listCustomersWithMoreThan20Cars(ShopState s) throws Exception {
+		return s.shop.executeQueryAndPrintResult(MORE_THAN_20_CARS);
+	}
+
+	@Benchmark
+	public int listCarsBefore1995With50000Milles(ShopState s) throws Exception {
+		return s.shop.executeQueryAndPrintResult(CARS_BEFORE_1995);
+	}
+
+	@Benchmark
+	public int listKCarsWithTheMostServices(ShopState s) throws Exception {
+		return s.shop.executeQueryAndPrintResult(K_MOST_SERVICED_CARS, 10);
+	}
+
+	@Benchmark
+	public int listCustomersInDescendingOrderOfTheirTotalBill(ShopState s) throws Exception {
+		return s.shop.executeQueryAndPrintResult(TOTAL_BILL);
+	}
+}
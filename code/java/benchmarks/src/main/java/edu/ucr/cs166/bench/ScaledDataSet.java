@@ -0,0 +1,155 @@
+package edu.ucr.cs166.bench;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes the six CSV files of code/data replicated a number of times.
+ * Replica i shifts every key by i times the key range of the original
+ * file, so foreign keys stay consistent within the replica, and maps every
+ * VIN to one whose leading letters are rotated by i, checked against all
+ * VINs handed out so far.  Replica 0 is the original data set, so 1x is
+ * exactly what createPostgreDB.sh loads.
+ */
+final class ScaledDataSet {
+	private static final int COLLISION_STRIDE = 1 << 16;
+
+	private ScaledDataSet() { }
+
+	/**
+	 * @param source directory of the original CSV files
+	 * @param scale number of replicas
+	 * @param target directory the replicated files are written to
+	 */
+	static void write(File source, int scale, File target) throws IOException {
+		if (!target.isDirectory() && !target.mkdirs()) {
+			throw new IOException("cannot create " + target);
+		}
+		List<String> customers = read(source, "customer.csv");
+		List<String> mechanics = read(source, "mechanic.csv");
+		List<String> cars = read(source, "car.csv");
+		List<String> owns = read(source, "owns.csv");
+		List<String> requests = read(source, "service_request.csv");
+		List<String> closed = read(source, "closed_request.csv");
+		int customerSpan = span(customers);
+		int mechanicSpan = span(mechanics);
+		int ownsSpan = span(owns);
+		int requestSpan = span(requests);
+		int closedSpan = span(closed);
+
+		Set<String> vins = new HashSet<String>();
+		Writer customerOut = open(target, "customer.csv");
+		Writer mechanicOut = open(target, "mechanic.csv");
+		Writer carOut = open(target, "car.csv");
+		Writer ownsOut = open(target, "owns.csv");
+		Writer requestOut = open(target, "service_request.csv");
+		Writer closedOut = open(target, "closed_request.csv");
+		try {
+			for (int i = 0; i < scale; ++i) {
+				Map<String, String> vinMap = new HashMap<String, String>();
+				for (String line : customers) {
+					String[] f = line.split(",", 2);
+					emit(customerOut, offset(f[0], i * customerSpan), f[1]);
+				}
+				for (String line : mechanics) {
+					String[] f = line.split(",", 2);
+					emit(mechanicOut, offset(f[0], i * mechanicSpan), f[1]);
+				}
+				for (String line : cars) {
+					String[] f = line.split(",", 2);
+					emit(carOut, vin(f[0], i, vinMap, vins), f[1]);
+				}
+				for (String line : owns) {
+					String[] f = line.split(",", 3);
+					emit(ownsOut, offset(f[0], i * ownsSpan), offset(f[1], i * customerSpan), vin(f[2], i, vinMap, vins));
+				}
+				for (String line : requests) {
+					String[] f = line.split(",", 4);
+					emit(requestOut, offset(f[0], i * requestSpan), offset(f[1], i * customerSpan), vin(f[2], i, vinMap, vins), f[3]);
+				}
+				for (String line : closed) {
+					String[] f = line.split(",", 4);
+					emit(closedOut, offset(f[0], i * closedSpan), offset(f[1], i * requestSpan), offset(f[2], i * mechanicSpan), f[3]);
+				}
+			}
+		} finally {
+			customerOut.close();
+			mechanicOut.close();
+			carOut.close();
+			ownsOut.close();
+			requestOut.close();
+			closedOut.close();
+		}
+	}
+
+	//the VIN of a car in replica i; the same car always maps to the same VIN
+	private static String vin(String original, int replica, Map<String, String> vinMap, Set<String> used) {
+		String mapped = vinMap.get(original);
+		if (mapped != null) {
+			return mapped;
+		}
+		//on a collision retry with rotations no replica uses
+		for (int n = replica; ; n += COLLISION_STRIDE) {
+			mapped = rotate(original, n);
+			if (used.add(mapped)) {
+				vinMap.put(original, mapped);
+				return mapped;
+			}
+		}
+	}
+
+	//rotates the leading letters by the base 26 digits of n
+	private static String rotate(String vin, int n) {
+		char[] c = vin.toCharArray();
+		for (int pos = 0; pos < 6 && n > 0; ++pos) {
+			if (c[pos] >= 'A' && c[pos] <= 'Z') {
+				c[pos] = (char) ('A' + (c[pos] - 'A' + n % 26) % 26);
+				n /= 26;
+			}
+		}
+		return new String(c);
+	}
+
+	private static String offset(String key, int by) {
+		return by == 0 ? key : String.valueOf(Integer.parseInt(key.trim()) + by);
+	}
+
+	//one more than the largest key in the first column
+	private static int span(List<String> lines) {
+		int max = -1;
+		for (String line : lines) {
+			max = Math.max(max, Integer.parseInt(line.substring(0, line.indexOf(',')).trim()));
+		}
+		return max + 1;
+	}
+
+	private static void emit(Writer out, String... fields) throws IOException {
+		for (int i = 0; i < fields.length; ++i) {
+			if (i > 0) {
+				out.write(',');
+			}
+			out.write(fields[i]);
+		}
+		out.write('\n');
+	}
+
+	private static List<String> read(File dir, String name) throws IOException {
+		List<String> lines = Files.readAllLines(new File(dir, name).toPath(), StandardCharsets.UTF_8);
+		lines.removeIf(String::isEmpty);
+		return lines;
+	}
+
+	private static Writer open(File dir, String name) throws IOException {
+		return new BufferedWriter(Files.newBufferedWriter(new File(dir, name).toPath(), StandardCharsets.UTF_8), 1 << 16);
+	}
+}
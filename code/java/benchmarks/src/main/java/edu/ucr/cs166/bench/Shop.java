@@ -0,0 +1,249 @@
+package edu.ucr.cs166.bench;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.util.List;
+
+/**
+ * Calls into MechanicShop from the benchmark package.  The client lives in
+ * the default package, which a named package cannot import and which JMH
+ * does not accept for benchmark classes, so its constructor, operations
+ * and SQL constants are looked up by reflection once and invoked from
+ * here.  The reflective call costs nanoseconds against operations that
+ * take a database round trip.
+ */
+final class Shop {
+	private static final Class<?> SHOP = load("MechanicShop");
+	private static final Class<?> ROW_HANDLER = load("RowHandler");
+	private static final Class<?> ROW_MAPPER = load("RowMapper");
+	private static final Class<?> REQUEST_FILTER = load("RequestFilter");
+	private static final Class<?> PAGE = load("Page");
+
+	private static final Method ADD_CUSTOMER = method("addCustomer", String.class, String.class, String.class, String.class);
+	private static final Method ADD_MECHANIC = method("addMechanic", String.class, String.class, int.class);
+	private static final Method ADD_CAR = method("addCar", String.class, String.class, String.class, int.class);
+	private static final Method INSERT_SERVICE_REQUEST = method("insertServiceRequest", int.class, String.class, int.class, String.class);
+	private static final Method CLOSE_SERVICE_REQUEST = method("closeServiceRequest", int.class, int.class, String.class, int.class);
+	private static final Method EXECUTE_UPDATE = method("executeUpdate", String.class, Object[].class);
+	private static final Method EXECUTE_QUERY = method("executeQuery", String.class, Object[].class);
+	private static final Method EXECUTE_QUERY_AND_PRINT_RESULT = method("executeQueryAndPrintResult", String.class, Object[].class);
+	private static final Method EXECUTE_QUERY_AND_RETURN_RESULT = method("executeQueryAndReturnResult", String.class, Object[].class);
+	private static final Method EXECUTE_QUERY_AND_STREAM = method("executeQueryAndStream", String.class, int.class, ROW_HANDLER, Object[].class);
+	private static final Method EXECUTE_QUERY_AND_MAP = method("executeQueryAndMap", String.class, ROW_MAPPER, Object[].class);
+	private static final Method SET_OUTPUT = method("setOutput", Writer.class);
+	private static final Method SET_OUTPUT_FORMAT = method("setOutputFormat", String.class);
+	private static final Method PAGE_SERVICE_REQUESTS = method("pageServiceRequests", REQUEST_FILTER, Integer.class, int.class);
+	private static final Method PAGE_MECHANICS = method("pageMechanics", String.class, Integer.class, int.class);
+	private static final Method OPEN_ONLY = method(REQUEST_FILTER, "openOnly");
+	private static final Method MATCHING = method(REQUEST_FILTER, "matching", String.class);
+	private static final Method NEXT_KEY = method(PAGE, "getNextKey");
+	private static final Method BULK_LOAD = method("bulkLoad", File.class, boolean.class, PrintStream.class);
+	private static final Method CLEANUP = method("cleanup");
+
+	private static final Object[] NO_PARAMS = new Object[0];
+
+	private final Object _shop;
+
+	/**
+	 * Connects a MechanicShop with its own connection pool.
+	 *
+	 * @param poolSize the maximum number of pooled connections
+	 */
+	Shop(String dbname, int port, String user, int poolSize) throws Exception {
+		try {
+			this._shop = SHOP.getConstructor(String.class, String.class, String.class, String.class, int.class, int.class, boolean.class)
+				.newInstance(dbname, String.valueOf(port), user, "", 1, poolSize, false);
+		} catch (InvocationTargetException e) {
+			throw unwrap(e);
+		}
+	}
+
+	/**
+	 * @param name a static SQL constant of MechanicShop, e.g. REPORT_TOTAL_BILL
+	 * @return its text
+	 */
+	static String sql(String name) {
+		try {
+			Field f = SHOP.getDeclaredField(name);
+			f.setAccessible(true);
+			return (String) f.get(null);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("MechanicShop has no SQL constant " + name, e);
+		}
+	}
+
+	int addCustomer(String fname, String lname, String phone, String address) throws Exception {
+		return (Integer) call(ADD_CUSTOMER, fname, lname, phone, address);
+	}
+
+	int addMechanic(String fname, String lname, int experience) throws Exception {
+		return (Integer) call(ADD_MECHANIC, fname, lname, experience);
+	}
+
+	void addCar(String vin, String make, String model, int year) throws Exception {
+		call(ADD_CAR, vin, make, model, year);
+	}
+
+	int insertServiceRequest(int customerId, String vin, int odometer, String complain) throws Exception {
+		return (Integer) call(INSERT_SERVICE_REQUEST, customerId, vin, odometer, complain);
+	}
+
+	int closeServiceRequest(int rid, int mid, String comment, int bill) throws Exception {
+		return (Integer) call(CLOSE_SERVICE_REQUEST, rid, mid, comment, bill);
+	}
+
+	int executeUpdate(String sql, Object... params) throws Exception {
+		return (Integer) call(EXECUTE_UPDATE, sql, params);
+	}
+
+	int executeQuery(String sql, Object... params) throws Exception {
+		return (Integer) call(EXECUTE_QUERY, sql, params);
+	}
+
+	int executeQueryAndPrintResult(String sql, Object... params) throws Exception {
+		return (Integer) call(EXECUTE_QUERY_AND_PRINT_RESULT, sql, params);
+	}
+
+	@SuppressWarnings("unchecked")
+	List<List<String>> executeQueryAndReturnResult(String sql, Object... params) throws Exception {
+		return (List<List<String>>) call(EXECUTE_QUERY_AND_RETURN_RESULT, sql, params);
+	}
+
+	/**
+	 * Streams a query, handing every row to the consumer.
+	 */
+	int executeQueryAndStream(String sql, int fetchSize, final RowConsumer consumer, Object... params) throws Exception {
+		Object handler = Proxy.newProxyInstance(ROW_HANDLER.getClassLoader(), new Class<?>[]{ ROW_HANDLER }, new InvocationHandler() {
+			public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+				if (m.getName().equals("handleRow")) {
+					consumer.accept((ResultSet) args[0]);
+					return null;
+				}
+				return m.invoke(this, args);
+			}
+		});
+		return (Integer) call(EXECUTE_QUERY_AND_STREAM, sql, fetchSize, handler, params);
+	}
+
+	/**
+	 * Maps every row with the MAPPER of a row class.
+	 *
+	 * @param rowClass e.g. ServiceRequest
+	 */
+	List<?> executeQueryAndMap(String sql, String rowClass, Object... params) throws Exception {
+		Object mapper;
+		try {
+			mapper = load(rowClass).getField("MAPPER").get(null);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException(rowClass + " has no MAPPER", e);
+		}
+		return (List<?>) call(EXECUTE_QUERY_AND_MAP, sql, mapper, params);
+	}
+
+	/**
+	 * Reads one page of the open service requests, all of them or those
+	 * matching a VIN or last name.
+	 *
+	 * @param match the VIN or last name, null for all open requests
+	 * @return the key of the next page, or null on the last page
+	 */
+	Integer pageOpenRequests(String match, Integer after, int limit) throws Exception {
+		Object filter;
+		try {
+			filter = OPEN_ONLY.invoke(REQUEST_FILTER.getConstructor().newInstance());
+			if (match != null) {
+				MATCHING.invoke(filter, match);
+			}
+		} catch (InvocationTargetException e) {
+			throw unwrap(e);
+		}
+		return nextKey(call(PAGE_SERVICE_REQUESTS, filter, after, limit));
+	}
+
+	/**
+	 * Reads one page of the mechanics.
+	 *
+	 * @param lname only mechanics with this last name, null for all
+	 * @return the key of the next page, or null on the last page
+	 */
+	Integer pageMechanics(String lname, Integer after, int limit) throws Exception {
+		return nextKey(call(PAGE_MECHANICS, lname, after, limit));
+	}
+
+	/**
+	 * Directs what executeQueryAndPrintResult prints.
+	 */
+	void setOutput(Writer out, String format) throws Exception {
+		call(SET_OUTPUT, out);
+		call(SET_OUTPUT_FORMAT, format);
+	}
+
+	long bulkLoad(File dir, boolean truncate, PrintStream out) throws Exception {
+		return (Long) call(BULK_LOAD, dir, truncate, out);
+	}
+
+	void cleanup() throws Exception {
+		call(CLEANUP);
+	}
+
+	/**
+	 * A RowHandler that can be written in the benchmark package.
+	 */
+	interface RowConsumer {
+		void accept(ResultSet rs) throws Exception;
+	}
+
+	private Object call(Method m, Object... args) throws Exception {
+		try {
+			return m.invoke(this._shop, args);
+		} catch (InvocationTargetException e) {
+			throw unwrap(e);
+		}
+	}
+
+	private static Integer nextKey(Object page) throws Exception {
+		try {
+			return (Integer) NEXT_KEY.invoke(page);
+		} catch (InvocationTargetException e) {
+			throw unwrap(e);
+		}
+	}
+
+	private static Exception unwrap(InvocationTargetException e) {
+		Throwable cause = e.getCause();
+		if (cause instanceof Exception) {
+			return (Exception) cause;
+		}
+		if (cause instanceof Error) {
+			throw (Error) cause;
+		}
+		return e;
+	}
+
+	private static Class<?> load(String name) {
+		try {
+			return Class.forName(name);
+		} catch (ClassNotFoundException e) {
+			throw new IllegalStateException(name + " is not on the class path; build the app module first", e);
+		}
+	}
+
+	private static Method method(String name, Class<?>... types) {
+		return method(SHOP, name, types);
+	}
+
+	private static Method method(Class<?> owner, String name, Class<?>... types) {
+		try {
+			return owner.getMethod(name, types);
+		} catch (NoSuchMethodException e) {
+			throw new IllegalStateException(owner.getName() + "." + name + " not found", e);
+		}
+	}
+}
@@ -0,0 +1,86 @@
+package edu.ucr.cs166.bench;
+
+import java.io.Writer;
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * A MechanicShop connected to the database seeded at the benchmark's
+ * scale.  Rows the write benchmarks add are deleted again at the end of
+ * the trial, so every trial starts from the same seeded data and the
+ * report timings stay comparable between runs.
+ */
+@State(Scope.Benchmark)
+public class ShopState {
+	//prefix of the VINs added by AddCar; the data set's VINs are upper case
+	static final String VIN_PREFIX = "bench";
+
+	@Param({ "1", "10", "100" })
+	public int scale;
+
+	Shop shop;
+	//customer_id and car_vin of existing ownerships
+	int[] ownerIds;
+	String[] ownedVins;
+	int mechanicCount;
+
+	private int _maxCustomer;
+	private int _maxMechanic;
+	private int _maxRequest;
+	private int _maxClosed;
+
+	@Setup(Level.Trial)
+	public void connect() throws Exception {
+		LocalPostgres pg = LocalPostgres.get();
+		String dbname = pg.seed(this.scale, System.out);
+		this.shop = new Shop(dbname, pg.getPort(), pg.getUser(), 8);
+		this.shop.setOutput(new Discard(), "table");
+
+		List<List<String>> owns = this.shop.executeQueryAndReturnResult(
+			"SELECT customer_id, car_vin FROM Owns ORDER BY ownership_id LIMIT 10000");
+		this.ownerIds = new int[owns.size()];
+		this.ownedVins = new String[owns.size()];
+		for (int i = 0; i < owns.size(); ++i) {
+			this.ownerIds[i] = Integer.parseInt(owns.get(i).get(0));
+			this.ownedVins[i] = owns.get(i).get(1).trim();
+		}
+		this.mechanicCount = Integer.parseInt(this.shop.executeQueryAndReturnResult("SELECT COUNT(*) FROM Mechanic").get(0).get(0));
+
+		this._maxCustomer = max("SELECT MAX(id) FROM Customer");
+		this._maxMechanic = max("SELECT MAX(id) FROM Mechanic");
+		this._maxRequest = max("SELECT MAX(rid) FROM Service_Request");
+		this._maxClosed = max("SELECT MAX(wid) FROM Closed_Request");
+	}
+
+	@TearDown(Level.Trial)
+	public void disconnect() throws Exception {
+		try {
+			this.shop.executeUpdate("DELETE FROM Closed_Request WHERE wid > ?", this._maxClosed);
+			this.shop.executeUpdate("DELETE FROM Service_Request WHERE rid > ?", this._maxRequest);
+			this.shop.executeUpdate("DELETE FROM Owns WHERE car_vin LIKE ?", VIN_PREFIX + "%");
+			this.shop.executeUpdate("DELETE FROM Car WHERE vin LIKE ?", VIN_PREFIX + "%");
+			this.shop.executeUpdate("DELETE FROM Mechanic WHERE id > ?", this._maxMechanic);
+			this.shop.executeUpdate("DELETE FROM Customer WHERE id > ?", this._maxCustomer);
+		} finally {
+			this.shop.cleanup();
+		}
+	}
+
+	//what the reports print to; rendering is measured, the terminal is not
+	static class Discard extends Writer {
+		public void write(char[] buf, int off, int len) { }
+		public void flush() { }
+		public void close() { }
+	}
+
+	private int max(String sql) throws Exception {
+		String value = this.shop.executeQueryAndReturnResult(sql).get(0).get(0);
+		return value == null ? -1 : Integer.parseInt(value.trim());
+	}
+}
@@ -0,0 +1,95 @@
+package edu.ucr.cs166.bench;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Menu operations 1 to 5, each one call of the MechanicShop method the
+ * menu uses.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WriteBenchmarks {
+
+	/**
+	 * Per thread inputs, drawn from a fixed seed so every run issues the
+	 * same sequence of operations.
+	 */
+	@State(Scope.Thread)
+	public static class Client {
+		SplittableRandom random;
+		String vinPrefix;
+		long nextVin;
+
+		@Setup(Level.Trial)
+		public void init() {
+			this.random = new SplittableRandom(166);
+			//a sixth letter per thread keeps the VINs of concurrent threads apart
+			this.vinPrefix = ShopState.VIN_PREFIX + (char) ('a' + Thread.currentThread().getId() % 26);
+			this.nextVin = 0;
+		}
+
+		String nextVin() {
+			return this.vinPrefix + String.format("%010d", this.nextVin++);
+		}
+	}
+
+	/**
+	 * A fresh open service request for every closeServiceRequest call.
+	 */
+	@State(Scope.Thread)
+	public static class OpenRequest {
+		int rid;
+		int mid;
+
+		@Setup(Level.Invocation)
+		public void open(ShopState s, Client c) throws Exception {
+			int i = c.random.nextInt(s.ownerIds.length);
+			this.rid = s.shop.insertServiceRequest(s.ownerIds[i], s.ownedVins[i], c.random.nextInt(300000), "benchmark");
+			this.mid = c.random.nextInt(s.mechanicCount);
+		}
+	}
+
+	@Benchmark
+	public int addCustomer(ShopState s, Client c) throws Exception {
+		return s.shop.addCustomer("Bench", "Customer" + c.random.nextInt(1000), "(951)827-5639", "900 University Ave Riverside");
+	}
+
+	@Benchmark
+	public int addMechanic(ShopState s, Client c) throws Exception {
+		return s.shop.addMechanic("Bench", "Mechanic" + c.random.nextInt(1000), 1 + c.random.nextInt(40));
+	}
+
+	@Benchmark
+	public String addCar(ShopState s, Client c) throws Exception {
+		String vin = c.nextVin();
+		s.shop.addCar(vin, "Toyota", "Prius", 1990 + c.random.nextInt(30));
+		return vin;
+	}
+
+	@Benchmark
+	public int insertServiceRequest(ShopState s, Client c) throws Exception {
+		int i = c.random.nextInt(s.ownerIds.length);
+		return s.shop.insertServiceRequest(s.ownerIds[i], s.ownedVins[i], c.random.nextInt(300000), "Squeaky brakes");
+	}
+
+	@Benchmark
+	public int closeServiceRequest(ShopState s, Client c, OpenRequest r) throws Exception {
+		return s.shop.closeServiceRequest(r.rid, r.mid, "Replaced the brake pads", 1 + c.random.nextInt(1000));
+	}
+}
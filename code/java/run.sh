@@ -4,4 +4,10 @@ PORT=$2
 USER=$3
 
 # Example: source ./run.sh flightDB 5432 user
-java -cp lib/*:bin/ MechanicShop $DBNAME $PORT $USER
+# Extra arguments run a single command instead of the menu, e.g.
+#          source ./run.sh flightDB 5432 user load ../data --truncate
+#          source ./run.sh flightDB 5432 user generate --load --truncate --scale 333
+#          source ./run.sh flightDB 5432 user report top-cars --k 10 --format csv
+#          source ./run.sh flightDB 5432 user script commands.txt
+#          source ./run.sh flightDB 5432 user serve --port 5166 --sessions 64
+java -cp lib/*:bin/ MechanicShop $DBNAME $PORT $USER "${@:4}"
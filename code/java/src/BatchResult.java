@@ -0,0 +1,56 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class reports the outcome of MechanicShop.executeBatch: how many
+ * rows were written and, for every row that was rejected, its position in
+ * the input and the database's error message.
+ *
+ */
+
+public class BatchResult{
+
+	/**
+	 * A rejected row.
+	 */
+	public static class RowError{
+		public final int row;
+		public final String message;
+
+		public RowError(int row, String message){
+			this.row = row;
+			this.message = message;
+		}
+
+		public String toString(){
+			return "row " + this.row + ": " + this.message;
+		}
+	}//end RowError
+
+	private long _written = 0;
+	private int _batches = 0;
+	private final List<RowError> _errors = new ArrayList<RowError>();
+	private final long _startNanos = System.nanoTime();
+	private long _endNanos = 0;
+
+	void addWritten(long rows){ this._written += rows; }
+	void addBatch(){ ++this._batches; }
+	void addError(int row, String message){ this._errors.add(new RowError(row, message)); }
+	void finish(){ this._endNanos = System.nanoTime(); }
+
+	public long getWritten(){ return this._written; }
+	public int getBatches(){ return this._batches; }
+	public List<RowError> getErrors(){ return this._errors; }
+	public boolean hasErrors(){ return !this._errors.isEmpty(); }
+
+	public double getSeconds(){
+		long end = this._endNanos != 0 ? this._endNanos : System.nanoTime();
+		return (end - this._startNanos) / 1e9;
+	}
+
+	public String toString(){
+		double secs = getSeconds();
+		return String.format("%d row(s) written in %d batch(es), %d rejected, %.2f s (%.0f rows/s)",
+			this._written, this._batches, this._errors.size(), secs, secs <= 0 ? 0 : this._written / secs);
+	}
+}//end BatchResult
@@ -0,0 +1,331 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+
+/**
+ * This class loads the CSV data set from the client machine.  Each file is
+ * streamed to the server with COPY ... FROM STDIN through the driver's
+ * CopyManager, so the files no longer have to be copied into the server's
+ * data directory.  Tables without dependencies between them are loaded in
+ * parallel, one connection each, stage by stage in foreign key order.
+ * Instead of the files, a DataGenerator can be streamed into COPY.
+ * The summary table triggers are skipped during the load and the tables
+ * rebuilt once at the end.  When the request tables are partitioned by
+ * month, Closed_Request rows are staged in a temporary table to add the
+ * date of their request, and the requests loaded into the default
+ * partitions are moved to monthly partitions at the end.
+ *
+ */
+
+public class BulkLoader{
+	private static final int COPY_BUFFER_SIZE = 1 << 16;
+	private static final long PROGRESS_INTERVAL_MILLIS = 1000;
+
+	/**
+	 * One table of the data set and the CSV file it is loaded from.
+	 */
+	public static class Table{
+		final String name;
+		final String file;
+		final String columns;
+		final AtomicLong rows = new AtomicLong();
+		volatile long startNanos;
+		volatile long endNanos;
+
+		Table(String name, String file, String columns){
+			this.name = name;
+			this.file = file;
+			this.columns = columns;
+		}
+
+		double rowsPerSecond(long now){
+			long end = this.endNanos != 0 ? this.endNanos : now;
+			double secs = (end - this.startNanos) / 1e9;
+			return secs <= 0 ? 0 : this.rows.get() / secs;
+		}
+	}//end Table
+
+	//tables in one stage only reference tables of earlier stages
+	private static Table[][] stages(){
+		return new Table[][]{
+			{ new Table("Customer", "customer.csv", "id, fname, lname, phone, address"),
+			  new Table("Mechanic", "mechanic.csv", "id, fname, lname, experience"),
+			  new Table("Car", "car.csv", "vin, make, model, year") },
+			{ new Table("Owns", "owns.csv", "ownership_id, customer_id, car_vin"),
+			  new Table("Service_Request", "service_request.csv", "rid, customer_id, car_vin, date, odometer, complain") },
+			{ new Table("Closed_Request", "closed_request.csv", "wid, rid, mid, date, comment, bill") }
+		};
+	}
+
+	//moves the id sequences of create.sql past the loaded keys
+	static final String[] SYNC_SEQUENCES = {
+		"SELECT setval('customer_id_seq', COALESCE((SELECT MAX(id) + 1 FROM Customer), 0), false)",
+		"SELECT setval('mechanic_id_seq', COALESCE((SELECT MAX(id) + 1 FROM Mechanic), 0), false)",
+		"SELECT setval('owns_ownership_id_seq', COALESCE((SELECT MAX(ownership_id) + 1 FROM Owns), 0), false)",
+		"SELECT setval('service_request_rid_seq', COALESCE((SELECT MAX(rid) + 1 FROM Service_Request), 0), false)",
+		"SELECT setval('closed_request_wid_seq', COALESCE((SELECT MAX(wid) + 1 FROM Closed_Request), 0), false)"
+	};
+
+	//a partitioned Closed_Request also needs the date of the request
+	private static final String STAGE_CLOSED =
+		"CREATE TEMP TABLE Closed_Request_Load ON COMMIT DROP AS SELECT wid, rid, mid, date, comment, bill FROM Closed_Request WITH NO DATA";
+	private static final String INSERT_STAGED_CLOSED =
+		"INSERT INTO Closed_Request (wid, rid, mid, date, comment, bill, request_date)"
+		+ " SELECT L.wid, L.rid, L.mid, L.date, L.comment, L.bill, S.date FROM Closed_Request_Load L LEFT JOIN Service_Request S ON S.rid = L.rid";
+	private static final String SPLIT_DEFAULT_PARTITIONS =
+		"SELECT create_request_partitions(MIN(date), MAX(date)) FROM Service_Request_Default";
+
+	private final ConnectionPool _pool;
+	private final File _dir;
+	private final DataGenerator _generator;
+	private boolean _partitioned;
+
+	/**
+	 * @param pool where the loading connections are borrowed from; it
+	 * should allow at least three connections for full parallelism
+	 * @param dir directory holding customer.csv, mechanic.csv, car.csv,
+	 * owns.csv, service_request.csv and closed_request.csv
+	 */
+	public BulkLoader(ConnectionPool pool, File dir){
+		this._pool = pool;
+		this._dir = dir;
+		this._generator = null;
+	}
+
+	/**
+	 * @param pool where the loading connections are borrowed from
+	 * @param generator the synthetic data set streamed into COPY in place
+	 * of the files
+	 */
+	public BulkLoader(ConnectionPool pool, DataGenerator generator){
+		this._pool = pool;
+		this._dir = null;
+		this._generator = generator;
+	}
+
+	/**
+	 * Loads all six tables and resynchronizes the id sequences.
+	 *
+	 * @param truncate empty the tables before loading
+	 * @param out where progress is reported
+	 * @return the total number of rows loaded
+	 * @throws java.lang.Exception when a file is missing or a COPY fails
+	 */
+	public long load(boolean truncate, PrintStream out) throws Exception {
+		Table[][] stages = stages();
+		for (Table[] stage : this._generator != null ? new Table[0][] : stages){
+			for (Table t : stage){
+				File f = new File(this._dir, t.file);
+				if (!f.canRead()){
+					throw new IOException("Cannot read " + f.getPath());
+				}
+			}
+		}
+		if (truncate){
+			execute("TRUNCATE Closed_Request, Service_Request, Owns, Car, Mechanic, Customer");
+		}
+		//a generated data set has known dates, so its months are created up front
+		this._partitioned = hasFunction("create_request_partitions");
+		if (this._partitioned && this._generator != null){
+			LocalDate[] dates = this._generator.getRequestDates();
+			execute("SELECT create_request_partitions('" + dates[0] + "', '" + dates[1] + "')");
+		}
+
+		long start = System.nanoTime();
+		long total = 0;
+		ExecutorService workers = Executors.newFixedThreadPool(3);
+		try{
+			for (Table[] stage : stages){
+				List<Future<Long>> running = new ArrayList<Future<Long>>();
+				for (final Table t : stage){
+					running.add(workers.submit(() -> copy(t)));
+				}
+				total += await(stage, running, out);
+			}
+		}finally{
+			workers.shutdownNow();
+		}
+		for (String sql : SYNC_SEQUENCES){
+			execute(sql);
+		}
+		if (this._partitioned){
+			int months = queryInt(SPLIT_DEFAULT_PARTITIONS);
+			if (months > 0){
+				out.println("Moved the loaded requests to " + months + " new monthly partition(s)");
+			}
+		}
+		if (rebuildSummaries()){
+			out.println("Rebuilt the report summary tables");
+		}
+
+		double secs = (System.nanoTime() - start) / 1e9;
+		out.println(String.format("Loaded %d rows in %.2f s (%.0f rows/s)", total, secs, secs <= 0 ? 0 : total / secs));
+		return total;
+	}
+
+	//waits for one stage, printing progress every second
+	private long await(Table[] stage, List<Future<Long>> running, PrintStream out) throws Exception {
+		long total = 0;
+		for (int i = 0; i < running.size(); ++i){
+			Future<Long> f = running.get(i);
+			while (true){
+				try{
+					total += f.get(PROGRESS_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+					break;
+				}catch (TimeoutException e){
+					printProgress(stage, out);
+				}catch (ExecutionException e){
+					for (Future<Long> other : running){
+						other.cancel(true);
+					}
+					Throwable cause = e.getCause();
+					throw cause instanceof Exception ? (Exception) cause : e;
+				}
+			}
+		}
+		for (Table t : stage){
+			out.println(String.format("  %-16s %10d rows  %.2f s  %.0f rows/s", t.name, t.rows.get(),
+				(t.endNanos - t.startNanos) / 1e9, t.rowsPerSecond(t.endNanos)));
+		}
+		return total;
+	}
+
+	private void printProgress(Table[] stage, PrintStream out){
+		long now = System.nanoTime();
+		StringBuilder sb = new StringBuilder("  loading");
+		for (Table t : stage){
+			sb.append(String.format(" %s=%d (%.0f rows/s)", t.name, t.rows.get(), t.rowsPerSecond(now)));
+		}
+		out.println(sb);
+	}
+
+	private long copy(Table t) throws SQLException, IOException {
+		Reader source = this._generator != null ? this._generator.open(t.name)
+			: new InputStreamReader(new FileInputStream(new File(this._dir, t.file)), StandardCharsets.UTF_8);
+		Reader reader = new LineCountingReader(source, t.rows);
+		ConnectionPool.PooledConnection pc = null;
+		try{
+			pc = this._pool.borrow();
+			//one transaction per table; the data set writes dates as month/day/year
+			pc.getConnection().setAutoCommit(false);
+			Statement stmt = pc.getConnection().createStatement();
+			stmt.execute("SET LOCAL DateStyle = 'ISO, MDY'");
+			//row by row upkeep of the summary tables is far slower than
+			//rebuilding them once the load is done
+			stmt.execute("SET LOCAL mechanicshop.skip_summaries = on");
+			stmt.close();
+
+			boolean staged = this._partitioned && t.name.equals("Closed_Request");
+			if (staged){
+				stmt = pc.getConnection().createStatement();
+				stmt.execute(STAGE_CLOSED);
+				stmt.close();
+			}
+
+			CopyManager copy = pc.getConnection().unwrap(PGConnection.class).getCopyAPI();
+			t.startNanos = System.nanoTime();
+			long rows = copy.copyIn("COPY " + (staged ? "Closed_Request_Load" : t.name) + " (" + t.columns + ") FROM STDIN WITH DELIMITER ','",
+				reader, COPY_BUFFER_SIZE);
+			if (staged){
+				stmt = pc.getConnection().createStatement();
+				stmt.executeUpdate(INSERT_STAGED_CLOSED);
+				stmt.close();
+			}
+			pc.getConnection().commit();
+			t.endNanos = System.nanoTime();
+			t.rows.set(rows);
+			return rows;
+		}finally{
+			reader.close();
+			if (pc != null){
+				this._pool.release(pc);
+			}
+		}
+	}
+
+	//recomputes the summary tables, unless migration 003 is not applied yet
+	private boolean rebuildSummaries() throws SQLException {
+		boolean exists = hasFunction("rebuild_report_summaries");
+		if (exists){
+			execute("SELECT rebuild_report_summaries()");
+		}
+		return exists;
+	}
+
+	//tells whether a migration defining the function is applied
+	private boolean hasFunction(String name) throws SQLException {
+		return queryInt("SELECT (to_regproc('" + name + "') IS NOT NULL)::int") == 1;
+	}
+
+	private int queryInt(String sql) throws SQLException {
+		ConnectionPool.PooledConnection pc = this._pool.borrow();
+		try{
+			Statement stmt = pc.getConnection().createStatement();
+			ResultSet rs = stmt.executeQuery(sql);
+			int value = rs.next() ? rs.getInt(1) : 0;
+			rs.close();
+			stmt.close();
+			return value;
+		}finally{
+			this._pool.release(pc);
+		}
+	}
+
+	private void execute(String sql) throws SQLException {
+		ConnectionPool.PooledConnection pc = this._pool.borrow();
+		try{
+			Statement stmt = pc.getConnection().createStatement();
+			stmt.execute(sql);
+			stmt.close();
+		}finally{
+			this._pool.release(pc);
+		}
+	}
+
+	/**
+	 * Counts the lines passing through, for progress reporting.
+	 */
+	private static class LineCountingReader extends FilterReader{
+		private final AtomicLong _lines;
+
+		LineCountingReader(Reader in, AtomicLong lines){
+			super(in);
+			this._lines = lines;
+		}
+
+		public int read(char[] buf, int off, int len) throws IOException {
+			int n = super.read(buf, off, len);
+			int lines = 0;
+			for (int i = off; i < off + n; ++i){
+				if (buf[i] == '\n'){
+					++lines;
+				}
+			}
+			if (lines > 0){
+				this._lines.addAndGet(lines);
+			}
+			return n;
+		}
+	}//end LineCountingReader
+}//end BulkLoader
@@ -0,0 +1,37 @@
+/**
+ * A row of Car.
+ *
+ */
+
+public final class Car{
+	public static final RowMapper<Car> MAPPER = rs -> new Car(rs.getString("vin"), rs.getString("make"),
+		rs.getString("model"), rs.getInt("year"));
+
+	private final String _vin;
+	private final String _make;
+	private final String _model;
+	private final int _year;
+
+	public Car(String vin, String make, String model, int year){
+		this._vin = vin;
+		this._make = make;
+		this._model = model;
+		this._year = year;
+	}
+
+	public String getVin(){
+		return this._vin;
+	}
+
+	public String getMake(){
+		return this._make;
+	}
+
+	public String getModel(){
+		return this._model;
+	}
+
+	public int getYear(){
+		return this._year;
+	}
+}//end Car
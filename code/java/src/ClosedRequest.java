@@ -0,0 +1,58 @@
+import java.sql.Date;
+
+/**
+ * A row of Closed_Request.  date is the day it was closed, requestDate
+ * the day of its service request.  The comment may be null.
+ *
+ */
+
+public final class ClosedRequest{
+	public static final RowMapper<ClosedRequest> MAPPER = rs -> new ClosedRequest(rs.getInt("wid"), rs.getInt("rid"),
+		rs.getInt("mid"), rs.getDate("date"), rs.getString("comment"), rs.getInt("bill"), rs.getDate("request_date"));
+
+	private final int _wid;
+	private final int _rid;
+	private final int _mid;
+	private final Date _date;
+	private final String _comment;
+	private final int _bill;
+	private final Date _requestDate;
+
+	public ClosedRequest(int wid, int rid, int mid, Date date, String comment, int bill, Date requestDate){
+		this._wid = wid;
+		this._rid = rid;
+		this._mid = mid;
+		this._date = date;
+		this._comment = comment;
+		this._bill = bill;
+		this._requestDate = requestDate;
+	}
+
+	public int getWid(){
+		return this._wid;
+	}
+
+	public int getRid(){
+		return this._rid;
+	}
+
+	public int getMid(){
+		return this._mid;
+	}
+
+	public Date getDate(){
+		return this._date;
+	}
+
+	public String getComment(){
+		return this._comment;
+	}
+
+	public int getBill(){
+		return this._bill;
+	}
+
+	public Date getRequestDate(){
+		return this._requestDate;
+	}
+}//end ClosedRequest
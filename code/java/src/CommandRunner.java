@@ -0,0 +1,570 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class runs the shop operations from command line arguments or from
+ * a script of commands instead of the interactive menu.  All commands of a
+ * script share the one MechanicShop and its connection pool.  Every command
+ * returns an exit status: OK, FAILED when the operation failed, or USAGE
+ * when the command itself was malformed.
+ *
+ */
+
+public class CommandRunner{
+	public static final int OK = 0;
+	public static final int FAILED = 1;
+	public static final int USAGE = 2;
+
+	public static final String USAGE_TEXT =
+		"Commands:\n" +
+		"  add-customer --fname <name> --lname <name> --phone <(ddd)ddd-dddd> --address <address>\n" +
+		"  add-mechanic --fname <name> --lname <name> --experience <years>\n" +
+		"  add-car --vin <vin> --make <make> --model <model> --year <year>\n" +
+		"  insert-request --customer <id> --vin <vin> --odometer <miles> [--complain <text>]\n" +
+		"  close-request --rid <rid> --mid <mechanic id> --comment <text> --bill <amount>\n" +
+		"  report bill-under-100 | old-cars | total-bill [--from <yyyy-mm-dd>] [--to <yyyy-mm-dd>]\n" +
+		"                                      the dates limit which requests are read\n" +
+		"  report many-cars\n" +
+		"  dashboard                           reports 6 to 10 at once, each kept for a few seconds\n" +
+		"                                      (-Dmechanicshop.dashboard.maxStalenessMs, .timeoutMs)\n" +
+		"  report top-cars [--k <n>] [--make <make>] [--model <model>] [--from <yyyy-mm-dd>] [--to <yyyy-mm-dd>]\n" +
+		"                                      the dates limit which requests are counted\n" +
+		"  list-requests [--open] [--customer <id>] [--match <vin or last name>] [--from <yyyy-mm-dd>] [--to <yyyy-mm-dd>]\n" +
+		"                                      newest first\n" +
+		"  search-requests <words> [--open] [--vin <vin>] [--before-year <year>] [--from <yyyy-mm-dd>] [--to <yyyy-mm-dd>]\n" +
+		"                                      complaints and closing comments, best match first\n" +
+		"  list-customers [--lname <name>]\n" +
+		"  search-customers <last name or phone> [--limit <n>]\n" +
+		"                                      by name prefix, similar names or phone digits, best match first\n" +
+		"  list-mechanics [--lname <name>]\n" +
+		"  load <csv dir> [--truncate]\n" +
+		"  generate <csv dir> | --load [--truncate] [--scale <x>] [--seed <n>] [--skew <x>] [--closed <fraction>] [--threads <n>]\n" +
+		"                                      synthetic data set, scale 1 is the size of code/data\n" +
+		"  import <customer|car|owns|service_request> <file> [--batch-size <n>]\n" +
+		"  explain [--verbose]\n" +
+		"  rebuild-summaries                   recompute the summary tables of reports 9 and 10\n" +
+		"  analytics [--verify]                load the in-memory copy of reports 6 to 10 (-Dmechanicshop.analytics=true\n" +
+		"                                      keeps one), --verify compares every report with the database\n" +
+		"  partitions                          the monthly partitions of the request tables\n" +
+		"  partitions create --from <yyyy-mm-dd> --to <yyyy-mm-dd>\n" +
+		"                                      add the partitions of the months in between\n" +
+		"  archive --before <yyyy-mm-dd> --dir <dir>\n" +
+		"                                      move the months ending before the date to gzipped csv files\n" +
+		"  restore <dir> --month <yyyy-mm>     load an archived month back\n" +
+		"  metrics [--format text|prometheus]  statement timings, connection pool and cache counters\n" +
+		"  script <file|-> [--keep-going]     one command per line, # starts a comment\n" +
+		"  serve [--port <n>] [--sessions <n>] [--bind <address>]\n" +
+		"                                      serve many desks over TCP (default port 5166, 64 sessions,\n" +
+		"                                      loopback only unless --bind names another address):\n" +
+		"                                      one command per line, each answered by its output and \"END <status>\"\n" +
+		"Options for the list commands:\n" +
+		"  --limit <n>                         rows per page (default 20)\n" +
+		"  --after <key>                       the page after the one ending with that rid or id\n" +
+		"Options for any command:\n" +
+		"  --format table|tsv|csv|json         how query results are printed (default table)\n";
+
+	//options that take no value
+	private static final Set<String> FLAGS = new HashSet<String>(Arrays.asList("truncate", "verbose", "keep-going", "load", "open", "verify"));
+
+	//commands that read or write files of the machine they run on, take it
+	//over, change the schema or do maintenance; a desk connected to the
+	//server must not run them there
+	private static final Set<String> LOCAL_ONLY = new HashSet<String>(Arrays.asList("load", "generate", "import", "script", "serve", "archive", "restore",
+		"partitions", "rebuild-summaries", "analytics"));
+
+	private final MechanicShop _esql;
+	private final PrintStream _out;
+	private final PrintStream _err;
+	private final Writer _writer;
+	private final boolean _remote;
+
+	/**
+	 * @param esql the connected MechanicShop
+	 * @param out where results are printed
+	 * @param err where errors are printed
+	 */
+	public CommandRunner(MechanicShop esql, PrintStream out, PrintStream err){
+		this(esql, out, err, false);
+	}
+
+	/**
+	 * @param esql the connected MechanicShop
+	 * @param out where results are printed
+	 * @param err where errors are printed
+	 * @param remote the commands come from a ShopServer session, which
+	 * may not run the LOCAL_ONLY commands
+	 */
+	public CommandRunner(MechanicShop esql, PrintStream out, PrintStream err, boolean remote){
+		this._esql = esql;
+		this._out = out;
+		this._err = err;
+		this._writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), ResultSink.DEFAULT_BUFFER_SIZE);
+		this._remote = remote;
+	}
+
+	/**
+	 * Runs one command.
+	 *
+	 * @param args the command name followed by its arguments and options
+	 * @return OK, FAILED or USAGE
+	 */
+	public int run(String[] args){
+		List<String> positional = new ArrayList<String>();
+		Map<String, String> options = new HashMap<String, String>();
+		for (int i = 0; i < args.length; ++i){
+			if (args[i].startsWith("--")){
+				String name = args[i].substring(2);
+				if (FLAGS.contains(name)){
+					options.put(name, "true");
+				} else if (i + 1 < args.length){
+					options.put(name, args[++i]);
+				} else {
+					return usage("missing value for --" + name);
+				}
+			} else {
+				positional.add(args[i]);
+			}
+		}
+		if (positional.isEmpty()){
+			return usage("no command given");
+		}
+
+		String command = positional.get(0);
+		try{
+			String format = option(options, "format", "table");
+			if (this._remote && LOCAL_ONLY.contains(command)){
+				return usage(command + " is not available in a server session");
+			}
+			if (command.equals("add-customer")){
+				int cid = this._esql.addCustomer(required(options, "fname"), required(options, "lname"),
+					required(options, "phone"), required(options, "address"));
+				print(format, MechanicShop.CUSTOMER_BY_ID, cid);
+			} else if (command.equals("add-mechanic")){
+				int mid = this._esql.addMechanic(required(options, "fname"), required(options, "lname"),
+					intOption(options, "experience"));
+				print(format, MechanicShop.MECHANIC_BY_ID, mid);
+			} else if (command.equals("add-car")){
+				String vin = required(options, "vin");
+				this._esql.addCar(vin, required(options, "make"), required(options, "model"), intOption(options, "year"));
+				print(format, MechanicShop.CAR_BY_VIN, vin);
+			} else if (command.equals("insert-request")){
+				int rid = this._esql.insertServiceRequest(intOption(options, "customer"), required(options, "vin"),
+					intOption(options, "odometer"), option(options, "complain", ""));
+				//a write-behind request is not in the table yet
+				if (this._esql.getRequestQueue() != null){
+					this._out.println("service request " + rid + " is queued and will be saved shortly");
+				} else {
+					print(format, MechanicShop.REQUEST_BY_RID, rid);
+				}
+			} else if (command.equals("close-request")){
+				int wid = this._esql.closeServiceRequest(intOption(options, "rid"), intOption(options, "mid"),
+					required(options, "comment"), intOption(options, "bill"));
+				print(format, MechanicShop.CLOSED_REQUEST_BY_WID, wid);
+			} else if (command.equals("report") && positional.size() == 2){
+				return report(positional.get(1), options, format);
+			} else if (command.equals("dashboard") && positional.size() == 1){
+				return dashboard(format);
+			} else if (command.equals("list-requests") && positional.size() == 1){
+				RequestFilter filter = new RequestFilter();
+				if (options.containsKey("open")){
+					filter.openOnly();
+				}
+				if (options.containsKey("customer")){
+					filter.customer(intOption(options, "customer"));
+				}
+				if (options.containsKey("match")){
+					filter.matching(options.get("match"));
+				}
+				if (options.containsKey("from") || options.containsKey("to")){
+					filter.between(dateOption(options, "from"), dateOption(options, "to"));
+				}
+				print(format, this._esql.pageServiceRequests(filter, after(options), limit(options)));
+			} else if (command.equals("search-requests") && positional.size() == 2){
+				RequestSearch search;
+				try{
+					search = new RequestSearch(positional.get(1));
+				}catch (IllegalArgumentException e){
+					throw new UsageException(e.getMessage());
+				}
+				if (options.containsKey("open")){
+					search.openOnly();
+				}
+				if (options.containsKey("vin")){
+					search.car(options.get("vin"));
+				}
+				if (options.containsKey("before-year")){
+					search.carsBefore(intOption(options, "before-year"));
+				}
+				if (options.containsKey("from") || options.containsKey("to")){
+					search.between(dateOption(options, "from"), dateOption(options, "to"));
+				}
+				print(format, this._esql.pageRequestSearch(search, after(options), limit(options)));
+			} else if (command.equals("list-customers") && positional.size() == 1){
+				print(format, this._esql.pageCustomers(options.get("lname"), after(options), limit(options)));
+			} else if (command.equals("search-customers") && positional.size() == 2){
+				CustomerSearch search;
+				try{
+					search = new CustomerSearch(positional.get(1));
+				}catch (IllegalArgumentException e){
+					throw new UsageException(e.getMessage());
+				}
+				int rows = this._esql.searchCustomers(sink(format), search, limit(options));
+				if (format.equalsIgnoreCase("table")){
+					this._writer.write("total row(s): " + rows + "\n");
+					this._writer.flush();
+				}
+			} else if (command.equals("list-mechanics") && positional.size() == 1){
+				print(format, this._esql.pageMechanics(options.get("lname"), after(options), limit(options)));
+			} else if (command.equals("load") && positional.size() == 2){
+				this._esql.bulkLoad(new File(positional.get(1)), options.containsKey("truncate"), this._out);
+			} else if (command.equals("generate") && positional.size() == (options.containsKey("load") ? 1 : 2)){
+				return generate(positional.size() == 2 ? new File(positional.get(1)) : null, options);
+			} else if (command.equals("import") && positional.size() == 3){
+				int batchSize = options.containsKey("batch-size") ? intOption(options, "batch-size") : CsvImporter.DEFAULT_BATCH_SIZE;
+				int rejected = new CsvImporter(this._esql, positional.get(1), batchSize).importFile(new File(positional.get(2)), this._out);
+				return rejected == 0 ? OK : FAILED;
+			} else if (command.equals("explain")){
+				return QueryPlanCheck.run(this._esql.getPool(), this._out, options.containsKey("verbose")) == 0 ? OK : FAILED;
+			} else if (command.equals("script") && positional.size() == 2){
+				String file = positional.get(1);
+				Reader in = file.equals("-") ? new InputStreamReader(System.in, StandardCharsets.UTF_8)
+					: new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8);
+				return runScript(new BufferedReader(in), options.containsKey("keep-going"));
+			} else if (command.equals("serve") && positional.size() == 1){
+				return serve(options);
+			} else if (command.equals("partitions") && positional.size() == 1){
+				print(format, RequestArchive.PARTITIONS);
+			} else if (command.equals("partitions") && positional.size() == 2 && positional.get(1).equals("create")){
+				int months = this._esql.createRequestPartitions(requiredDate(options, "from"), requiredDate(options, "to"));
+				this._out.println("created " + months + " monthly partition(s)");
+			} else if (command.equals("archive") && positional.size() == 1){
+				int months = this._esql.archiveRequests(requiredDate(options, "before"), new File(required(options, "dir")), this._out);
+				this._out.println("archived " + months + " month(s)");
+			} else if (command.equals("restore") && positional.size() == 2){
+				YearMonth month;
+				try{
+					month = YearMonth.parse(required(options, "month").trim());
+				}catch (DateTimeParseException e){
+					throw new UsageException("--month must be a month as yyyy-mm, got " + options.get("month"));
+				}
+				long rows = this._esql.restoreRequests(new File(positional.get(1)), month);
+				this._out.println("restored " + rows + " rows of " + month);
+			} else if (command.equals("rebuild-summaries")){
+				long millis = this._esql.rebuildReportSummaries();
+				this._out.println("rebuilt the report summaries in " + millis + " ms");
+			} else if (command.equals("analytics") && positional.size() == 1){
+				return analytics(options.containsKey("verify"));
+			} else if (command.equals("metrics")){
+				QueryMetrics metrics = this._esql.getMetrics();
+				this._out.print(format.equals("prometheus") ? metrics.dumpPrometheus() : metrics.dumpText());
+			} else if (command.equals("help")){
+				this._out.print(USAGE_TEXT);
+			} else {
+				return usage("unknown command: " + String.join(" ", positional));
+			}
+			return OK;
+		}catch (UsageException e){
+			return usage(e.getMessage());
+		}catch (Exception e){
+			this._err.println("error: " + e.getMessage());
+			return FAILED;
+		}finally{
+			this._out.flush();
+		}
+	}
+
+	/**
+	 * Runs one command per line until the end of the input.  Arguments
+	 * containing spaces can be double quoted.
+	 *
+	 * @param in the script
+	 * @param keepGoing continue after a failed command
+	 * @return OK if every command succeeded, else the status of the first
+	 * failure
+	 * @throws java.io.IOException when the script cannot be read
+	 */
+	public int runScript(BufferedReader in, boolean keepGoing) throws IOException {
+		int status = OK;
+		String line;
+		int lineNo = 0;
+		while ((line = in.readLine()) != null){
+			++lineNo;
+			String trimmed = line.trim();
+			if (trimmed.isEmpty() || trimmed.startsWith("#")){
+				continue;
+			}
+			int result = run(tokenize(trimmed));
+			if (result != OK){
+				this._err.println("line " + lineNo + ": command failed: " + trimmed);
+				if (status == OK){
+					status = result;
+				}
+				if (!keepGoing){
+					break;
+				}
+			}
+		}
+		return status;
+	}
+
+	private int report(String name, Map<String, String> options, String format) throws Exception {
+		ReportPeriod period = new ReportPeriod(dateOption(options, "from"), dateOption(options, "to"));
+		List<Object> params = new ArrayList<Object>();
+		if (name.equals("bill-under-100")){
+			print(format, period.billLessThan100(params), params.toArray());
+		} else if (name.equals("many-cars")){
+			print(format, MechanicShop.REPORT_MORE_THAN_20_CARS);
+		} else if (name.equals("old-cars")){
+			print(format, period.carsBefore1995(params), params.toArray());
+		} else if (name.equals("top-cars")){
+			int k = options.containsKey("k") ? intOption(options, "k") : 10;
+			if (k <= 0){
+				throw new UsageException("--k must be greater than 0");
+			}
+			TopCarsFilter filter = new TopCarsFilter().make(options.get("make")).model(options.get("model"))
+				.between(dateOption(options, "from"), dateOption(options, "to"));
+			ResultSink sink = sink(format);
+			int rows = this._esql.writeTopServicedCars(sink, filter, k);
+			if (format.equalsIgnoreCase("table")){
+				this._writer.write("total row(s): " + rows + "\n");
+				this._writer.flush();
+			}
+		} else if (name.equals("total-bill")){
+			print(format, period.totalBill(params), params.toArray());
+		} else {
+			throw new UsageException("unknown report: " + name);
+		}
+		return OK;
+	}
+
+	//prints reports 6 to 10, each under a line telling how old it is
+	private int dashboard(String format) throws Exception {
+		long start = System.nanoTime();
+		List<Dashboard.Panel> panels = this._esql.getDashboard().read();
+		int status = OK;
+		for (Dashboard.Panel panel : panels){
+			LookupCache.Result rows = panel.getRows();
+			StringBuilder line = new StringBuilder("== ").append(panel.getTitle());
+			if (rows != null){
+				line.append(String.format(": %d row(s), read %d ms ago in %.1f ms", rows.size(), panel.getAgeMillis(), panel.getQueryMillis()));
+			}
+			if (panel.getError() != null){
+				line.append(panel.isStale() ? ", stale: " : ": ").append(panel.getError());
+				status = FAILED;
+			}
+			this._writer.write(line.append("\n").toString());
+			panel.writeTo(sink(format));
+		}
+		this._writer.write(String.format("dashboard in %.1f ms%n", (System.nanoTime() - start) / 1e6));
+		this._writer.flush();
+		return status;
+	}
+
+	//refreshes the shop's report engine, or loads one for this command only
+	private int analytics(boolean verify) throws Exception {
+		ReportEngine engine = this._esql.getReportEngine();
+		if (engine == null){
+			engine = new ReportEngine(this._esql, 0, Integer.getInteger("mechanicshop.analytics.lookbackBlocks", 64));
+		}
+		long start = System.nanoTime();
+		long rows = engine.refresh();
+		this._out.println(String.format("read %d row(s) in %.1f ms: %s", rows, (System.nanoTime() - start) / 1e6, engine));
+		if (verify){
+			return engine.verify(this._out) == 0 ? OK : FAILED;
+		}
+		return OK;
+	}
+
+	//serves the desks until the process is stopped
+	private int serve(Map<String, String> options) throws Exception {
+		int port = options.containsKey("port") ? intOption(options, "port") : ShopServer.DEFAULT_PORT;
+		int sessions = options.containsKey("sessions") ? intOption(options, "sessions")
+			: Integer.getInteger("mechanicshop.server.sessions", ShopServer.DEFAULT_SESSIONS);
+		if (sessions <= 0){
+			throw new UsageException("--sessions must be greater than 0");
+		}
+		InetAddress address;
+		try{
+			address = options.containsKey("bind") ? InetAddress.getByName(options.get("bind")) : InetAddress.getLoopbackAddress();
+		}catch (UnknownHostException e){
+			throw new UsageException("--bind must be a local address, got " + options.get("bind"));
+		}
+		final ShopServer server = new ShopServer(this._esql, address, port, sessions);
+		Runtime.getRuntime().addShutdownHook(new Thread(server::stop, "server-stop"));
+		server.serve(this._out);
+		return OK;
+	}
+
+	//writes a synthetic data set to csv files, or loads it when dir is null
+	private int generate(File dir, Map<String, String> options) throws Exception {
+		DataGenerator generator;
+		try{
+			generator = new DataGenerator(
+				Double.parseDouble(option(options, "scale", "1")),
+				Long.parseLong(option(options, "seed", String.valueOf(DataGenerator.DEFAULT_SEED))),
+				Double.parseDouble(option(options, "skew", String.valueOf(DataGenerator.DEFAULT_SKEW))),
+				Double.parseDouble(option(options, "closed", String.valueOf(DataGenerator.DEFAULT_CLOSED_FRACTION))),
+				options.containsKey("threads") ? intOption(options, "threads") : Runtime.getRuntime().availableProcessors());
+		}catch (NumberFormatException e){
+			throw new UsageException("invalid number: " + e.getMessage());
+		}
+		try{
+			this._out.println("Generating " + generator);
+			if (dir != null){
+				generator.writeFiles(dir, this._out);
+			} else {
+				this._esql.bulkLoad(generator, options.containsKey("truncate"), this._out);
+			}
+		}finally{
+			generator.close();
+		}
+		return OK;
+	}
+
+	//runs a query and renders its rows in the requested format
+	private void print(String format, String query, Object... params) throws Exception {
+		ResultSink sink = sink(format);
+		int rows = this._esql.executeQueryAndWriteResult(sink, query, params);
+		if (format.equalsIgnoreCase("table")){
+			this._writer.write("total row(s): " + rows + "\n");
+			this._writer.flush();
+		}
+	}
+
+	private ResultSink sink(String format) throws UsageException {
+		try{
+			return ResultSink.forFormat(format, this._writer, ResultSink.DEFAULT_PAGE_SIZE);
+		}catch (IllegalArgumentException e){
+			throw new UsageException(e.getMessage());
+		}
+	}
+
+	//renders one page of a listing and tells how to get the next one
+	private void print(String format, Page page) throws Exception {
+		ResultSink sink = sink(format);
+		page.writeTo(sink);
+		if (format.equalsIgnoreCase("table")){
+			this._writer.write("total row(s): " + page.size() + "\n");
+			if (page.hasNext()){
+				this._writer.write("next page: --after " + page.getNextKey() + "\n");
+			}
+			this._writer.flush();
+		}
+	}
+
+	private int usage(String message){
+		this._err.println("error: " + message);
+		this._err.print(USAGE_TEXT);
+		this._err.flush();
+		return USAGE;
+	}
+
+	private static String option(Map<String, String> options, String name, String fallback){
+		String value = options.get(name);
+		return value != null ? value : fallback;
+	}
+
+	private static String required(Map<String, String> options, String name) throws UsageException {
+		String value = options.get(name);
+		if (value == null){
+			throw new UsageException("missing --" + name);
+		}
+		return value;
+	}
+
+	private static int intOption(Map<String, String> options, String name) throws UsageException {
+		String value = required(options, name);
+		try{
+			return Integer.parseInt(value.trim());
+		}catch (NumberFormatException e){
+			throw new UsageException("--" + name + " must be a number, got " + value);
+		}
+	}
+
+	private static Integer after(Map<String, String> options) throws UsageException {
+		return options.containsKey("after") ? Integer.valueOf(intOption(options, "after")) : null;
+	}
+
+	private static int limit(Map<String, String> options) throws UsageException {
+		int limit = options.containsKey("limit") ? intOption(options, "limit") : MechanicShop.BROWSE_LIMIT;
+		if (limit <= 0){
+			throw new UsageException("--limit must be greater than 0");
+		}
+		return limit;
+	}
+
+	private static java.sql.Date dateOption(Map<String, String> options, String name) throws UsageException {
+		String value = options.get(name);
+		if (value == null){
+			return null;
+		}
+		try{
+			return java.sql.Date.valueOf(value.trim());
+		}catch (IllegalArgumentException e){
+			throw new UsageException("--" + name + " must be a date as yyyy-mm-dd, got " + value);
+		}
+	}
+
+	private static java.sql.Date requiredDate(Map<String, String> options, String name) throws UsageException {
+		required(options, name);
+		return dateOption(options, name);
+	}
+
+	//splits a script line on blanks, keeping double quoted parts together
+	static String[] tokenize(String line){
+		List<String> tokens = new ArrayList<String>();
+		StringBuilder current = new StringBuilder();
+		boolean quoted = false;
+		boolean inToken = false;
+		for (int i = 0; i < line.length(); ++i){
+			char c = line.charAt(i);
+			if (c == '"'){
+				quoted = !quoted;
+				inToken = true;
+			} else if (c == '\\' && quoted && i + 1 < line.length()){
+				current.append(line.charAt(++i));
+			} else if (Character.isWhitespace(c) && !quoted){
+				if (inToken){
+					tokens.add(current.toString());
+					current.setLength(0);
+					inToken = false;
+				}
+			} else {
+				current.append(c);
+				inToken = true;
+			}
+		}
+		if (inToken){
+			tokens.add(current.toString());
+		}
+		return tokens.toArray(new String[0]);
+	}
+
+	private static class UsageException extends Exception{
+		private static final long serialVersionUID = 1L;
+
+		UsageException(String message){
+			super(message);
+		}
+	}
+}//end CommandRunner
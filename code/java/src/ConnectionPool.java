@@ -0,0 +1,308 @@
+import java.sql.DriverManager;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class defines a small thread-safe pool of physical PostgreSQL
+ * connections.  Callers borrow a connection, use it, and hand it back with
+ * release().  The pool keeps at least minSize connections open, never opens
+ * more than maxSize, validates idle connections on borrow and closes
+ * connections that stayed idle longer than the idle timeout.
+ *
+ */
+
+public class ConnectionPool{
+	//connections idle for at least this long are re-validated before reuse
+	private static final long VALIDATE_AFTER_MILLIS = 1000;
+	private static final int VALIDATE_TIMEOUT_SECONDS = 2;
+
+	private final String _url;
+	private final String _user;
+	private final String _passwd;
+	private final int _minSize;
+	private final int _maxSize;
+	private final long _idleTimeoutMillis;
+	private final long _borrowTimeoutMillis;
+	private final int _statementCacheSize;
+	private final StatementCache.Stats _statementStats = new StatementCache.Stats();
+
+	//most recently returned connections sit at the head of the deque
+	private final LinkedBlockingDeque<PooledConnection> _idle = new LinkedBlockingDeque<PooledConnection>();
+	//one permit per connection that may be lent out
+	private final Semaphore _permits;
+	private final AtomicInteger _total = new AtomicInteger();
+	private final ScheduledExecutorService _evictor;
+	private volatile boolean _closed = false;
+
+	//metrics
+	private final AtomicLong _borrowCount = new AtomicLong();
+	private final AtomicLong _timeoutCount = new AtomicLong();
+	private final AtomicLong _waitNanos = new AtomicLong();
+	private final AtomicLong _maxWaitNanos = new AtomicLong();
+	private final LatencyHistogram _waitHistogram = new LatencyHistogram();
+	private final AtomicLong _createdCount = new AtomicLong();
+	private final AtomicLong _evictedCount = new AtomicLong();
+	private final AtomicLong _invalidCount = new AtomicLong();
+
+	/**
+	 * A physical connection owned by the pool.
+	 */
+	public static class PooledConnection{
+		private final Connection _connection;
+		private final StatementCache _statements;
+		private volatile long _lastUsed;
+
+		PooledConnection(Connection connection, StatementCache statements){
+			this._connection = connection;
+			this._statements = statements;
+			this._lastUsed = System.currentTimeMillis();
+		}
+
+		public Connection getConnection(){
+			return this._connection;
+		}
+
+		/**
+		 * Returns the cached PreparedStatement for the given SQL on this
+		 * connection.  The statement must not be closed by the caller.
+		 */
+		public PreparedStatement prepare(String sql) throws SQLException {
+			return this._statements.prepare(sql);
+		}
+
+		public StatementCache getStatementCache(){
+			return this._statements;
+		}
+
+		void close(){
+			this._statements.close();
+			try{
+				this._connection.close();
+			}catch (SQLException e){
+				// ignored.
+			}
+		}
+	}//end PooledConnection
+
+	/**
+	 * Creates the pool and opens minSize connections right away so that a
+	 * wrong URL or credentials are reported at start-up.
+	 *
+	 * @param url the JDBC connection URL
+	 * @param user the database user
+	 * @param passwd the database password
+	 * @param minSize number of connections kept open even when idle
+	 * @param maxSize maximum number of open connections
+	 * @param idleTimeoutMillis idle connections above minSize are closed after this long
+	 * @param borrowTimeoutMillis how long borrow() waits for a free connection
+	 * @param statementCacheSize number of PreparedStatements cached per connection
+	 * @throws java.sql.SQLException when the initial connections cannot be opened
+	 */
+	public ConnectionPool(String url, String user, String passwd, int minSize, int maxSize,
+			long idleTimeoutMillis, long borrowTimeoutMillis, int statementCacheSize) throws SQLException {
+		if (minSize < 0 || maxSize < 1 || minSize > maxSize){
+			throw new IllegalArgumentException("Invalid pool size: min=" + minSize + " max=" + maxSize);
+		}
+		this._url = url;
+		this._user = user;
+		this._passwd = passwd;
+		this._minSize = minSize;
+		this._maxSize = maxSize;
+		this._idleTimeoutMillis = idleTimeoutMillis;
+		this._borrowTimeoutMillis = borrowTimeoutMillis;
+		this._statementCacheSize = statementCacheSize;
+		this._permits = new Semaphore(maxSize, true);
+
+		for (int i = 0; i < minSize; ++i){
+			this._idle.offerLast(open());
+		}
+
+		this._evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory(){
+			public Thread newThread(Runnable r){
+				Thread t = new Thread(r, "connection-pool-evictor");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		long period = Math.max(1000, idleTimeoutMillis / 2);
+		this._evictor.scheduleWithFixedDelay(new Runnable(){
+			public void run(){ evictIdle(); }
+		}, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Borrows a connection from the pool, waiting up to the borrow timeout
+	 * when all connections are in use.
+	 *
+	 * @return a validated connection; must be handed back with release()
+	 * @throws java.sql.SQLException when no connection became free in time
+	 */
+	public PooledConnection borrow() throws SQLException {
+		if (this._closed){
+			throw new SQLException("Connection pool is closed");
+		}
+		long start = System.nanoTime();
+		boolean acquired;
+		try{
+			acquired = this._permits.tryAcquire(this._borrowTimeoutMillis, TimeUnit.MILLISECONDS);
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for a connection");
+		}
+		recordWait(System.nanoTime() - start);
+		if (!acquired){
+			this._timeoutCount.incrementAndGet();
+			throw new SQLException("Timed out after " + this._borrowTimeoutMillis + " ms waiting for a database connection");
+		}
+
+		try{
+			PooledConnection pc;
+			while ((pc = this._idle.pollFirst()) != null){
+				if (isUsable(pc)){
+					this._borrowCount.incrementAndGet();
+					return pc;
+				}
+				this._invalidCount.incrementAndGet();
+				discard(pc);
+			}
+			pc = open();
+			this._borrowCount.incrementAndGet();
+			return pc;
+		}catch (SQLException e){
+			this._permits.release();
+			throw e;
+		}catch (RuntimeException e){
+			this._permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Hands a borrowed connection back to the pool.  Connections that were
+	 * left inside a transaction are rolled back first; broken ones are closed.
+	 *
+	 * @param pc the connection obtained from borrow()
+	 */
+	public void release(PooledConnection pc){
+		if (pc == null){
+			return;
+		}
+		try{
+			boolean healthy = !pc._connection.isClosed();
+			if (healthy && !pc._connection.getAutoCommit()){
+				pc._connection.rollback();
+				pc._connection.setAutoCommit(true);
+			}
+			if (healthy && !this._closed){
+				pc._lastUsed = System.currentTimeMillis();
+				this._idle.offerFirst(pc);
+			} else {
+				discard(pc);
+			}
+		}catch (SQLException e){
+			discard(pc);
+		}finally{
+			this._permits.release();
+		}
+	}
+
+	/**
+	 * Closes all idle connections and stops the evictor.  Connections still
+	 * borrowed are closed when they are released.
+	 */
+	public void close(){
+		this._closed = true;
+		this._evictor.shutdownNow();
+		PooledConnection pc;
+		while ((pc = this._idle.pollFirst()) != null){
+			discard(pc);
+		}
+	}
+
+	private PooledConnection open() throws SQLException {
+		Connection c = DriverManager.getConnection(this._url, this._user, this._passwd);
+		this._total.incrementAndGet();
+		this._createdCount.incrementAndGet();
+		return new PooledConnection(c, new StatementCache(c, this._statementCacheSize, this._statementStats));
+	}
+
+	private void discard(PooledConnection pc){
+		this._total.decrementAndGet();
+		pc.close();
+	}
+
+	private boolean isUsable(PooledConnection pc){
+		try{
+			if (pc._connection.isClosed()){
+				return false;
+			}
+			if (System.currentTimeMillis() - pc._lastUsed < VALIDATE_AFTER_MILLIS){
+				return true;
+			}
+			return pc._connection.isValid(VALIDATE_TIMEOUT_SECONDS);
+		}catch (SQLException e){
+			return false;
+		}
+	}
+
+	private void evictIdle(){
+		long now = System.currentTimeMillis();
+		//oldest connections sit at the tail
+		Iterator<PooledConnection> it = this._idle.descendingIterator();
+		while (it.hasNext() && this._total.get() > this._minSize){
+			PooledConnection pc = it.next();
+			if (now - pc._lastUsed >= this._idleTimeoutMillis && this._idle.remove(pc)){
+				this._evictedCount.incrementAndGet();
+				discard(pc);
+			}
+		}
+	}
+
+	private void recordWait(long nanos){
+		this._waitHistogram.record(nanos);
+		this._waitNanos.addAndGet(nanos);
+		long max;
+		while (nanos > (max = this._maxWaitNanos.get())){
+			if (this._maxWaitNanos.compareAndSet(max, nanos)){
+				break;
+			}
+		}
+	}
+
+	public int getMinSize(){ return this._minSize; }
+	public int getMaxSize(){ return this._maxSize; }
+	public int getTotalCount(){ return this._total.get(); }
+	public int getIdleCount(){ return this._idle.size(); }
+	public int getActiveCount(){ return this._maxSize - this._permits.availablePermits(); }
+	public long getBorrowCount(){ return this._borrowCount.get(); }
+	public long getTimeoutCount(){ return this._timeoutCount.get(); }
+	public long getCreatedCount(){ return this._createdCount.get(); }
+	public long getEvictedCount(){ return this._evictedCount.get(); }
+	public long getInvalidCount(){ return this._invalidCount.get(); }
+	public long getTotalWaitNanos(){ return this._waitNanos.get(); }
+	public long getMaxWaitNanos(){ return this._maxWaitNanos.get(); }
+	public StatementCache.Stats getStatementStats(){ return this._statementStats; }
+	public LatencyHistogram getWaitHistogram(){ return this._waitHistogram; }
+
+	public double getAverageWaitMillis(){
+		long attempts = this._borrowCount.get() + this._timeoutCount.get();
+		return attempts == 0 ? 0.0 : this._waitNanos.get() / 1e6 / attempts;
+	}
+
+	public String toString(){
+		return String.format("pool[total=%d idle=%d active=%d min=%d max=%d borrows=%d timeouts=%d avgWait=%.3fms maxWait=%.3fms created=%d evicted=%d invalid=%d]",
+			getTotalCount(), getIdleCount(), getActiveCount(), this._minSize, this._maxSize,
+			getBorrowCount(), getTimeoutCount(), getAverageWaitMillis(), getMaxWaitNanos() / 1e6,
+			getCreatedCount(), getEvictedCount(), getInvalidCount());
+	}
+}//end ConnectionPool
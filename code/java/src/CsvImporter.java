@@ -0,0 +1,165 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class imports partner files of new customers, cars, ownerships or
+ * service requests through MechanicShop.executeBatch.  Files are comma
+ * separated without ids; new ids are taken from the IdAllocator.  The last
+ * column may contain commas.  Expected columns:
+ *
+ *   customer          fname,lname,phone,address
+ *   car               vin,make,model,year
+ *   owns              customer_id,car_vin
+ *   service_request   customer_id,car_vin,date,odometer,complain
+ *
+ * Dates are either yyyy-mm-dd or m/d/yyyy, optionally followed by a time.
+ */
+
+public class CsvImporter{
+	public static final int DEFAULT_BATCH_SIZE = 500;
+	//rows parsed ahead and handed to executeBatch at once
+	private static final int BATCHES_PER_CHUNK = 16;
+
+	private static final DateTimeFormatter US_DATE = DateTimeFormatter.ofPattern("M/d/uuuu");
+
+	private final MechanicShop _esql;
+	private final String _kind;
+	private final String _sql;
+	private final int _columns;
+	private final int _batchSize;
+
+	/**
+	 * @param esql the connected MechanicShop
+	 * @param kind customer, car, owns or service_request
+	 * @param batchSize rows per batch and transaction
+	 */
+	public CsvImporter(MechanicShop esql, String kind, int batchSize){
+		this._esql = esql;
+		this._kind = kind;
+		this._batchSize = batchSize;
+		if (kind.equals("customer")){
+			this._sql = "INSERT INTO Customer (id, fname, lname, phone, address) VALUES (?, ?, ?, ?, ?)";
+			this._columns = 4;
+		} else if (kind.equals("car")){
+			this._sql = "INSERT INTO Car (vin, make, model, year) VALUES (?, ?, ?, ?)";
+			this._columns = 4;
+		} else if (kind.equals("owns")){
+			this._sql = "INSERT INTO Owns (ownership_id, customer_id, car_vin) VALUES (?, ?, ?)";
+			this._columns = 2;
+		} else if (kind.equals("service_request")){
+			this._sql = "INSERT INTO Service_Request (rid, customer_id, car_vin, date, odometer, complain) VALUES (?, ?, ?, ?, ?, ?)";
+			this._columns = 5;
+		} else {
+			throw new IllegalArgumentException("Unknown import kind: " + kind + " (expected customer, car, owns or service_request)");
+		}
+	}
+
+	/**
+	 * Imports a file, printing every rejected line and a summary.
+	 *
+	 * @param file the file to import
+	 * @param out where rejected lines and the summary are printed
+	 * @return the number of rejected lines
+	 * @throws java.io.IOException when the file cannot be read
+	 * @throws java.sql.SQLException when the database cannot be reached
+	 */
+	public int importFile(File file, PrintStream out) throws IOException, SQLException {
+		long start = System.nanoTime();
+		long written = 0;
+		int rejected = 0;
+		int chunkSize = this._batchSize * BATCHES_PER_CHUNK;
+		List<Object[]> rows = new ArrayList<Object[]>(chunkSize);
+		int[] lines = new int[chunkSize];
+
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+		try{
+			String line;
+			int lineNo = 0;
+			while ((line = reader.readLine()) != null){
+				++lineNo;
+				if (line.trim().isEmpty() || (lineNo == 1 && isHeader(line))){
+					continue;
+				}
+				try{
+					rows.add(parse(line.split(",", this._columns)));
+					lines[rows.size() - 1] = lineNo;
+				}catch (RuntimeException e){
+					++rejected;
+					out.println(file.getName() + ":" + lineNo + ": " + e.getMessage());
+					continue;
+				}
+				if (rows.size() == chunkSize){
+					BatchResult r = this._esql.executeBatch(this._sql, rows, this._batchSize);
+					written += r.getWritten();
+					rejected += report(file, r, lines, out);
+					rows.clear();
+				}
+			}
+			if (!rows.isEmpty()){
+				BatchResult r = this._esql.executeBatch(this._sql, rows, this._batchSize);
+				written += r.getWritten();
+				rejected += report(file, r, lines, out);
+			}
+		}finally{
+			reader.close();
+		}
+
+		double secs = (System.nanoTime() - start) / 1e9;
+		out.println(String.format("Imported %d %s row(s), rejected %d, in %.2f s (%.0f rows/s)",
+			written, this._kind, rejected, secs, secs <= 0 ? 0 : written / secs));
+		return rejected;
+	}
+
+	private int report(File file, BatchResult r, int[] lines, PrintStream out){
+		for (BatchResult.RowError e : r.getErrors()){
+			out.println(file.getName() + ":" + lines[e.row] + ": " + e.message);
+		}
+		return r.getErrors().size();
+	}
+
+	private boolean isHeader(String line){
+		String first = line.split(",", 2)[0].trim();
+		return first.equals("fname") || first.equals("vin") || first.equals("customer_id");
+	}
+
+	//turns one line into the statement's parameters, allocating the new id
+	private Object[] parse(String[] f) throws RuntimeException {
+		if (f.length != this._columns){
+			throw new IllegalArgumentException("expected " + this._columns + " columns but found " + f.length);
+		}
+		try{
+			if (this._kind.equals("customer")){
+				return new Object[]{ this._esql.nextId(IdAllocator.CUSTOMER), f[0].trim(), f[1].trim(), f[2].trim(), f[3].trim() };
+			} else if (this._kind.equals("car")){
+				return new Object[]{ f[0].trim(), f[1].trim(), f[2].trim(), Integer.parseInt(f[3].trim()) };
+			} else if (this._kind.equals("owns")){
+				return new Object[]{ this._esql.nextId(IdAllocator.OWNS), Integer.parseInt(f[0].trim()), f[1].trim() };
+			}
+			return new Object[]{ this._esql.nextId(IdAllocator.SERVICE_REQUEST), Integer.parseInt(f[0].trim()), f[1].trim(),
+				java.sql.Date.valueOf(parseDate(f[2].trim())), Integer.parseInt(f[3].trim()), f[4] };
+		}catch (SQLException e){
+			throw new IllegalStateException("cannot allocate an id: " + e.getMessage(), e);
+		}
+	}
+
+	static LocalDate parseDate(String s){
+		int space = s.indexOf(' ');
+		String date = space < 0 ? s : s.substring(0, space);
+		try{
+			return date.indexOf('/') >= 0 ? LocalDate.parse(date, US_DATE) : LocalDate.parse(date);
+		}catch (DateTimeParseException e){
+			throw new IllegalArgumentException("invalid date: " + s);
+		}
+	}
+}//end CsvImporter
@@ -0,0 +1,44 @@
+/**
+ * A row of Customer.  The names, phone and address keep the blank padding
+ * of their CHAR columns.
+ *
+ */
+
+public final class Customer{
+	public static final RowMapper<Customer> MAPPER = rs -> new Customer(rs.getInt("id"), rs.getString("fname"),
+		rs.getString("lname"), rs.getString("phone"), rs.getString("address"));
+
+	private final int _id;
+	private final String _fname;
+	private final String _lname;
+	private final String _phone;
+	private final String _address;
+
+	public Customer(int id, String fname, String lname, String phone, String address){
+		this._id = id;
+		this._fname = fname;
+		this._lname = lname;
+		this._phone = phone;
+		this._address = address;
+	}
+
+	public int getId(){
+		return this._id;
+	}
+
+	public String getFname(){
+		return this._fname;
+	}
+
+	public String getLname(){
+		return this._lname;
+	}
+
+	public String getPhone(){
+		return this._phone;
+	}
+
+	public String getAddress(){
+		return this._address;
+	}
+}//end Customer
@@ -0,0 +1,114 @@
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * This class finds the customers matching what the desk typed at intake: a
+ * last name or a phone number.  A last name is matched without regard to
+ * case, first by prefix and then by trigram similarity, so "smi", "SMITH"
+ * and "Smiht" all find Smith; a phone number is matched by its digits,
+ * first as a prefix and then anywhere in the number, so the last four
+ * digits are enough.  Each kind of match reads its own index of migration
+ * 007 and stops after the rows shown, and the matches are ranked: prefix
+ * before similar, the closest first.
+ *
+ */
+
+public class CustomerSearch{
+	//fewest digits that make a phone search, as trigrams need three
+	static final int MIN_PHONE_DIGITS = 3;
+
+	//the last name as the indexes of migration 007 hold it
+	private static final String LNAME = "lower(rtrim(C.lname))";
+	private static final String PHONE = "regexp_replace(C.phone, '\\D', '', 'g')";
+
+	static final String BY_LNAME =
+		"SELECT id, fname, lname, phone, address FROM (SELECT DISTINCT ON (id) * FROM ("
+		+ "(SELECT C.*, 0 AS tier, similarity(" + LNAME + ", ?) AS score FROM Customer C"
+		+ " WHERE " + LNAME + " COLLATE \"C\" >= ? AND " + LNAME + " COLLATE \"C\" < ?"
+		+ " ORDER BY " + LNAME + " COLLATE \"C\", C.id LIMIT ?)"
+		+ " UNION ALL (SELECT C.*, 1, similarity(" + LNAME + ", ?) FROM Customer C"
+		+ " WHERE " + LNAME + " % ? ORDER BY " + LNAME + " <-> ?, C.id LIMIT ?)"
+		+ ") M ORDER BY id, tier) R ORDER BY tier, score DESC, lname, id LIMIT ?;";
+	static final String BY_PHONE =
+		"SELECT id, fname, lname, phone, address FROM (SELECT DISTINCT ON (id) * FROM ("
+		+ "(SELECT C.*, 0 AS tier FROM Customer C"
+		+ " WHERE " + PHONE + " COLLATE \"C\" >= ? AND " + PHONE + " COLLATE \"C\" < ?"
+		+ " ORDER BY " + PHONE + " COLLATE \"C\", C.id LIMIT ?)"
+		//the number ending in the digits before those holding them elsewhere
+		+ " UNION ALL (SELECT C.*, CASE WHEN " + PHONE + " LIKE ? THEN 1 ELSE 2 END AS tier FROM Customer C"
+		+ " WHERE " + PHONE + " LIKE ? ORDER BY tier, C.id LIMIT ?)"
+		+ ") M ORDER BY id, tier) R ORDER BY tier, id LIMIT ?;";
+
+	private final String _text;
+
+	/**
+	 * @param text a last name, or a phone number in any format
+	 * @throws java.lang.IllegalArgumentException when the text is empty, or
+	 * a phone number with too few digits
+	 */
+	public CustomerSearch(String text){
+		this._text = text == null ? "" : text.trim();
+		if (this._text.isEmpty()){
+			throw new IllegalArgumentException("Type a last name or a phone number");
+		}
+		if (isPhone() && digits().length() < MIN_PHONE_DIGITS){
+			throw new IllegalArgumentException("Type at least " + MIN_PHONE_DIGITS + " digits of the phone number");
+		}
+	}
+
+	/**
+	 * @return the text is a phone number: digits and ( ) - + . and blanks only
+	 */
+	public boolean isPhone(){
+		return this._text.matches("[\\d\\s()+.\\-]+");
+	}
+
+	/**
+	 * Builds the search query.
+	 *
+	 * @param limit the number of customers listed
+	 * @param params receives the values of the ? placeholders, in order
+	 * @return the query, with the columns of Customer
+	 */
+	String toQuery(int limit, List<Object> params){
+		if (isPhone()){
+			String digits = digits();
+			params.add(digits);
+			params.add(after(digits));
+			params.add(limit);
+			params.add("%" + digits);
+			params.add("%" + digits + "%");
+			params.add(limit);
+			params.add(limit);
+			return BY_PHONE;
+		}
+		String lname = this._text.toLowerCase(Locale.ROOT);
+		params.add(lname);
+		params.add(lname);
+		params.add(after(lname));
+		params.add(limit);
+		params.add(lname);
+		params.add(lname);
+		params.add(lname);
+		params.add(limit);
+		params.add(limit);
+		return BY_LNAME;
+	}
+
+	private String digits(){
+		return this._text.replaceAll("\\D", "");
+	}
+
+	//the first string after every string starting with the prefix, in
+	//COLLATE "C" order
+	private static String after(String prefix){
+		int i = prefix.length() - 1;
+		while (i >= 0 && prefix.charAt(i) == Character.MAX_VALUE){
+			--i;
+		}
+		if (i < 0){
+			return prefix + Character.MAX_VALUE;
+		}
+		return prefix.substring(0, i) + (char) (prefix.charAt(i) + 1);
+	}
+}//end CustomerSearch
@@ -0,0 +1,257 @@
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * This class shows reports 6 to 10 together.  The five queries run at
+ * once, each on its own pooled connection, so the dashboard takes as long
+ * as its slowest report instead of the sum of all five.  Each report is
+ * kept for a staleness window and every dashboard read in that window,
+ * from any session of the shop, is answered from memory; when a report is
+ * older, the first read starts one query and the concurrent reads wait for
+ * that same query instead of starting their own.
+ *
+ * A report that takes longer than the timeout is shown from its last
+ * result, marked stale, or as timed out when it was never read; the
+ * database cancels the query shortly after.  The dashboard always reads the
+ * database, also when the shop answers the single reports in memory (see
+ * ReportEngine).
+ *
+ */
+
+public class Dashboard{
+	//rows of report 9, as the report command lists by default
+	static final int TOP_CARS = 10;
+
+	private static final String[] TITLES = {
+		"6. Closed requests billed less than 100",
+		"7. Customers with more than 20 cars",
+		"8. Cars before 1995 serviced below 50000 miles",
+		"9. The " + TOP_CARS + " most serviced cars",
+		"10. Customers by their total bill",
+	};
+	private static final String[] QUERIES = {
+		MechanicShop.REPORT_BILL_LESS_THAN_100,
+		MechanicShop.REPORT_MORE_THAN_20_CARS,
+		MechanicShop.REPORT_CARS_BEFORE_1995,
+		MechanicShop.REPORT_K_MOST_SERVICED_CARS,
+		MechanicShop.REPORT_TOTAL_BILL,
+	};
+	private static final Object[][] PARAMS = {
+		{}, {}, {}, { TOP_CARS }, {},
+	};
+
+	/**
+	 * One report of the dashboard.
+	 */
+	public static class Panel{
+		private final String _title;
+		private final LookupCache.Result _rows;
+		private final String _error;
+		private final long _readAt;
+		private final long _queryNanos;
+		private final boolean _stale;
+
+		Panel(String title, LookupCache.Result rows, String error, long readAt, long queryNanos, boolean stale){
+			this._title = title;
+			this._rows = rows;
+			this._error = error;
+			this._readAt = readAt;
+			this._queryNanos = queryNanos;
+			this._stale = stale;
+		}
+
+		public String getTitle(){
+			return this._title;
+		}
+
+		/**
+		 * @return the rows, or null when the report failed or timed out
+		 * before it was ever read
+		 */
+		public LookupCache.Result getRows(){
+			return this._rows;
+		}
+
+		/**
+		 * @return why the report could not be read this time, or null
+		 */
+		public String getError(){
+			return this._error;
+		}
+
+		/**
+		 * @return the rows are older than the staleness window, as the
+		 * query to read them again failed or timed out
+		 */
+		public boolean isStale(){
+			return this._stale;
+		}
+
+		/**
+		 * @return milliseconds since the rows were read
+		 */
+		public long getAgeMillis(){
+			return this._rows == null ? 0 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this._readAt);
+		}
+
+		/**
+		 * @return how long the query that read the rows took, in milliseconds
+		 */
+		public double getQueryMillis(){
+			return this._queryNanos / 1e6;
+		}
+
+		/**
+		 * Renders the rows into a sink and ends it; nothing when there are none.
+		 */
+		public void writeTo(ResultSink sink) throws IOException {
+			if (this._rows != null){
+				this._rows.writeTo(sink);
+			}
+			sink.end();
+		}
+
+		//the same rows, marked stale because reading them again failed
+		Panel stale(String error){
+			return new Panel(this._title, this._rows, error, this._readAt, this._queryNanos, true);
+		}
+	}//end Panel
+
+	private final MechanicShop _esql;
+	private final long _maxStalenessNanos;
+	private final long _timeoutMillis;
+	private final ExecutorService _workers;
+	//the last result of every report, and the query reading it again;
+	//guarded by this
+	private final Panel[] _panels = new Panel[QUERIES.length];
+	private final List<CompletableFuture<Panel>> _reading =
+		new ArrayList<CompletableFuture<Panel>>(Collections.<CompletableFuture<Panel>>nCopies(QUERIES.length, null));
+	//bumped by every reset, so a query started before it is not kept
+	private long _generation = 0;
+
+	/**
+	 * @param esql where the reports are read from
+	 * @param maxStalenessMs how long a report is shown before it is read
+	 * again; 0 reads every report on every dashboard
+	 * @param timeoutMs how long a dashboard waits for each report
+	 */
+	public Dashboard(MechanicShop esql, long maxStalenessMs, long timeoutMs){
+		if (timeoutMs <= 0){
+			throw new IllegalArgumentException("The timeout needs to be greater than 0");
+		}
+		this._esql = esql;
+		this._maxStalenessNanos = TimeUnit.MILLISECONDS.toNanos(maxStalenessMs);
+		this._timeoutMillis = timeoutMs;
+		this._workers = Executors.newFixedThreadPool(QUERIES.length, r -> {
+			Thread t = new Thread(r, "dashboard");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * Reads the dashboard: the fresh reports from memory, the others from
+	 * the database, all at once.
+	 *
+	 * @return the reports, in the order of the menu
+	 * @throws java.lang.InterruptedException when interrupted while waiting
+	 */
+	public List<Panel> read() throws InterruptedException {
+		CompletableFuture<?>[] reading = new CompletableFuture<?>[QUERIES.length];
+		for (int i = 0; i < reading.length; ++i){
+			reading[i] = panel(i);
+		}
+		//every query started above, so they share one deadline
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this._timeoutMillis);
+		List<Panel> panels = new ArrayList<Panel>(reading.length);
+		for (int i = 0; i < reading.length; ++i){
+			String error;
+			try{
+				panels.add((Panel) reading[i].get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+				continue;
+			}catch (TimeoutException e){
+				error = "timed out after " + this._timeoutMillis + " ms";
+			}catch (ExecutionException e){
+				Throwable cause = e.getCause() instanceof CompletionException ? e.getCause().getCause() : e.getCause();
+				error = String.valueOf(cause.getMessage());
+			}
+			Panel last;
+			synchronized (this){
+				last = this._panels[i];
+			}
+			panels.add(last != null ? last.stale(error) : new Panel(TITLES[i], null, error, 0, 0, false));
+		}
+		return panels;
+	}
+
+	/**
+	 * Drops every report, e.g. after a bulk load; the next dashboard reads
+	 * them all again.
+	 */
+	public synchronized void reset(){
+		++this._generation;
+		for (int i = 0; i < this._panels.length; ++i){
+			this._panels[i] = null;
+			this._reading.set(i, null);
+		}
+	}
+
+	/**
+	 * Stops the queries still running.
+	 */
+	public void close(){
+		this._workers.shutdownNow();
+	}
+
+	//the report when it is fresh, or the query reading it again, started
+	//by the first dashboard that finds it stale
+	private synchronized CompletableFuture<Panel> panel(final int i){
+		Panel last = this._panels[i];
+		if (last != null && System.nanoTime() - last._readAt < this._maxStalenessNanos){
+			return CompletableFuture.completedFuture(last);
+		}
+		CompletableFuture<Panel> reading = this._reading.get(i);
+		if (reading == null){
+			final CompletableFuture<Panel> started = CompletableFuture.supplyAsync(() -> query(i), this._workers);
+			final long generation = this._generation;
+			this._reading.set(i, started);
+			//also when nobody waits any more, so a slow report is ready for
+			//the next dashboard
+			started.whenComplete((panel, e) -> {
+				synchronized (Dashboard.this){
+					if (this._generation != generation){
+						return;
+					}
+					if (panel != null){
+						this._panels[i] = panel;
+					}
+					this._reading.set(i, null);
+				}
+			});
+			reading = started;
+		}
+		return reading;
+	}
+
+	private Panel query(int i){
+		long start = System.nanoTime();
+		try{
+			//rounded up, as JDBC counts the timeout in seconds
+			int timeoutSeconds = (int) ((this._timeoutMillis + 999) / 1000);
+			LookupCache.Result rows = this._esql.executeQueryWithTimeout(QUERIES[i], timeoutSeconds, PARAMS[i]);
+			return new Panel(TITLES[i], rows, null, start, System.nanoTime() - start, false);
+		}catch (SQLException e){
+			throw new CompletionException(e);
+		}
+	}
+}//end Dashboard
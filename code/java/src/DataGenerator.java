@@ -0,0 +1,425 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class generates a synthetic data set shaped like code/data at any
+ * scale, either as the six CSV files BulkLoader reads or as readers that
+ * BulkLoader streams straight into COPY.  Scale 1 has the row counts of
+ * code/data: 500 customers, 250 mechanics, 5000 cars each owned once and
+ * 30000 service requests, most of them closed.
+ *
+ * Every row is a pure function of the seed, its table and its row number,
+ * so the output is the same for any number of threads and the tables
+ * agree with each other: a service request names the car's actual owner.
+ * Rows are generated in chunks on a thread pool and handed out in order.
+ *
+ * The skew shapes the data the reports look at: car owners and serviced
+ * cars are drawn from a power law, so with the default skew a few
+ * customers own far more than 20 cars (report 7) and some cars are
+ * serviced much more often than others (report 9).  Bills follow a log
+ * normal distribution around a median of 250, about one in ten below 100
+ * (report 6).
+ */
+
+public class DataGenerator{
+	public static final long DEFAULT_SEED = 166;
+	public static final double DEFAULT_SKEW = 1.0;
+	public static final double DEFAULT_CLOSED_FRACTION = 0.9;
+
+	//rows of code/data at scale 1
+	private static final long CUSTOMERS = 500;
+	private static final long MECHANICS = 250;
+	private static final long CARS = 5000;
+	private static final long REQUESTS = 30000;
+
+	private static final int CHUNK_ROWS = 8192;
+	//a prime, so multiplying by it permutes the row numbers of any table
+	private static final long PERMUTE = 2654435761L;
+
+	private static final LocalDate FIRST_DAY = LocalDate.of(2010, 1, 1);
+	private static final int DAYS = 365 * 10;
+
+	private static final String[] FIRST_NAMES = {
+		"Aaron", "Abbey", "Adele", "Alberto", "Alexandria", "Allan", "Amalia", "Annette", "Antoine", "Armand",
+		"Bernard", "Bridget", "Carmen", "Cecil", "Dana", "Delia", "Dexter", "Dora", "Edgar", "Elena",
+		"Felix", "Flora", "Gavin", "Greta", "Harold", "Hazel", "Ivan", "Irene", "Jasper", "Julia",
+		"Kurt", "Lena", "Lionel", "Mabel", "Milo", "Nadia", "Oscar", "Paula", "Rory", "Stella" };
+	private static final String[] LAST_NAMES = {
+		"Accardo", "Aparicio", "Bachman", "Bazemore", "Berner", "Bolds", "Breuer", "Cail", "Casteel", "Chatmon",
+		"Comstock", "Cullens", "Cuyler", "Dangerfield", "Derby", "Drescher", "Easton", "Enderle", "Evett", "Florence",
+		"Fuentes", "Germann", "Glass", "Grasser", "Guerra", "Hauptman", "Henriques", "Hodgins", "Humes", "Jarrett",
+		"Kelton", "Koen", "Lamprecht", "Leath", "Liebel", "Love", "Markel", "Mauro", "Mckillip", "Menefee",
+		"Moreton", "Naumann", "Onken", "Pasha", "Perl", "Pinon", "Polinsky", "Qualls", "Revard", "Rosner",
+		"Sauseda", "Scarlett", "Trail", "Vento", "Whitlock", "Yancey" };
+	private static final String[] STREETS = {
+		"Chapel Drive", "Bald Hill Street", "Campfire Ave.", "Young Avenue", "East Warren St.", "University Ave",
+		"Iowa Ave.", "Canyon Crest Dr.", "Main Street", "Market St.", "Lincoln Road", "Magnolia Ave." };
+	private static final String[] CITIES = {
+		"Melbourne", "Baton Rouge", "Cockeysville", "Oak Forest", "New Brunswick", "Riverside",
+		"Ontario", "Corona", "Fontana", "Redlands", "Temecula", "San Bernardino" };
+	private static final String[] MAKES = {
+		"Alfa Romeo", "Aston Martin", "Audi", "BMW", "Cadillac", "Chevrolet", "Dodge", "Ferrari", "Fiat", "Ford",
+		"Honda", "Hyundai", "Lamborghini", "Morgan", "Saturn", "Shelby", "Skoda", "Subaru", "Toyota", "Volvo" };
+	private static final String[] MODELS = {
+		"C1", "C2", "C3", "C4", "C5", "DB8", "Elentra", "Impreza", "M1", "M5", "Prius", "RX5", "Summer", "Sunny" };
+	private static final String[] COMPLAINTS = {
+		"Add rockets", "Burns too much gas", "Change oil", "I cannot hear the horn", "I cannot hear the radio",
+		"It is not fast enough", "It smells funny", "No brakes", "Replace windows", "The wheel does not turn right" };
+	private static final String[] COMMENTS = {
+		"Breaks are ok", "Changed Oil", "Fixed!!!", "Made it faster", "Needs new Tires",
+		"We changed the color", "Replaced the brake pads", "Aligned the wheels", "Good Luck", "I do not know" };
+
+	//table numbers, mixed into the row seeds
+	private static final int CUSTOMER = 1;
+	private static final int MECHANIC = 2;
+	private static final int CAR = 3;
+	private static final int OWNS = 4;
+	private static final int SERVICE_REQUEST = 5;
+	private static final int CLOSED_REQUEST = 6;
+
+	private final long _seed;
+	private final double _skew;
+	private final double _closedFraction;
+	private final long _customers;
+	private final long _mechanics;
+	private final long _cars;
+	private final long _requests;
+	private final int _threads;
+	private final ExecutorService _workers;
+
+	/**
+	 * @param scale multiple of the code/data row counts, e.g. 333 for
+	 * about 10 million service requests
+	 * @param seed the same seed always generates the same data
+	 * @param skew 0 spreads cars and services evenly; larger values
+	 * concentrate them on fewer customers and cars
+	 * @param closedFraction share of the service requests that are closed
+	 * @param threads number of generating threads
+	 */
+	public DataGenerator(double scale, long seed, double skew, double closedFraction, int threads){
+		if (scale <= 0){
+			throw new IllegalArgumentException("Invalid scale: " + scale + " (must be greater than 0)");
+		}
+		if (skew < 0){
+			throw new IllegalArgumentException("Invalid skew: " + skew + " (must not be negative)");
+		}
+		if (closedFraction < 0 || closedFraction > 1){
+			throw new IllegalArgumentException("Invalid closed fraction: " + closedFraction + " (expected 0 to 1)");
+		}
+		if (threads <= 0){
+			throw new IllegalArgumentException("Invalid number of threads: " + threads);
+		}
+		this._seed = seed;
+		this._skew = skew;
+		this._closedFraction = closedFraction;
+		this._customers = Math.max(1, Math.round(CUSTOMERS * scale));
+		this._mechanics = Math.max(1, Math.round(MECHANICS * scale));
+		this._cars = Math.max(1, Math.round(CARS * scale));
+		this._requests = Math.max(1, Math.round(REQUESTS * scale));
+		if (this._cars > Integer.MAX_VALUE || this._requests > Integer.MAX_VALUE){
+			throw new IllegalArgumentException("Invalid scale: " + scale + " (ids would not fit an INTEGER)");
+		}
+		this._threads = threads;
+		this._workers = Executors.newFixedThreadPool(threads, r -> {
+			Thread t = new Thread(r, "generator");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * Opens the CSV rows of one table.
+	 *
+	 * @param table Customer, Mechanic, Car, Owns, Service_Request or
+	 * Closed_Request
+	 * @return the rows, in the format of code/data
+	 */
+	public Reader open(String table){
+		return new ChunkReader(number(table));
+	}
+
+	/**
+	 * Writes the six CSV files, all tables at once.
+	 *
+	 * @param dir where customer.csv and the other files are written
+	 * @param out where progress is reported
+	 * @return the number of rows written
+	 * @throws java.io.IOException when a file cannot be written
+	 */
+	public long writeFiles(File dir, PrintStream out) throws IOException {
+		if (!dir.isDirectory() && !dir.mkdirs()){
+			throw new IOException("Cannot create " + dir.getPath());
+		}
+		long start = System.nanoTime();
+		String[] tables = { "Customer", "Mechanic", "Car", "Owns", "Service_Request", "Closed_Request" };
+		List<Future<Long>> running = new ArrayList<Future<Long>>();
+		ExecutorService writers = Executors.newFixedThreadPool(tables.length);
+		try{
+			for (final String table : tables){
+				final File file = new File(dir, table.toLowerCase() + ".csv");
+				running.add(writers.submit(() -> write(table, file)));
+			}
+			long total = 0;
+			for (int i = 0; i < tables.length; ++i){
+				long rows = running.get(i).get();
+				out.println(String.format("  %-16s %10d rows", tables[i], rows));
+				total += rows;
+			}
+			double secs = (System.nanoTime() - start) / 1e9;
+			out.println(String.format("Generated %d rows in %.2f s (%.0f rows/s)", total, secs, secs <= 0 ? 0 : total / secs));
+			return total;
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while generating");
+		}catch (ExecutionException e){
+			Throwable cause = e.getCause();
+			throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+		}finally{
+			writers.shutdownNow();
+		}
+	}
+
+	/**
+	 * @return the first and the last day a service request can be dated
+	 */
+	public LocalDate[] getRequestDates(){
+		return new LocalDate[]{ FIRST_DAY, FIRST_DAY.plusDays(DAYS - 1) };
+	}
+
+	/**
+	 * Stops the generating threads.
+	 */
+	public void close(){
+		this._workers.shutdownNow();
+	}
+
+	public String toString(){
+		return String.format("%d customers, %d mechanics, %d cars, %d service requests (seed %d, skew %.2f, %.0f%% closed)",
+			this._customers, this._mechanics, this._cars, this._requests, this._seed, this._skew, this._closedFraction * 100);
+	}
+
+	private long write(String table, File file) throws IOException {
+		Reader in = open(table);
+		Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), 1 << 16);
+		long lines = 0;
+		try{
+			char[] buf = new char[1 << 16];
+			int n;
+			while ((n = in.read(buf, 0, buf.length)) > 0){
+				for (int i = 0; i < n; ++i){
+					if (buf[i] == '\n'){
+						++lines;
+					}
+				}
+				w.write(buf, 0, n);
+			}
+		}finally{
+			in.close();
+			w.close();
+		}
+		return lines;
+	}
+
+	private static int number(String table){
+		if (table.equalsIgnoreCase("Customer")){
+			return CUSTOMER;
+		} else if (table.equalsIgnoreCase("Mechanic")){
+			return MECHANIC;
+		} else if (table.equalsIgnoreCase("Car")){
+			return CAR;
+		} else if (table.equalsIgnoreCase("Owns")){
+			return OWNS;
+		} else if (table.equalsIgnoreCase("Service_Request")){
+			return SERVICE_REQUEST;
+		} else if (table.equalsIgnoreCase("Closed_Request")){
+			return CLOSED_REQUEST;
+		}
+		throw new IllegalArgumentException("Unknown table: " + table);
+	}
+
+	private long rows(int table){
+		switch (table){
+			case CUSTOMER: return this._customers;
+			case MECHANIC: return this._mechanics;
+			case CAR: case OWNS: return this._cars;
+			default: return this._requests;
+		}
+	}
+
+	//generates rows [from, to) of a table
+	private String chunk(int table, long from, long to){
+		StringBuilder sb = new StringBuilder((int) (to - from) * 64);
+		for (long i = from; i < to; ++i){
+			row(table, i, sb);
+		}
+		return sb.toString();
+	}
+
+	private void row(int table, long i, StringBuilder sb){
+		SplittableRandom r = random(table, i);
+		switch (table){
+			case CUSTOMER:
+				sb.append(i).append(',').append(pick(r, FIRST_NAMES)).append(',').append(pick(r, LAST_NAMES))
+					.append(",(").append(100 + r.nextInt(900)).append(')').append(100 + r.nextInt(900))
+					.append('-').append(1000 + r.nextInt(9000)).append(',').append(1 + r.nextInt(9999))
+					.append(' ').append(pick(r, STREETS)).append(' ').append(pick(r, CITIES)).append('\n');
+				break;
+			case MECHANIC:
+				sb.append(i).append(',').append(pick(r, FIRST_NAMES)).append(',').append(pick(r, LAST_NAMES))
+					.append(',').append(1 + r.nextInt(40)).append('\n');
+				break;
+			case CAR:
+				sb.append(vin(i)).append(',').append(pick(r, MAKES)).append(',').append(pick(r, MODELS))
+					.append(',').append(carYear(i)).append('\n');
+				break;
+			case OWNS:
+				sb.append(i).append(',').append(owner(i)).append(',').append(vin(i)).append('\n');
+				break;
+			case SERVICE_REQUEST:{
+				long car = skewed(r, this._cars);
+				int year = carYear(car);
+				//older cars tend to have more miles on them, but not all of them
+				int odometer = 1 + (2021 - year) * r.nextInt(12000) + r.nextInt(5000);
+				sb.append(i).append(',').append(owner(car)).append(',').append(vin(car)).append(',')
+					.append(requestDate(i)).append(',').append(odometer).append(',').append(pick(r, COMPLAINTS)).append('\n');
+				break;
+			}
+			case CLOSED_REQUEST:
+				if (r.nextDouble() >= this._closedFraction){
+					break;
+				}
+				//the wid is the rid it closes, so both stay unique
+				long bill = Math.max(20, Math.min(5000, Math.round(250 * Math.exp(0.7 * gaussian(r)))));
+				sb.append(i).append(',').append(i).append(',').append(r.nextLong(this._mechanics)).append(',')
+					.append(requestDate(i).plusDays(r.nextInt(30))).append(',').append(pick(r, COMMENTS))
+					.append(',').append(bill).append('\n');
+				break;
+		}
+	}
+
+	//six letters spelling the car number and ten pseudo random digits
+	private String vin(long car){
+		char[] c = new char[16];
+		long n = car;
+		for (int pos = 5; pos >= 0; --pos){
+			c[pos] = (char) ('A' + n % 26);
+			n /= 26;
+		}
+		long digits = random(CAR, car).nextLong(10000000000L);
+		for (int pos = 15; pos >= 6; --pos){
+			c[pos] = (char) ('0' + digits % 10);
+			digits /= 10;
+		}
+		return new String(c);
+	}
+
+	private int carYear(long car){
+		return 1970 + random(CAR ^ 0x100, car).nextInt(51);
+	}
+
+	private long owner(long car){
+		return skewed(random(OWNS, car), this._customers);
+	}
+
+	private LocalDate requestDate(long rid){
+		return FIRST_DAY.plusDays(random(SERVICE_REQUEST ^ 0x100, rid).nextInt(DAYS));
+	}
+
+	//a row number in [0, n) drawn from a power law; skew 0 is uniform.
+	//The favoured rows are spread over the table by a permutation.
+	private long skewed(SplittableRandom r, long n){
+		long rank = Math.min(n - 1, (long) (n * Math.pow(r.nextDouble(), 1 + this._skew)));
+		return (rank * PERMUTE) % n;
+	}
+
+	private SplittableRandom random(int table, long row){
+		long z = this._seed * 0x9E3779B97F4A7C15L + table * 0xC2B2AE3D27D4EB4FL + row;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return new SplittableRandom(z ^ (z >>> 31));
+	}
+
+	private static String pick(SplittableRandom r, String[] values){
+		return values[r.nextInt(values.length)];
+	}
+
+	private static double gaussian(SplittableRandom r){
+		//Box-Muller; SplittableRandom has no nextGaussian on Java 8
+		return Math.sqrt(-2 * Math.log(1 - r.nextDouble())) * Math.cos(2 * Math.PI * r.nextDouble());
+	}
+
+	/**
+	 * Reads a table chunk by chunk, keeping a few chunks ahead in flight
+	 * on the generating threads.
+	 */
+	private class ChunkReader extends Reader{
+		private final int _table;
+		private final long _rows;
+		private final ArrayDeque<Future<String>> _ahead = new ArrayDeque<Future<String>>();
+		private long _nextRow = 0;
+		private String _current = "";
+		private int _pos = 0;
+
+		ChunkReader(int table){
+			this._table = table;
+			this._rows = rows(table);
+			fill();
+		}
+
+		private void fill(){
+			while (this._ahead.size() < 2 * DataGenerator.this._threads && this._nextRow < this._rows){
+				final long from = this._nextRow;
+				final long to = Math.min(this._rows, from + CHUNK_ROWS);
+				this._ahead.add(DataGenerator.this._workers.submit(() -> chunk(this._table, from, to)));
+				this._nextRow = to;
+			}
+		}
+
+		public int read(char[] buf, int off, int len) throws IOException {
+			while (this._pos == this._current.length()){
+				Future<String> next = this._ahead.poll();
+				if (next == null){
+					return -1;
+				}
+				try{
+					this._current = next.get();
+				}catch (InterruptedException e){
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("interrupted while generating");
+				}catch (ExecutionException e){
+					throw new IOException(e.getCause());
+				}
+				this._pos = 0;
+				fill();
+			}
+			int n = Math.min(len, this._current.length() - this._pos);
+			this._current.getChars(this._pos, this._pos + n, buf, off);
+			this._pos += n;
+			return n;
+		}
+
+		public void close(){
+			for (Future<String> f : this._ahead){
+				f.cancel(true);
+			}
+			this._ahead.clear();
+		}
+	}//end ChunkReader
+}//end DataGenerator
@@ -0,0 +1,92 @@
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * This class hands out primary keys from the PostgreSQL sequences defined
+ * in create.sql.  Each sequence advances by BLOCK_SIZE, so a single
+ * nextval() reserves a whole block of ids for this process; the ids inside
+ * the block are then handed out locally without another round trip.
+ * Blocks never overlap, so ids are unique across threads and processes.
+ *
+ */
+
+public class IdAllocator{
+	//must match the INCREMENT BY of the sequences in create.sql
+	public static final int BLOCK_SIZE = 100;
+
+	public static final String CUSTOMER = "customer_id_seq";
+	public static final String MECHANIC = "mechanic_id_seq";
+	public static final String OWNS = "owns_ownership_id_seq";
+	public static final String SERVICE_REQUEST = "service_request_rid_seq";
+	public static final String CLOSED_REQUEST = "closed_request_wid_seq";
+
+	private final ConnectionPool _pool;
+	private final ConcurrentMap<String, Block> _blocks = new ConcurrentHashMap<String, Block>();
+
+	//the ids [next, limit) are reserved for this process
+	private static class Block{
+		private int next = 0;
+		private int limit = 0;
+	}
+
+	public IdAllocator(ConnectionPool pool){
+		this._pool = pool;
+	}
+
+	/**
+	 * Returns the next free id of the given sequence, reserving a new block
+	 * from the database only when the current one is used up.
+	 *
+	 * @param sequence name of the DB sequence, e.g. IdAllocator.CUSTOMER
+	 * @return an id no other caller will receive
+	 * @throws java.sql.SQLException when a new block cannot be reserved
+	 */
+	public int next(String sequence) throws SQLException {
+		Block block = this._blocks.get(sequence);
+		if (block == null){
+			Block created = new Block();
+			block = this._blocks.putIfAbsent(sequence, created);
+			if (block == null){
+				block = created;
+			}
+		}
+		synchronized (block){
+			if (block.next >= block.limit){
+				int start = reserve(sequence);
+				block.next = start;
+				block.limit = start + BLOCK_SIZE;
+			}
+			return block.next++;
+		}
+	}
+
+	/**
+	 * Forgets all locally reserved blocks, e.g. after the tables were
+	 * reloaded and the sequences reset.
+	 */
+	public void reset(){
+		this._blocks.clear();
+	}
+
+	private int reserve(String sequence) throws SQLException {
+		ConnectionPool.PooledConnection pc = this._pool.borrow();
+		try{
+			PreparedStatement stmt = pc.prepare("SELECT nextval(?::regclass)");
+			stmt.setString(1, sequence);
+			ResultSet rs = stmt.executeQuery();
+			try{
+				if (!rs.next()){
+					throw new SQLException("Sequence " + sequence + " returned no value");
+				}
+				return rs.getInt(1);
+			}finally{
+				rs.close();
+			}
+		}finally{
+			this._pool.release(pc);
+		}
+	}
+}//end IdAllocator
@@ -0,0 +1,100 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class counts durations in log-linear buckets of microseconds: every
+ * power of two is split into eight buckets, so a percentile read back from
+ * the histogram is within 12.5% of the true value whatever the scale, from
+ * microseconds up to hours.  Recording is lock free and costs a few atomic
+ * increments, cheap enough to do on every statement.
+ */
+
+public class LatencyHistogram{
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	//2^35 microseconds is about 9.5 hours; longer durations share the last bucket
+	private static final int MAX_EXPONENT = 35;
+	private static final int BUCKETS = SUB_BUCKETS + (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+	private final AtomicLongArray _counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong _count = new AtomicLong();
+	private final AtomicLong _sumNanos = new AtomicLong();
+	private final AtomicLong _maxNanos = new AtomicLong();
+
+	/**
+	 * @param nanos a duration from System.nanoTime()
+	 */
+	public void record(long nanos){
+		if (nanos < 0){
+			nanos = 0;
+		}
+		this._counts.incrementAndGet(bucket(nanos / 1000));
+		this._count.incrementAndGet();
+		this._sumNanos.addAndGet(nanos);
+		long max;
+		while (nanos > (max = this._maxNanos.get())){
+			if (this._maxNanos.compareAndSet(max, nanos)){
+				break;
+			}
+		}
+	}
+
+	public long getCount(){ return this._count.get(); }
+	public long getSumNanos(){ return this._sumNanos.get(); }
+	public long getMaxNanos(){ return this._maxNanos.get(); }
+
+	public double getMeanMillis(){
+		long count = this._count.get();
+		return count == 0 ? 0.0 : this._sumNanos.get() / 1e6 / count;
+	}
+
+	/**
+	 * @param quantile between 0 and 1, e.g. 0.99
+	 * @return the duration below which that share of the recorded
+	 * durations fall, in milliseconds; 0 when nothing was recorded
+	 */
+	public double getPercentileMillis(double quantile){
+		long count = this._count.get();
+		if (count == 0){
+			return 0.0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(quantile * count));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; ++i){
+			seen += this._counts.get(i);
+			if (seen >= rank){
+				//the middle of the bucket, but never beyond the largest duration seen
+				double micros = (lowerBound(i) + lowerBound(i + 1)) / 2.0;
+				return Math.min(micros / 1e3, this._maxNanos.get() / 1e6);
+			}
+		}
+		return this._maxNanos.get() / 1e6;
+	}
+
+	//values below SUB_BUCKETS get a bucket each; above, eight buckets per power of two
+	private static int bucket(long micros){
+		if (micros < SUB_BUCKETS){
+			return (int) micros;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(micros);
+		if (exponent > MAX_EXPONENT){
+			return BUCKETS - 1;
+		}
+		int sub = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + sub;
+	}
+
+	private static long lowerBound(int bucket){
+		if (bucket < SUB_BUCKETS){
+			return bucket;
+		}
+		int exponent = (bucket - SUB_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS;
+		int sub = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+		return (long) (SUB_BUCKETS + sub) << (exponent - SUB_BUCKET_BITS);
+	}
+
+	public String toString(){
+		return String.format("n=%d mean=%.3fms p50=%.3fms p99=%.3fms max=%.3fms",
+			getCount(), getMeanMillis(), getPercentileMillis(0.5), getPercentileMillis(0.99), getMaxNanos() / 1e6);
+	}
+}//end LatencyHistogram
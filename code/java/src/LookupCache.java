@@ -0,0 +1,274 @@
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class keeps the results of the lookups on the mostly static tables
+ * (customers, mechanics, cars and who owns them), keyed by query and
+ * parameters, so the repeated searches of the desk operations do not go
+ * to the database every time.  Entries are evicted least recently used
+ * first and expire after a time to live, which bounds how stale a result
+ * can get when another client writes the table.  Writes through
+ * MechanicShop invalidate every entry of the written table.  A lookup is
+ * kept either as the text of its rows or, for the typed getters, as the
+ * values its RowMapper made of them.
+ *
+ * A lookup that started before an invalidation is not cached when it
+ * finishes, so a result read just before a write can never outlive the
+ * write.  The cache is shared by all threads of a MechanicShop.
+ */
+
+public class LookupCache{
+
+	/**
+	 * Hit/miss counters of the cache.
+	 */
+	public static class Stats{
+		private final AtomicLong _hits = new AtomicLong();
+		private final AtomicLong _misses = new AtomicLong();
+		private final AtomicLong _evictions = new AtomicLong();
+		private final AtomicLong _expirations = new AtomicLong();
+		private final AtomicLong _invalidations = new AtomicLong();
+
+		public long getHits(){ return this._hits.get(); }
+		public long getMisses(){ return this._misses.get(); }
+		public long getEvictions(){ return this._evictions.get(); }
+		public long getExpirations(){ return this._expirations.get(); }
+		public long getInvalidations(){ return this._invalidations.get(); }
+
+		public double getHitRatio(){
+			long hits = this._hits.get();
+			long total = hits + this._misses.get();
+			return total == 0 ? 0.0 : (double) hits / total;
+		}
+
+		public String toString(){
+			return String.format("lookups[hits=%d misses=%d evictions=%d expirations=%d invalidations=%d hitRatio=%.3f]",
+				getHits(), getMisses(), getEvictions(), getExpirations(), getInvalidations(), getHitRatio());
+		}
+	}//end Stats
+
+	/**
+	 * The rows of one lookup.  Filled as a RowHandler while the query
+	 * streams, read only once cached.
+	 */
+	public static class Result implements RowHandler{
+		private String[] _columns = null;
+		private final List<String[]> _rows = new ArrayList<String[]>();
+
+		public void handleRow(ResultSet rs) throws SQLException {
+			if (this._columns == null){
+				ResultSetMetaData rsmd = rs.getMetaData();
+				this._columns = new String[rsmd.getColumnCount()];
+				for (int i = 0; i < this._columns.length; ++i){
+					this._columns[i] = rsmd.getColumnName(i + 1);
+				}
+			}
+			String[] values = new String[this._columns.length];
+			for (int i = 0; i < values.length; ++i){
+				values[i] = rs.getString(i + 1);
+			}
+			this._rows.add(values);
+		}
+
+		public int size(){
+			return this._rows.size();
+		}
+
+		/**
+		 * @return the column names, or null when there are no rows
+		 */
+		public String[] getColumns(){
+			return this._columns;
+		}
+
+		public String[] getRow(int i){
+			return this._rows.get(i);
+		}
+
+		/**
+		 * Renders the rows into a sink, without calling end().
+		 */
+		public void writeTo(ResultSink sink) throws IOException {
+			if (this._columns == null){
+				return;
+			}
+			sink.begin(this._columns);
+			for (String[] row : this._rows){
+				sink.row(row);
+			}
+		}
+
+		/**
+		 * @return a copy of the rows in the form of executeQueryAndReturnResult
+		 */
+		public List<List<String>> toLists(){
+			List<List<String>> result = new ArrayList<List<String>>(this._rows.size());
+			for (String[] row : this._rows){
+				result.add(new ArrayList<String>(Arrays.asList(row)));
+			}
+			return result;
+		}
+	}//end Result
+
+	private static class Cached{
+		final String table;
+		//a Result, or the read only List of mapped values
+		final Object value;
+		final long expiresNanos;
+
+		Cached(String table, Object value, long expiresNanos){
+			this.table = table;
+			this.value = value;
+			this.expiresNanos = expiresNanos;
+		}
+	}
+
+	private final int _capacity;
+	private final long _ttlNanos;
+	private final Stats _stats = new Stats();
+	private final Map<List<Object>, Cached> _entries;
+	//bumped by every invalidation
+	private long _generation = 0;
+
+	/**
+	 * @param capacity maximum number of results kept, 0 to disable the cache
+	 * @param ttlMillis how long a result is served before it is read again
+	 */
+	public LookupCache(final int capacity, long ttlMillis){
+		this._capacity = capacity;
+		this._ttlNanos = ttlMillis * 1000000L;
+		this._entries = new LinkedHashMap<List<Object>, Cached>(16, 0.75f, true){
+			protected boolean removeEldestEntry(Map.Entry<List<Object>, Cached> eldest){
+				if (size() <= capacity){
+					return false;
+				}
+				_stats._evictions.incrementAndGet();
+				return true;
+			}
+		};
+	}
+
+	public boolean isEnabled(){
+		return this._capacity > 0 && this._ttlNanos > 0;
+	}
+
+	/**
+	 * @return the cached result of a lookup, or null when it has to be
+	 * read from the database
+	 */
+	public synchronized Result get(String query, Object[] params){
+		return (Result) lookup(key(query, null, params));
+	}
+
+	/**
+	 * @return the cached values of a lookup mapped with mapper, read only,
+	 * or null when it has to be read from the database
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized <T> List<T> get(String query, RowMapper<T> mapper, Object[] params){
+		return (List<T>) lookup(key(query, mapper, params));
+	}
+
+	private Object lookup(List<Object> key){
+		Cached e = this._entries.get(key);
+		if (e != null && e.expiresNanos - System.nanoTime() < 0){
+			this._entries.remove(key);
+			this._stats._expirations.incrementAndGet();
+			e = null;
+		}
+		if (e == null){
+			this._stats._misses.incrementAndGet();
+			return null;
+		}
+		this._stats._hits.incrementAndGet();
+		return e.value;
+	}
+
+	/**
+	 * @return the invalidation count, to pass to put()
+	 */
+	public synchronized long generation(){
+		return this._generation;
+	}
+
+	/**
+	 * Caches a result read from the database, unless anything was
+	 * invalidated since the read started.
+	 *
+	 * @param generation generation() taken before the read
+	 */
+	public synchronized void put(String table, String query, Object[] params, Result result, long generation){
+		if (this._generation != generation){
+			return;
+		}
+		this._entries.put(key(query, null, params), new Cached(table, result, System.nanoTime() + this._ttlNanos));
+	}
+
+	/**
+	 * Caches the values mapped from a lookup read from the database, unless
+	 * anything was invalidated since the read started.  The values must not
+	 * change once cached, which holds for the row classes.
+	 *
+	 * @param generation generation() taken before the read
+	 * @return the values, read only
+	 */
+	public synchronized <T> List<T> put(String table, String query, RowMapper<T> mapper, Object[] params, List<T> values,
+			long generation){
+		List<T> cached = Collections.unmodifiableList(values);
+		if (this._generation == generation){
+			this._entries.put(key(query, mapper, params), new Cached(table, cached, System.nanoTime() + this._ttlNanos));
+		}
+		return cached;
+	}
+
+	/**
+	 * Drops every result read from a table.
+	 *
+	 * @param table the table name in lower case
+	 */
+	public synchronized void invalidate(String table){
+		++this._generation;
+		for (Iterator<Cached> it = this._entries.values().iterator(); it.hasNext(); ){
+			if (it.next().table.equals(table)){
+				it.remove();
+				this._stats._invalidations.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Drops every result, e.g. after a bulk load.
+	 */
+	public synchronized void clear(){
+		++this._generation;
+		this._stats._invalidations.addAndGet(this._entries.size());
+		this._entries.clear();
+	}
+
+	public synchronized int size(){
+		return this._entries.size();
+	}
+
+	public Stats getStats(){
+		return this._stats;
+	}
+
+	//the mapper, null for the text of the rows, keeps both kinds apart
+	private static List<Object> key(String query, RowMapper<?> mapper, Object[] params){
+		List<Object> key = new ArrayList<Object>(params.length + 2);
+		key.add(query);
+		key.add(mapper);
+		key.addAll(Arrays.asList(params));
+		return key;
+	}
+}//end LookupCache
@@ -0,0 +1,38 @@
+/**
+ * A row of Mechanic.  The names keep the blank padding of their CHAR
+ * columns.
+ *
+ */
+
+public final class Mechanic{
+	public static final RowMapper<Mechanic> MAPPER = rs -> new Mechanic(rs.getInt("id"), rs.getString("fname"),
+		rs.getString("lname"), rs.getInt("experience"));
+
+	private final int _id;
+	private final String _fname;
+	private final String _lname;
+	private final int _experience;
+
+	public Mechanic(int id, String fname, String lname, int experience){
+		this._id = id;
+		this._fname = fname;
+		this._lname = lname;
+		this._experience = experience;
+	}
+
+	public int getId(){
+		return this._id;
+	}
+
+	public String getFname(){
+		return this._fname;
+	}
+
+	public String getLname(){
+		return this._lname;
+	}
+
+	public int getExperience(){
+		return this._experience;
+	}
+}//end Mechanic
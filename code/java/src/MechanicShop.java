@@ -11,22 +11,33 @@
  */
 
 
-import java.sql.DriverManager;
 import java.sql.Connection;
 import java.sql.Statement;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.BatchUpdateException;
+import java.sql.Savepoint;
 import java.io.File;
 import java.io.FileReader;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Writer;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Random;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.lang.Math;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.time.LocalDate;
 /**
  * This class defines a simple embedded SQL utility class that is designed to
  * work with PostgreSQL JDBC drivers.
@@ -34,154 +45,1296 @@ import java.time.format.DateTimeFormatter;
  */
 
 public class MechanicShop{
-	//reference to physical database connection
-	private Connection _connection = null;
+	//pool of physical database connections shared by all callers
+	private ConnectionPool _pool = null;
+	//hands out primary keys from pre-allocated sequence blocks
+	private IdAllocator _ids = null;
+	//rows fetched per round trip when streaming query results
+	private int _fetchSize = Integer.getInteger("mechanicshop.fetchSize", 1000);
+	//how executeQueryAndPrintResult renders rows, and where to
+	private String _outputFormat = System.getProperty("mechanicshop.output", "table");
+	private int _pageSize = Integer.getInteger("mechanicshop.pageSize", ResultSink.DEFAULT_PAGE_SIZE);
+	private Writer _out = ResultSink.stdout();
+	//results of the lookups in CACHED_LOOKUPS
+	private LookupCache _lookups = new LookupCache(
+		Integer.getInteger("mechanicshop.lookupCache.size", 1024),
+		Long.getLong("mechanicshop.lookupCache.ttlMs", 60000L));
+	//statement and operation timings, see the metrics command
+	private QueryMetrics _metrics = null;
+	//new service requests written behind the clerk's back, null when off
+	private RequestQueue _requests = null;
+	//reports 6 to 10 answered in memory, null when off
+	private ReportEngine _analytics = null;
+	//reports 6 to 10 read together, see the dashboard command
+	private Dashboard _dashboard = null;
 	static BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+	//rows per page when the interactive operations list requests, customers or mechanics
+	static final int BROWSE_LIMIT = Integer.getInteger("mechanicshop.browseLimit", 20);
+	//the oldest car the _YEAR domain of create.sql accepts
+	static final int MIN_CAR_YEAR = 1970;
+
+	//queries of the menu operations, shared with QueryPlanCheck
+	static final String CUSTOMER_BY_ID =
+		"SELECT * FROM Customer WHERE id = ?;";
+	static final String MECHANIC_BY_ID =
+		"SELECT * FROM Mechanic WHERE id = ?;";
+	static final String CAR_BY_VIN =
+		"SELECT * FROM Car WHERE vin = ?;";
+	static final String CUSTOMERS_BY_LNAME =
+		"SELECT * FROM Customer WHERE lname = ?::bpchar;";
+	static final String CARS_OF_CUSTOMER =
+		"SELECT car_vin FROM Owns WHERE customer_id = ?;";
+	static final String OWNS_OF_CUSTOMER =
+		"SELECT * FROM Owns WHERE customer_id = ?;";
+	//the columns typed at the desk, without the search columns of migration 008
+	static final String REQUEST_BY_RID =
+		"SELECT " + RequestArchive.SERVICE_COLUMNS + " FROM Service_Request WHERE rid = ?;";
+	static final String CLOSED_REQUEST_BY_WID =
+		"SELECT " + RequestArchive.CLOSED_COLUMNS + " FROM Closed_Request WHERE wid = ?;";
+	//keyset pages: rows after the last id shown, one more than the page holds
+	static final String CUSTOMERS_AFTER =
+		"SELECT * FROM Customer WHERE id > ? ORDER BY id LIMIT ?;";
+	static final String CUSTOMERS_BY_LNAME_AFTER =
+		"SELECT * FROM Customer WHERE lname = ?::bpchar AND id > ? ORDER BY id LIMIT ?;";
+	static final String MECHANICS_AFTER =
+		"SELECT * FROM Mechanic WHERE id > ? ORDER BY id LIMIT ?;";
+	static final String MECHANICS_BY_LNAME_AFTER =
+		"SELECT * FROM Mechanic WHERE lname = ?::bpchar AND id > ? ORDER BY id LIMIT ?;";
+	static final String INSERT_CUSTOMER =
+		"INSERT INTO Customer (id, fname, lname, phone, address) VALUES (?, ?, ?, ?, ?);";
+	static final String INSERT_MECHANIC =
+		"INSERT INTO Mechanic (id, fname, lname, experience) VALUES (?, ?, ?, ?);";
+	static final String INSERT_CAR =
+		"INSERT INTO Car (vin, make, model, year) VALUES (?, ?, ?, ?);";
+	static final String INSERT_SERVICE_REQUEST =
+		"INSERT INTO Service_Request (rid, customer_id, car_vin, date, odometer, complain) VALUES (?, ?, ?, ?, ?, ?);";
+	//the write-behind queue may replay a request that was already written
+	static final String INSERT_SERVICE_REQUEST_ONCE =
+		"INSERT INTO Service_Request (rid, customer_id, car_vin, date, odometer, complain) VALUES (?, ?, ?, ?, ?, ?) ON CONFLICT (rid, date) DO NOTHING;";
+	//closes a request in one statement; returns nothing if the request or
+	//mechanic does not exist or the request is already closed.  The closing
+	//is stored in the month partition of the request, see create.sql
+	static final String CLOSE_REQUEST =
+		"INSERT INTO Closed_Request (wid, rid, mid, date, comment, bill, request_date) SELECT ?, S.rid, M.id, ?, ?, ?, S.date FROM Service_Request S, Mechanic M WHERE S.rid = ? AND M.id = ? ON CONFLICT (rid, request_date) DO NOTHING RETURNING wid;";
+	static final String WHY_NOT_CLOSED =
+		"SELECT EXISTS (SELECT 1 FROM Service_Request WHERE rid = ?), EXISTS (SELECT 1 FROM Closed_Request WHERE rid = ?), EXISTS (SELECT 1 FROM Mechanic WHERE id = ?);";
+	static final String REPORT_BILL_LESS_THAN_100 =
+		"SELECT date,comment,bill FROM Closed_Request WHERE bill < 100;";
+	static final String REPORT_MORE_THAN_20_CARS =
+		"SELECT fname,lname FROM Customer, (SELECT customer_id, COUNT(customer_id) FROM Owns GROUP BY customer_id HAVING COUNT(customer_id) > 20) AS NUM WHERE NUM.customer_id=Customer.id;";
+	static final String REPORT_CARS_BEFORE_1995 =
+		"SELECT DISTINCT make, model, year FROM Car AS C, Service_Request AS S WHERE year < 1995 and S.car_vin = C.vin and S.odometer < 50000;";
+	//reports 9 and 10 read the summary tables kept up to date by the
+	//triggers of sql/migrations/003_report_summaries.sql (see 006 for the
+	//partitioned tables)
+	static final String REPORT_K_MOST_SERVICED_CARS =
+		"SELECT make, model, NOC.num FROM Car C, Car_Service_Count NOC WHERE NOC.car_vin = C.vin ORDER BY NOC.num DESC, NOC.car_vin LIMIT ?;";
+	static final String REPORT_TOTAL_BILL =
+		"SELECT Customer.fname, Customer.lname, TEMP.total FROM Customer, Customer_Total_Bill AS TEMP WHERE Customer.id=TEMP.customer_id ORDER BY TEMP.total DESC;";
+	static final String REBUILD_REPORT_SUMMARIES =
+		"SELECT rebuild_report_summaries();";
+	
+	//lookups answered from _lookups, and the table each one reads
+	private static final Map<String, String> CACHED_LOOKUPS = new HashMap<String, String>();
+	static{
+		CACHED_LOOKUPS.put(CUSTOMER_BY_ID, "customer");
+		CACHED_LOOKUPS.put(CUSTOMERS_BY_LNAME, "customer");
+		CACHED_LOOKUPS.put(CUSTOMERS_AFTER, "customer");
+		CACHED_LOOKUPS.put(CUSTOMERS_BY_LNAME_AFTER, "customer");
+		CACHED_LOOKUPS.put(CustomerSearch.BY_LNAME, "customer");
+		CACHED_LOOKUPS.put(CustomerSearch.BY_PHONE, "customer");
+		CACHED_LOOKUPS.put(MECHANIC_BY_ID, "mechanic");
+		CACHED_LOOKUPS.put(MECHANICS_AFTER, "mechanic");
+		CACHED_LOOKUPS.put(MECHANICS_BY_LNAME_AFTER, "mechanic");
+		CACHED_LOOKUPS.put(CAR_BY_VIN, "car");
+		CACHED_LOOKUPS.put(CARS_OF_CUSTOMER, "owns");
+		CACHED_LOOKUPS.put(OWNS_OF_CUSTOMER, "owns");
+	}
+	//the table an INSERT, UPDATE or DELETE writes
+	private static final Pattern WRITTEN_TABLE =
+		Pattern.compile("^\\s*(?:INSERT\\s+INTO|UPDATE|DELETE\\s+FROM)\\s+(\\w+)", Pattern.CASE_INSENSITIVE);
 	
 	public MechanicShop(String dbname, String dbport, String user, String passwd) throws SQLException {
-		System.out.print("Connecting to database...");
+		this(dbname, dbport, user, passwd,
+			Integer.getInteger("mechanicshop.pool.min", 1),
+			Integer.getInteger("mechanicshop.pool.max", 8));
+	}
+
+	/**
+	 * Connects to the database through a pool of at least minPool and at
+	 * most maxPool connections.  The idle and borrow timeouts can be set with
+	 * the mechanicshop.pool.idleTimeoutMs and mechanicshop.pool.borrowTimeoutMs
+	 * system properties, the per-connection statement cache size with
+	 * mechanicshop.statementCacheSize.
+	 */
+	public MechanicShop(String dbname, String dbport, String user, String passwd, int minPool, int maxPool) throws SQLException {
+		this(dbname, dbport, user, passwd, minPool, maxPool, true);
+	}
+
+	/**
+	 * Same as above; with verbose false the connection progress messages are
+	 * not printed, so standard out only carries query results.
+	 */
+	public MechanicShop(String dbname, String dbport, String user, String passwd, int minPool, int maxPool, boolean verbose) throws SQLException {
+		if (verbose){
+			System.out.print("Connecting to database...");
+		}
 		try{
-			// constructs the connection URL
-			String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
-			System.out.println ("Connection URL: " + url + "\n");
+			// constructs the connection URL; the driver folds batched INSERTs
+			// into multi-row INSERTs when reWriteBatchedInserts is on
+			String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname
+				+ "?reWriteBatchedInserts=" + System.getProperty("mechanicshop.reWriteBatchedInserts", "true");
+			if (verbose){
+				System.out.println ("Connection URL: " + url + "\n");
+			}
 			
-			// obtain a physical connection
-	        this._connection = DriverManager.getConnection(url, user, passwd);
-	        System.out.println("Done");
+			// open the connection pool
+			this._pool = new ConnectionPool(url, user, passwd, minPool, maxPool,
+				Long.getLong("mechanicshop.pool.idleTimeoutMs", 300000L),
+				Long.getLong("mechanicshop.pool.borrowTimeoutMs", 30000L),
+				Integer.getInteger("mechanicshop.statementCacheSize", 64));
+			this._ids = new IdAllocator(this._pool);
+			this._metrics = new QueryMetrics(this._pool, this._lookups.getStats(),
+				Long.getLong("mechanicshop.slowQueryMs", 500L));
+			if (Boolean.parseBoolean(System.getProperty("mechanicshop.jmx", "true"))){
+				this._metrics.register(dbname);
+			}
+			if (Boolean.getBoolean("mechanicshop.writeBehind")){
+				this._requests = new RequestQueue(this,
+					new File(System.getProperty("mechanicshop.writeBehind.journal", "service_request.journal")),
+					Integer.getInteger("mechanicshop.writeBehind.capacity", 10000),
+					Integer.getInteger("mechanicshop.writeBehind.batchSize", 500),
+					Long.getLong("mechanicshop.writeBehind.submitTimeoutMs", 10000L),
+					Boolean.parseBoolean(System.getProperty("mechanicshop.writeBehind.fsync", "true")));
+			}
+			if (Boolean.getBoolean("mechanicshop.analytics")){
+				this._analytics = new ReportEngine(this,
+					Long.getLong("mechanicshop.analytics.maxStalenessMs", 1000L),
+					Integer.getInteger("mechanicshop.analytics.lookbackBlocks", 64));
+				this._analytics.start();
+			}
+			this._dashboard = new Dashboard(this,
+				Long.getLong("mechanicshop.dashboard.maxStalenessMs", 5000L),
+				Long.getLong("mechanicshop.dashboard.timeoutMs", 10000L));
+			if (verbose){
+		        System.out.println("Done");
+			}
 		}catch(Exception e){
 			System.err.println("Error - Unable to Connect to Database: " + e.getMessage());
 	        System.out.println("Make sure you started postgres on this machine");
 	        System.exit(-1);
 		}
 	}
+
+	/**
+	 * @return the connection pool backing this object, e.g. to read its metrics
+	 */
+	public ConnectionPool getPool(){
+		return this._pool;
+	}
+
+	/**
+	 * Sets how many rows the print/return helpers fetch per round trip
+	 * (defaults to the mechanicshop.fetchSize system property, or 1000).
+	 */
+	public void setFetchSize(int fetchSize){
+		this._fetchSize = fetchSize;
+	}
+
+	/**
+	 * Sets how executeQueryAndPrintResult renders rows: table, tsv, csv or
+	 * json (defaults to the mechanicshop.output system property, or table).
+	 */
+	public void setOutputFormat(String format){
+		ResultSink.forFormat(format, this._out, this._pageSize);
+		this._outputFormat = format;
+	}
+
+	/**
+	 * Redirects the output of executeQueryAndPrintResult, e.g. to a file.
+	 * The writer should be buffered; it is flushed after every query.
+	 */
+	public void setOutput(Writer out){
+		this._out = out;
+	}
 	
 	/**
 	 * Method to execute an update SQL statement.  Update SQL instructions
-	 * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
+	 * includes CREATE, INSERT, UPDATE, DELETE, and DROP.  The statement is
+	 * prepared once per connection and reused from the statement cache,
+	 * and dropped from it when it fails.  Cached lookups of the written
+	 * table are invalidated.
 	 * 
-	 * @param sql the input SQL string
+	 * @param sql the input SQL string, with ? placeholders for the parameters
+	 * @param params values bound to the placeholders, in order
+	 * @return the number of rows affected
 	 * @throws java.sql.SQLException when update failed
 	 * */
-	public void executeUpdate (String sql) throws SQLException { 
-		// creates a statement object
-		Statement stmt = this._connection.createStatement ();
-
-		// issues the update instruction
-		stmt.executeUpdate (sql);
+	public int executeUpdate (String sql, Object... params) throws SQLException { 
+		ConnectionPool.PooledConnection pc = this._pool.borrow ();
+		long start = System.nanoTime ();
+		int rows = 0;
+		SQLException error = null;
+		try{
+			// fetches the cached statement object and binds the parameters
+			PreparedStatement stmt = pc.prepare (sql);
+			bind (stmt, params);
 
-		// close the instruction
-	    stmt.close ();
+			// issues the update instruction
+			rows = stmt.executeUpdate ();
+			return rows;
+		}catch (SQLException e){
+			error = e;
+			pc.getStatementCache ().evict (sql);
+			throw e;
+		}finally{
+			this._pool.release (pc);
+			this._metrics.recordStatement (sql, System.nanoTime () - start, rows, error, params);
+			invalidateLookups (sql);
+		}
 	}//end executeUpdate
 
 	/**
-	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
-	 * method issues the query to the DBMS and outputs the results to
-	 * standard out.
+	 * Method to execute an input query SQL instruction (i.e. SELECT) and
+	 * hand the rows to a callback one at a time.  When fetchSize is positive
+	 * the rows are read through a server-side cursor in chunks of fetchSize
+	 * rows, so memory use does not grow with the size of the result.
 	 * 
-	 * @param query the input query string
+	 * @param query the input query string, with ? placeholders for the parameters
+	 * @param fetchSize number of rows fetched per round trip, 0 to fetch all at once
+	 * @param handler called once per row
+	 * @param params values bound to the placeholders, in order
 	 * @return the number of rows returned
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
-	public int executeQueryAndPrintResult (String query) throws SQLException {
-		//creates a statement object
-		Statement stmt = this._connection.createStatement ();
+	public int executeQueryAndStream (String query, int fetchSize, RowHandler handler, Object... params) throws SQLException {
+		return stream (query, fetchSize, 0, handler, params);
+	}
+
+	/**
+	 * Method to execute an input query SQL instruction (i.e. SELECT) and
+	 * keep its rows in memory.  The database cancels the query when it runs
+	 * longer than the timeout.
+	 * 
+	 * @param query the input query string, with ? placeholders for the parameters
+	 * @param timeoutSeconds how long the query may run, 0 for no limit
+	 * @param params values bound to the placeholders, in order
+	 * @return the rows
+	 * @throws java.sql.SQLException when failed to execute the query, or it was cancelled
+	 */
+	public LookupCache.Result executeQueryWithTimeout (String query, int timeoutSeconds, Object... params) throws SQLException {
+		LookupCache.Result rows = new LookupCache.Result ();
+		stream (query, 0, 0, timeoutSeconds, rows, params);
+		return rows;
+	}
 
-		//issues the query instruction
-		ResultSet rs = stmt.executeQuery (query);
+	private int stream (String query, int fetchSize, int maxRows, RowHandler handler, Object[] params) throws SQLException {
+		return stream (query, fetchSize, maxRows, 0, handler, params);
+	}
 
-		/*
-		 *  obtains the metadata object for the returned result set.  The metadata
-		 *  contains row and column info.
-		 */
-		ResultSetMetaData rsmd = rs.getMetaData ();
-		int numCol = rsmd.getColumnCount ();
+	private int stream (String query, int fetchSize, int maxRows, int timeoutSeconds, RowHandler handler, Object[] params) throws SQLException {
+		ConnectionPool.PooledConnection pc = this._pool.borrow ();
+		long start = System.nanoTime ();
 		int rowCount = 0;
-		
-		//iterates through the result set and output them to standard out.
-		boolean outputHeader = true;
-		while (rs.next()){
-			if(outputHeader){
-				for(int i = 1; i <= numCol; i++){
-					System.out.print(rsmd.getColumnName(i) + "\t");
-			    }
-			    System.out.println();
-			    outputHeader = false;
-			}
-			for (int i=1; i<=numCol; ++i)
-				System.out.print (rs.getString (i) + "\t");
-			System.out.println ();
-			++rowCount;
-		}//end while
-		stmt.close ();
+		SQLException error = null;
+		Connection conn = pc.getConnection ();
+		//the driver only uses a cursor inside a transaction
+		boolean useCursor = fetchSize > 0 && conn.getAutoCommit ();
+		try{
+			if (useCursor){
+				conn.setAutoCommit (false);
+			}
+			//fetches the cached statement object and binds the parameters
+			PreparedStatement stmt = pc.prepare (query);
+			stmt.setFetchSize (fetchSize);
+			stmt.setMaxRows (maxRows);
+			//set every time, as the statement is reused
+			stmt.setQueryTimeout (timeoutSeconds);
+			bind (stmt, params);
+
+			//issues the query instruction
+			ResultSet rs = stmt.executeQuery ();
+			try{
+				while (rs.next ()){
+					handler.handleRow (rs);
+					++rowCount;
+				}//end while
+			}finally{
+				rs.close ();
+			}
+			if (useCursor){
+				conn.commit ();
+				conn.setAutoCommit (true);
+			}
+			return rowCount;
+		}catch (SQLException e){
+			error = e;
+			//prepared again next time, in case the failure left it unusable,
+			//e.g. "cached plan must not change result type" after a DDL
+			pc.getStatementCache ().evict (query);
+			throw e;
+		}finally{
+			//release() rolls back and restores autocommit if we failed half way
+			this._pool.release (pc);
+			this._metrics.recordStatement (query, System.nanoTime () - start, rowCount, error, params);
+		}
+	}
+
+	/**
+	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
+	 * method issues the query to the DBMS and outputs the results to
+	 * standard out in the configured output format (see setOutputFormat).
+	 * Rows are streamed, so large results are printed without holding
+	 * them in memory.
+	 * 
+	 * @param query the input query string, with ? placeholders for the parameters
+	 * @param params values bound to the placeholders, in order
+	 * @return the number of rows returned
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public int executeQueryAndPrintResult (String query, Object... params) throws SQLException {
+		System.out.flush ();
+		return executeQueryAndWriteResult (ResultSink.forFormat (this._outputFormat, this._out, this._pageSize), query, params);
+	}
+
+	/**
+	 * Method to execute an input query SQL instruction (i.e. SELECT) and
+	 * render the streamed rows into the given sink.
+	 * 
+	 * @param sink receives the column names and every row
+	 * @param query the input query string, with ? placeholders for the parameters
+	 * @param params values bound to the placeholders, in order
+	 * @return the number of rows returned
+	 * @throws java.sql.SQLException when failed to execute the query or to write the output
+	 */
+	public int executeQueryAndWriteResult (final ResultSink sink, String query, Object... params) throws SQLException {
+		if (this._analytics != null && this._analytics.answers (query)){
+			long start = System.nanoTime ();
+			boolean ok = false;
+			try{
+				int rows = this._analytics.write (sink, query, params);
+				ok = true;
+				return rows;
+			}finally{
+				this._metrics.recordOperation ("analyticsReport", System.nanoTime () - start, !ok);
+			}
+		}
+		LookupCache.Result cached = lookup (query, params);
+		if (cached != null){
+			try{
+				cached.writeTo (sink);
+				sink.end ();
+			}catch (IOException e){
+				throw new SQLException ("Unable to write query result: " + e.getMessage (), e);
+			}
+			return cached.size ();
+		}
+		RowHandler writer = new RowHandler(){
+			private String[] values = null;
+			public void handleRow (ResultSet rs) throws SQLException {
+				try{
+					if (values == null){
+						/*
+						 *  obtains the metadata object for the returned result set.  The metadata
+						 *  contains row and column info.
+						 */
+						ResultSetMetaData rsmd = rs.getMetaData ();
+						String[] columns = new String[rsmd.getColumnCount ()];
+						for (int i = 0; i < columns.length; ++i){
+							columns[i] = rsmd.getColumnName (i + 1);
+						}
+						values = new String[columns.length];
+						sink.begin (columns);
+					}
+					for (int i = 0; i < values.length; ++i){
+						values[i] = rs.getString (i + 1);
+					}
+					sink.row (values);
+				}catch (IOException e){
+					throw new SQLException ("Unable to write query result: " + e.getMessage (), e);
+				}
+			}
+		};
+		int rowCount = executeQueryAndStream (query, this._fetchSize, writer, params);
+		try{
+			sink.end ();
+		}catch (IOException e){
+			throw new SQLException ("Unable to write query result: " + e.getMessage (), e);
+		}
 		return rowCount;
 	}
 	
 	/**
 	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
 	 * method issues the query to the DBMS and returns the results as
-	 * a list of records. Each record in turn is a list of attribute values
+	 * a list of records. Each record in turn is a list of attribute values.
+	 * Every value is copied into a String; to use the values, map the rows
+	 * with executeQueryAndMap instead.
 	 * 
-	 * @param query the input query string
+	 * @param query the input query string, with ? placeholders for the parameters
+	 * @param params values bound to the placeholders, in order
 	 * @return the query result as a list of records
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
-	public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException { 
-		//creates a statement object 
-		Statement stmt = this._connection.createStatement (); 
-		
-		//issues the query instruction 
-		ResultSet rs = stmt.executeQuery (query); 
-	 
-		/*
-		 * obtains the metadata object for the returned result set.  The metadata 
-		 * contains row and column info. 
-		*/ 
-		ResultSetMetaData rsmd = rs.getMetaData (); 
-		int numCol = rsmd.getColumnCount (); 
-		int rowCount = 0; 
-	 
+	public List<List<String>> executeQueryAndReturnResult (String query, Object... params) throws SQLException { 
+		LookupCache.Result cached = lookup (query, params);
+		if (cached != null){
+			return cached.toLists ();
+		}
 		//iterates through the result set and saves the data returned by the query. 
-		boolean outputHeader = false;
-		List<List<String>> result  = new ArrayList<List<String>>(); 
-		while (rs.next()){
-			List<String> record = new ArrayList<String>(); 
-			for (int i=1; i<=numCol; ++i) 
-				record.add(rs.getString (i)); 
-			result.add(record); 
-		}//end while 
-		stmt.close (); 
+		final List<List<String>> result  = new ArrayList<List<String>>(); 
+		executeQueryAndStream (query, this._fetchSize, new RowHandler(){
+			public void handleRow (ResultSet rs) throws SQLException {
+				int numCol = rs.getMetaData ().getColumnCount (); 
+				List<String> record = new ArrayList<String>(numCol); 
+				for (int i=1; i<=numCol; ++i) 
+					record.add(rs.getString (i)); 
+				result.add(record); 
+			}
+		}, params);
 		return result; 
 	}//end executeQueryAndReturnResult
+
+	/**
+	 * Method to execute an input query SQL instruction (i.e. SELECT) and
+	 * return its rows as typed values, e.g. Customer.MAPPER.  The mapper
+	 * reads the columns in their own types, so no value goes through a
+	 * String.  The lookups of CACHED_LOOKUPS are answered from the lookup
+	 * cache, which keeps the mapped values.
+	 * 
+	 * @param query the input query string, with ? placeholders for the parameters
+	 * @param mapper turns each row into a value
+	 * @param params values bound to the placeholders, in order
+	 * @return one value per row
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public <T> List<T> executeQueryAndMap (String query, final RowMapper<T> mapper, Object... params) throws SQLException {
+		List<T> cached = lookup (query, mapper, params);
+		if (cached != null){
+			return new ArrayList<T>(cached);
+		}
+		final List<T> result = new ArrayList<T>();
+		executeQueryAndStream (query, this._fetchSize, new RowHandler(){
+			public void handleRow (ResultSet rs) throws SQLException {
+				result.add (mapper.map (rs));
+			}
+		}, params);
+		return result;
+	}
+
+	/**
+	 * Method to execute an input query SQL instruction (i.e. SELECT) and
+	 * return its first row as a typed value; the server stops after it.
+	 * The lookups of CACHED_LOOKUPS are answered from the lookup cache.
+	 * 
+	 * @param query the input query string, with ? placeholders for the parameters
+	 * @param mapper turns the row into a value
+	 * @param params values bound to the placeholders, in order
+	 * @return the value, or null when there are no rows
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public <T> T executeQueryForObject (String query, final RowMapper<T> mapper, Object... params) throws SQLException {
+		List<T> cached = lookup (query, mapper, params);
+		if (cached != null){
+			return cached.isEmpty () ? null : cached.get (0);
+		}
+		final List<T> result = new ArrayList<T>(1);
+		stream (query, 0, 1, new RowHandler(){
+			public void handleRow (ResultSet rs) throws SQLException {
+				result.add (mapper.map (rs));
+			}
+		}, params);
+		return result.isEmpty () ? null : result.get (0);
+	}
+
+	/**
+	 * @return the customer, or null when there is none with that id
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public Customer getCustomer (int id) throws SQLException {
+		return executeQueryForObject (CUSTOMER_BY_ID, Customer.MAPPER, id);
+	}
+
+	/**
+	 * @return the mechanic, or null when there is none with that id
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public Mechanic getMechanic (int id) throws SQLException {
+		return executeQueryForObject (MECHANIC_BY_ID, Mechanic.MAPPER, id);
+	}
+
+	/**
+	 * @return the car, or null when there is none with that VIN
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public Car getCar (String vin) throws SQLException {
+		return executeQueryForObject (CAR_BY_VIN, Car.MAPPER, vin);
+	}
+
+	/**
+	 * @return the cars a customer owns, in no particular order
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public List<Owns> getOwnership (int customerId) throws SQLException {
+		return executeQueryAndMap (OWNS_OF_CUSTOMER, Owns.MAPPER, customerId);
+	}
+
+	/**
+	 * @return the service request, or null when there is none with that rid
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public ServiceRequest getServiceRequest (int rid) throws SQLException {
+		return executeQueryForObject (REQUEST_BY_RID, ServiceRequest.MAPPER, rid);
+	}
+
+	/**
+	 * @return the closed request, or null when there is none with that wid
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public ClosedRequest getClosedRequest (int wid) throws SQLException {
+		return executeQueryForObject (CLOSED_REQUEST_BY_WID, ClosedRequest.MAPPER, wid);
+	}
 	
 	/**
 	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
-	 * method issues the query to the DBMS and returns the number of results
+	 * method issues the query to the DBMS and returns the number of results.
+	 * Every row is read, through a cursor; to only check that there is one,
+	 * use exists.
 	 * 
-	 * @param query the input query string
+	 * @param query the input query string, with ? placeholders for the parameters
+	 * @param params values bound to the placeholders, in order
 	 * @return the number of rows returned
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
-	public int executeQuery (String query) throws SQLException {
-		//creates a statement object
-		Statement stmt = this._connection.createStatement ();
+	public int executeQuery (String query, Object... params) throws SQLException {
+		LookupCache.Result cached = lookup (query, params);
+		if (cached != null){
+			return cached.size ();
+		}
+		return stream (query, this._fetchSize, 0, new RowHandler(){
+			public void handleRow (ResultSet rs){ }
+		}, params);
+	}
 
-		//issues the query instruction
-		ResultSet rs = stmt.executeQuery (query);
+	/**
+	 * Method to check whether an input query SQL instruction (i.e. SELECT)
+	 * returns any row.  Only the first row is asked for, so the server
+	 * stops after it.
+	 * 
+	 * @param query the input query string, with ? placeholders for the parameters
+	 * @param params values bound to the placeholders, in order
+	 * @return true when the query returns at least one row
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public boolean exists (String query, Object... params) throws SQLException {
+		LookupCache.Result cached = lookup (query, params);
+		if (cached != null){
+			return cached.size () > 0;
+		}
+		return stream (query, 0, 1, new RowHandler(){
+			public void handleRow (ResultSet rs){ }
+		}, params) > 0;
+	}
 
-		int rowCount = 0;
+	/**
+	 * Method to run report 9, the K cars with the most service requests,
+	 * narrowed by a filter, and render it into a sink.
+	 * 
+	 * @param sink receives the make, model and number of requests of each car
+	 * @param filter the make, model and date range, see TopCarsFilter
+	 * @param k the number of cars listed
+	 * @return the number of cars listed
+	 * @throws java.sql.SQLException when failed to execute the query or to write the output
+	 */
+	public int writeTopServicedCars (ResultSink sink, TopCarsFilter filter, int k) throws SQLException {
+		if (k <= 0){
+			throw new IllegalArgumentException ("K needs to be greater than 0");
+		}
+		List<Object> params = new ArrayList<Object>();
+		String query = filter.toQuery (k, params);
+		return executeQueryAndWriteResult (sink, query, params.toArray ());
+	}
 
-		//iterates through the result set and count nuber of results.
-		if(rs.next()){
-			rowCount++;
-		}//end while
-		stmt.close ();
-		return rowCount;
+	/**
+	 * Method to print report 9, narrowed by a filter, to standard out in the
+	 * configured output format.
+	 * 
+	 * @return the number of cars printed
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public int printTopServicedCars (TopCarsFilter filter, int k) throws SQLException {
+		System.out.flush ();
+		return writeTopServicedCars (ResultSink.forFormat (this._outputFormat, this._out, this._pageSize), filter, k);
+	}
+
+	/**
+	 * Method to find the customers matching a last name or a phone number,
+	 * best match first, and render them into a sink.
+	 * 
+	 * @param sink receives the columns of Customer
+	 * @param search what the desk typed, see CustomerSearch
+	 * @param limit the number of customers listed
+	 * @return the number of customers listed
+	 * @throws java.sql.SQLException when failed to execute the query or to write the output
+	 */
+	public int searchCustomers (ResultSink sink, CustomerSearch search, int limit) throws SQLException {
+		if (limit <= 0){
+			throw new IllegalArgumentException ("The limit needs to be greater than 0");
+		}
+		long start = System.nanoTime ();
+		boolean ok = false;
+		try{
+			List<Object> params = new ArrayList<Object>();
+			String query = search.toQuery (limit, params);
+			int rows = executeQueryAndWriteResult (sink, query, params.toArray ());
+			ok = true;
+			return rows;
+		}finally{
+			this._metrics.recordOperation ("searchCustomers", System.nanoTime () - start, !ok);
+		}
+	}
+
+	/**
+	 * Method to print the customers matching a last name or a phone number
+	 * to standard out in the configured output format.
+	 * 
+	 * @return the number of customers printed
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public int printCustomerSearch (CustomerSearch search, int limit) throws SQLException {
+		System.out.flush ();
+		return searchCustomers (ResultSink.forFormat (this._outputFormat, this._out, this._pageSize), search, limit);
+	}
+
+	/**
+	 * Method to list service requests one page at a time, newest first.
+	 * 
+	 * @param filter which requests to list
+	 * @param after the rid of the last request of the previous page (see
+	 * Page.getNextKey), or null for the first page
+	 * @param limit the number of requests per page
+	 * @return the page
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public Page pageServiceRequests (RequestFilter filter, Integer after, int limit) throws SQLException {
+		List<Object> params = new ArrayList<Object>();
+		String query = filter.toQuery (after, limit, params);
+		return page (query, limit, params.toArray ());
+	}
+
+	/**
+	 * Method to list the service requests mentioning some words one page
+	 * at a time, best match first.
+	 * 
+	 * @param search the words and which requests to search
+	 * @param after the rid of the last request of the previous page (see
+	 * Page.getNextKey), or null for the first page
+	 * @param limit the number of requests per page
+	 * @return the page
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public Page pageRequestSearch (RequestSearch search, Integer after, int limit) throws SQLException {
+		long start = System.nanoTime ();
+		boolean ok = false;
+		try{
+			List<Object> params = new ArrayList<Object>();
+			String query = search.toQuery (after, limit, params);
+			Page page = page (query, limit, params.toArray ());
+			ok = true;
+			return page;
+		}finally{
+			this._metrics.recordOperation ("searchRequests", System.nanoTime () - start, !ok);
+		}
+	}
+
+	/**
+	 * Method to list customers one page at a time, by id.
+	 * 
+	 * @param lname only customers with this last name, or null for all
+	 * @param after the id of the last customer of the previous page, or null
+	 * @param limit the number of customers per page
+	 * @return the page
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public Page pageCustomers (String lname, Integer after, int limit) throws SQLException {
+		int from = after != null ? after : -1;
+		return lname == null ? page (CUSTOMERS_AFTER, limit, from, limit + 1)
+			: page (CUSTOMERS_BY_LNAME_AFTER, limit, lname, from, limit + 1);
+	}
+
+	/**
+	 * Method to list mechanics one page at a time, by id.
+	 * 
+	 * @param lname only mechanics with this last name, or null for all
+	 * @param after the id of the last mechanic of the previous page, or null
+	 * @param limit the number of mechanics per page
+	 * @return the page
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public Page pageMechanics (String lname, Integer after, int limit) throws SQLException {
+		int from = after != null ? after : -1;
+		return lname == null ? page (MECHANICS_AFTER, limit, from, limit + 1)
+			: page (MECHANICS_BY_LNAME_AFTER, limit, lname, from, limit + 1);
+	}
+
+	private Page page (String query, int limit, Object... params) throws SQLException {
+		LookupCache.Result rows = lookup (query, params);
+		if (rows == null){
+			rows = new LookupCache.Result ();
+			stream (query, 0, 0, rows, params);
+		}
+		return new Page (rows, limit);
+	}
+
+	/**
+	 * Method to print a page to standard out in the configured output
+	 * format, like executeQueryAndPrintResult.
+	 * 
+	 * @return the number of rows printed
+	 * @throws java.io.IOException when the output cannot be written
+	 */
+	public int printPage (Page page) throws IOException {
+		System.out.flush ();
+		page.writeTo (ResultSink.forFormat (this._outputFormat, this._out, this._pageSize));
+		return page.size ();
+	}
+
+	/**
+	 * Answers the lookups of CACHED_LOOKUPS from the lookup cache, reading
+	 * and caching the rows on a miss.
+	 * 
+	 * @return the rows, or null when the query is not a cached lookup
+	 */
+	private LookupCache.Result lookup (String query, Object[] params) throws SQLException {
+		String table = CACHED_LOOKUPS.get (query);
+		if (table == null || !this._lookups.isEnabled ()){
+			return null;
+		}
+		LookupCache.Result result = this._lookups.get (query, params);
+		if (result == null){
+			long generation = this._lookups.generation ();
+			result = new LookupCache.Result ();
+			stream (query, 0, 0, result, params);
+			this._lookups.put (table, query, params, result, generation);
+		}
+		return result;
+	}
+
+	/**
+	 * Answers the lookups of CACHED_LOOKUPS from the lookup cache as typed
+	 * values, reading, mapping and caching the rows on a miss.
+	 * 
+	 * @return the values, read only, or null when the query is not a cached lookup
+	 */
+	private <T> List<T> lookup (String query, final RowMapper<T> mapper, Object[] params) throws SQLException {
+		String table = CACHED_LOOKUPS.get (query);
+		if (table == null || !this._lookups.isEnabled ()){
+			return null;
+		}
+		List<T> values = this._lookups.get (query, mapper, params);
+		if (values == null){
+			long generation = this._lookups.generation ();
+			final List<T> read = new ArrayList<T>();
+			stream (query, 0, 0, new RowHandler(){
+				public void handleRow (ResultSet rs) throws SQLException {
+					read.add (mapper.map (rs));
+				}
+			}, params);
+			values = this._lookups.put (table, query, mapper, params, read, generation);
+		}
+		return values;
+	}
+
+	/**
+	 * Drops the cached lookups of the table an update SQL statement writes.
+	 */
+	private void invalidateLookups (String sql){
+		Matcher m = WRITTEN_TABLE.matcher (sql);
+		if (m.find ()){
+			this._lookups.invalidate (m.group (1).toLowerCase ());
+		}
+	}
+
+	/**
+	 * Method to write many rows with one update SQL statement (usually an
+	 * INSERT).  Rows are sent in batches of batchSize, each batch in its own
+	 * transaction.  When a batch fails it is replayed row by row behind
+	 * savepoints, so the good rows are still written and every bad row is
+	 * reported with its error.
+	 * 
+	 * @param sql the update SQL string, with ? placeholders for one row
+	 * @param rows the values of each row, in placeholder order
+	 * @param batchSize number of rows sent and committed together
+	 * @return the number of rows written and the rejected rows
+	 * @throws java.sql.SQLException when the database cannot be reached
+	 */
+	public BatchResult executeBatch (String sql, List<Object[]> rows, int batchSize) throws SQLException {
+		BatchResult result = new BatchResult ();
+		try{
+			for (int from = 0; from < rows.size (); from += batchSize){
+				writeBatch (sql, rows, from, Math.min (rows.size (), from + batchSize), result);
+			}
+		}finally{
+			invalidateLookups (sql);
+		}
+		result.finish ();
+		return result;
+	}
+
+	private void writeBatch (String sql, List<Object[]> rows, int from, int to, BatchResult result) throws SQLException {
+		ConnectionPool.PooledConnection pc = this._pool.borrow ();
+		long start = System.nanoTime ();
+		long writtenBefore = result.getWritten ();
+		SQLException error = null;
+		Connection conn = pc.getConnection ();
+		try{
+			conn.setAutoCommit (false);
+			PreparedStatement stmt = pc.prepare (sql);
+			try{
+				for (int i = from; i < to; ++i){
+					bind (stmt, rows.get (i));
+					stmt.addBatch ();
+				}
+				stmt.executeBatch ();
+				conn.commit ();
+				result.addWritten (to - from);
+			}catch (BatchUpdateException e){
+				//replays the batch one row at a time to find the bad rows
+				stmt.clearBatch ();
+				conn.rollback ();
+				long written = 0;
+				for (int i = from; i < to; ++i){
+					Savepoint sp = conn.setSavepoint ();
+					try{
+						bind (stmt, rows.get (i));
+						stmt.executeUpdate ();
+						conn.releaseSavepoint (sp);
+						++written;
+					}catch (SQLException rowError){
+						conn.rollback (sp);
+						result.addError (i, rowError.getMessage ());
+					}
+				}
+				conn.commit ();
+				result.addWritten (written);
+			}
+			result.addBatch ();
+		}catch (SQLException e){
+			error = e;
+			pc.getStatementCache ().evict (sql);
+			throw e;
+		}finally{
+			this._pool.release (pc);
+			this._metrics.recordStatement (sql, System.nanoTime () - start, result.getWritten () - writtenBefore, error,
+				new Object[]{ (to - from) + " row batch" });
+		}
+	}
+
+	/**
+	 * Binds the given values to the ? placeholders of a statement.
+	 */
+	private static void bind (PreparedStatement stmt, Object[] params) throws SQLException {
+		for (int i = 0; i < params.length; ++i){
+			stmt.setObject (i + 1, params[i]);
+		}
+	}
+
+	/**
+	 * @return hit/miss counters of the per-connection statement caches
+	 */
+	public StatementCache.Stats getStatementStats(){
+		return this._pool.getStatementStats ();
+	}
+
+	/**
+	 * @return the statement and operation timings
+	 */
+	public QueryMetrics getMetrics(){
+		return this._metrics;
+	}
+
+	/**
+	 * @return the write-behind queue of new service requests, or null when
+	 * they are written right away
+	 */
+	public RequestQueue getRequestQueue(){
+		return this._requests;
+	}
+
+	/**
+	 * @return the in-memory engine answering reports 6 to 10, or null when
+	 * they are run on the database
+	 */
+	public ReportEngine getReportEngine(){
+		return this._analytics;
+	}
+
+	/**
+	 * @return the dashboard of reports 6 to 10, shared by every session
+	 */
+	public Dashboard getDashboard(){
+		return this._dashboard;
+	}
+
+	/**
+	 * @return hit/miss counters of the lookup cache
+	 */
+	public LookupCache.Stats getLookupStats(){
+		return this._lookups.getStats ();
 	}
 	
+	/**
+	 * Method to allocate a new primary key.  Keys come from blocks reserved
+	 * on the DB sequence, so most calls need no round trip at all.
+	 * 
+	 * @param sequence name of the DB sequence, e.g. IdAllocator.CUSTOMER
+	 * @return a key no other session will receive
+	 * @throws java.sql.SQLException when a new block cannot be reserved
+	 */
+	public int nextId(String sequence) throws SQLException {
+		return this._ids.next(sequence);
+	}
+
+	/**
+	 * Method to add a customer with a newly allocated id.
+	 * 
+	 * @param phone in the form (ddd)ddd-dddd
+	 * @return the id of the new customer
+	 * @throws java.sql.SQLException when the insert fails
+	 */
+	public int addCustomer(String fname, String lname, String phone, String address) throws SQLException {
+		checkLength("first name", fname, 32);
+		checkLength("last name", lname, 32);
+		checkLength("address", address, 256);
+		if (phone == null || !phone.matches("\\D\\d{3}\\D\\d{3}\\D\\d{4}")){
+			throw new IllegalArgumentException("Invalid phone number: " + phone + " (expected (ddd)ddd-dddd)");
+		}
+		long start = System.nanoTime();
+		boolean ok = false;
+		try{
+			int cid = nextId(IdAllocator.CUSTOMER);
+			executeUpdate(INSERT_CUSTOMER, cid, fname, lname, phone, address);
+			ok = true;
+			return cid;
+		}finally{
+			this._metrics.recordOperation("addCustomer", System.nanoTime() - start, !ok);
+		}
+	}
+
+	/**
+	 * Method to add a mechanic with a newly allocated id.
+	 * 
+	 * @param experience years of experience, 1 to 99
+	 * @return the id of the new mechanic
+	 * @throws java.sql.SQLException when the insert fails
+	 */
+	public int addMechanic(String fname, String lname, int experience) throws SQLException {
+		checkLength("first name", fname, 32);
+		checkLength("last name", lname, 32);
+		if (experience <= 0 || experience > 99){
+			throw new IllegalArgumentException("Invalid experience: " + experience + " (expected 1 to 99 years)");
+		}
+		long start = System.nanoTime();
+		boolean ok = false;
+		try{
+			int mid = nextId(IdAllocator.MECHANIC);
+			executeUpdate(INSERT_MECHANIC, mid, fname, lname, experience);
+			ok = true;
+			return mid;
+		}finally{
+			this._metrics.recordOperation("addMechanic", System.nanoTime() - start, !ok);
+		}
+	}
+
+	/**
+	 * Method to add a car.
+	 * 
+	 * @param vin six letters followed by ten digits
+	 * @param year MIN_CAR_YEAR to 2021
+	 * @throws java.sql.SQLException when the insert fails
+	 */
+	public void addCar(String vin, String make, String model, int year) throws SQLException {
+		if (vin == null || !vin.matches("\\D{6}\\d{10}")){
+			throw new IllegalArgumentException("Invalid VIN: " + vin + " (expected 6 letters and 10 digits)");
+		}
+		checkLength("make", make, 32);
+		checkLength("model", model, 32);
+		if (year < MIN_CAR_YEAR || year > 2021){
+			throw new IllegalArgumentException("Invalid year: " + year + " (expected " + MIN_CAR_YEAR + " to 2021)");
+		}
+		long start = System.nanoTime();
+		boolean ok = false;
+		try{
+			executeUpdate(INSERT_CAR, vin, make, model, year);
+			ok = true;
+		}finally{
+			this._metrics.recordOperation("addCar", System.nanoTime() - start, !ok);
+		}
+	}
+
+	/**
+	 * Method to open a service request dated today.  In write-behind mode
+	 * (the mechanicshop.writeBehind system property) the request is only
+	 * journaled and queued here, and written to the database shortly after;
+	 * the customer and car are checked up front so that the write rarely
+	 * fails later.
+	 * 
+	 * @return the rid of the new request
+	 * @throws java.sql.SQLException when the insert fails, or the queue is full
+	 */
+	public int insertServiceRequest(int customerId, String vin, int odometer, String complain) throws SQLException {
+		if (odometer < 0 || odometer > 9999999){
+			throw new IllegalArgumentException("Invalid odometer: " + odometer);
+		}
+		long start = System.nanoTime();
+		boolean ok = false;
+		try{
+			int rid = nextId(IdAllocator.SERVICE_REQUEST);
+			java.sql.Date today = java.sql.Date.valueOf(LocalDate.now());
+			if (this._requests == null){
+				executeUpdate(INSERT_SERVICE_REQUEST, rid, customerId, vin, today, odometer, complain);
+			} else {
+				if (!exists(CUSTOMER_BY_ID, customerId)){
+					throw new SQLException("Customer " + customerId + " does not exist");
+				}
+				if (!exists(CAR_BY_VIN, vin)){
+					throw new SQLException("Car " + vin + " does not exist");
+				}
+				try{
+					this._requests.submit(rid, customerId, vin, today, odometer, complain);
+				}catch (IOException e){
+					throw new SQLException("Unable to journal the service request: " + e.getMessage(), e);
+				}
+			}
+			ok = true;
+			return rid;
+		}finally{
+			this._metrics.recordOperation("insertServiceRequest", System.nanoTime() - start, !ok);
+		}
+	}
+
+	private static void checkLength(String what, String value, int max){
+		if (value == null || value.length() <= 0 || value.length() > max){
+			throw new IllegalArgumentException("Invalid " + what + ": must be 1 to " + max + " characters");
+		}
+	}
+
+	/**
+	 * Method to close a service request.  The Closed_Request row is inserted
+	 * by a single INSERT ... RETURNING that also checks the request and the
+	 * mechanic exist and that the request is still open, so closing is one
+	 * atomic round trip.  Only a failed close costs a second query, to
+	 * report why it failed.
+	 * 
+	 * @param rid the service request to close
+	 * @param mid the mechanic who did the work
+	 * @param comment the closing comment
+	 * @param bill the amount billed, greater than 0
+	 * @return the wid of the new Closed_Request row
+	 * @throws java.sql.SQLException when the request cannot be closed
+	 */
+	public int closeServiceRequest(int rid, int mid, String comment, int bill) throws SQLException {
+		if (comment == null || comment.length() < 1){
+			throw new IllegalArgumentException("Invalid comment: must not be empty");
+		}
+		if (bill <= 0){
+			throw new IllegalArgumentException("Invalid bill: " + bill + " (must be greater than 0)");
+		}
+		long start = System.nanoTime();
+		boolean ok = false;
+		try{
+			//a request still in the write-behind queue cannot be closed yet
+			if (this._requests != null && this._requests.getPending() > 0){
+				try{
+					this._requests.flush(Long.getLong("mechanicshop.writeBehind.submitTimeoutMs", 10000L));
+				}catch (InterruptedException e){
+					Thread.currentThread().interrupt();
+				}
+			}
+			int wid = nextId(IdAllocator.CLOSED_REQUEST);
+			java.sql.Date today = java.sql.Date.valueOf(LocalDate.now());
+			if (executeQueryForObject(CLOSE_REQUEST, RowMapper.FIRST_INT, wid, today, comment, bill, rid, mid) != null){
+				ok = true;
+				return wid;
+			}
+			boolean[] why = executeQueryForObject(WHY_NOT_CLOSED, rs -> new boolean[]{ rs.getBoolean(1), rs.getBoolean(2), rs.getBoolean(3) },
+				rid, rid, mid);
+			if (!why[0]){
+				throw new SQLException("Service request " + rid + " does not exist");
+			} else if (why[1]){
+				throw new SQLException("Service request " + rid + " is already closed");
+			} else if (!why[2]){
+				throw new SQLException("Mechanic " + mid + " does not exist");
+			}
+			//e.g. the request or the mechanic was removed, or the closing
+			//committed, between the insert and the probe
+			throw new SQLException("Service request " + rid + " was not closed, please try again");
+		}finally{
+			this._metrics.recordOperation("closeServiceRequest", System.nanoTime() - start, !ok);
+		}
+	}
+
+	/**
+	 * Method to load the CSV data set from a local directory with
+	 * COPY FROM STDIN, then move the id sequences past the loaded keys.
+	 * 
+	 * @param dir directory holding the six CSV files of code/data
+	 * @param truncate empty the tables before loading
+	 * @param out where progress is reported
+	 * @return the number of rows loaded
+	 * @throws java.lang.Exception when a file is missing or a COPY fails
+	 */
+	public long bulkLoad(File dir, boolean truncate, PrintStream out) throws Exception {
+		long start = System.nanoTime();
+		boolean ok = false;
+		long rows;
+		try{
+			rows = new BulkLoader(this._pool, dir).load(truncate, out);
+			ok = true;
+		}finally{
+			this._metrics.recordOperation("bulkLoad", System.nanoTime() - start, !ok);
+		}
+		this._ids.reset();
+		this._lookups.clear();
+		if (this._analytics != null){
+			this._analytics.reset();
+		}
+		this._dashboard.reset();
+		return rows;
+	}
+
+	/**
+	 * Method to load a synthetic data set straight into the tables with
+	 * COPY FROM STDIN, without writing it to files first.
+	 * 
+	 * @param generator the data set to load
+	 * @param truncate empty the tables before loading
+	 * @param out where progress is reported
+	 * @return the number of rows loaded
+	 * @throws java.lang.Exception when a COPY fails
+	 */
+	public long bulkLoad(DataGenerator generator, boolean truncate, PrintStream out) throws Exception {
+		long start = System.nanoTime();
+		boolean ok = false;
+		long rows;
+		try{
+			rows = new BulkLoader(this._pool, generator).load(truncate, out);
+			ok = true;
+		}finally{
+			this._metrics.recordOperation("bulkLoad", System.nanoTime() - start, !ok);
+		}
+		this._ids.reset();
+		this._lookups.clear();
+		if (this._analytics != null){
+			this._analytics.reset();
+		}
+		this._dashboard.reset();
+		return rows;
+	}
+
+	/**
+	 * Method to recompute the summary tables of reports 9 and 10 from
+	 * Service_Request and Closed_Request, e.g. after rows were written with
+	 * the triggers disabled.  Writers wait while it runs.
+	 * 
+	 * @return the time it took, in milliseconds
+	 * @throws java.sql.SQLException when the summary tables do not exist
+	 */
+	public long rebuildReportSummaries() throws SQLException {
+		long start = System.nanoTime();
+		boolean ok = false;
+		try{
+			executeQuery(REBUILD_REPORT_SUMMARIES);
+			ok = true;
+		}finally{
+			this._metrics.recordOperation("rebuildReportSummaries", System.nanoTime() - start, !ok);
+		}
+		return (System.nanoTime() - start) / 1000000;
+	}
+
+	/**
+	 * Method to create the monthly partitions of Service_Request and
+	 * Closed_Request for a range of days, e.g. ahead of the coming months.
+	 * 
+	 * @param from a day of the first month
+	 * @param to a day of the last month
+	 * @return the number of months created
+	 * @throws java.sql.SQLException when the tables are not partitioned
+	 */
+	public int createRequestPartitions(java.sql.Date from, java.sql.Date to) throws SQLException {
+		long start = System.nanoTime();
+		boolean ok = false;
+		try{
+			int created = new RequestArchive(this._pool).createPartitions(from, to);
+			ok = true;
+			return created;
+		}finally{
+			this._metrics.recordOperation("createRequestPartitions", System.nanoTime() - start, !ok);
+		}
+	}
+
+	/**
+	 * Method to archive the months of service requests that end before a
+	 * day into gzipped CSV files, dropping them from the database, then
+	 * recompute the report summaries without them.
+	 * 
+	 * @param before the months that end before this day are archived
+	 * @param dir where the files are written
+	 * @param out where progress is reported
+	 * @return the number of months archived
+	 * @throws java.lang.Exception when a month cannot be exported
+	 */
+	public int archiveRequests(java.sql.Date before, File dir, PrintStream out) throws Exception {
+		long start = System.nanoTime();
+		boolean ok = false;
+		try{
+			int months = new RequestArchive(this._pool).archive(before.toLocalDate(), dir, out).size();
+			if (months > 0){
+				executeQuery(REBUILD_REPORT_SUMMARIES);
+				if (this._analytics != null){
+					this._analytics.reset();
+				}
+				this._dashboard.reset();
+			}
+			ok = true;
+			return months;
+		}finally{
+			this._metrics.recordOperation("archiveRequests", System.nanoTime() - start, !ok);
+		}
+	}
+
+	/**
+	 * Method to load an archived month of service requests back into the
+	 * database, then recompute the report summaries with it.
+	 * 
+	 * @param dir where the month was archived
+	 * @param month the month to restore
+	 * @return the number of rows restored
+	 * @throws java.lang.Exception when the month is attached or a file cannot be read
+	 */
+	public long restoreRequests(File dir, java.time.YearMonth month) throws Exception {
+		long start = System.nanoTime();
+		boolean ok = false;
+		try{
+			long rows = new RequestArchive(this._pool).restore(dir, month);
+			executeQuery(REBUILD_REPORT_SUMMARIES);
+			if (this._analytics != null){
+				this._analytics.reset();
+			}
+			this._dashboard.reset();
+			ok = true;
+			return rows;
+		}finally{
+			this._metrics.recordOperation("restoreRequests", System.nanoTime() - start, !ok);
+		}
+	}
+
 	/**
 	 * Method to fetch the last value from sequence. This
 	 * method issues the query to the DBMS and returns the current 
-	 * value of sequence used for autogenerated keys
+	 * value of sequence used for autogenerated keys.  currval() is
+	 * session-local, so this only sees a nextval() issued on the same
+	 * pooled connection.
 	 * 
 	 * @param sequence name of the DB sequence
 	 * @return current value of a sequence
@@ -189,43 +1342,68 @@ public class MechanicShop{
 	 */
 	
 	public int getCurrSeqVal(String sequence) throws SQLException {
-		Statement stmt = this._connection.createStatement ();
-		
-		ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
-		if (rs.next()) return rs.getInt(1);
-		return -1;
+		ConnectionPool.PooledConnection pc = this._pool.borrow ();
+		try{
+			PreparedStatement stmt = pc.prepare ("Select currval(?::regclass)");
+			stmt.setString (1, sequence);
+			
+			ResultSet rs = stmt.executeQuery ();
+			int value = rs.next() ? rs.getInt(1) : -1;
+			rs.close ();
+			return value;
+		}finally{
+			this._pool.release (pc);
+		}
 	}
 
 	/**
-	 * Method to close the physical connection if it is open.
+	 * Method to close all pooled connections.
 	 */
 	public void cleanup(){
-		try{
-			if (this._connection != null){
-				this._connection.close ();
-			}//end if
-		}catch (SQLException e){
-	         // ignored.
-		}//end try
+		if (this._requests != null){
+			int left = this._requests.close (Long.getLong ("mechanicshop.writeBehind.flushTimeoutMs", 30000L));
+			if (left > 0){
+				System.err.println (left + " queued service request(s) are kept in the journal for the next start");
+			}
+		}//end if
+		if (this._analytics != null){
+			this._analytics.close ();
+		}//end if
+		if (this._dashboard != null){
+			this._dashboard.close ();
+		}//end if
+		if (this._metrics != null){
+			this._metrics.unregister ();
+		}//end if
+		if (this._pool != null){
+			this._pool.close ();
+		}//end if
 	}//end cleanup
 
 	/**
-	 * The main execution method
+	 * The main execution method.  Without a command the interactive menu is
+	 * run; otherwise the command (see CommandRunner) is executed and its
+	 * status becomes the exit code.
 	 * 
 	 * @param args the command line arguments this inclues the <mysql|pgsql> <login file>
 	 */
 	public static void main (String[] args) {
-		if (args.length != 3) {
+		if (args.length < 3) {
 			System.err.println (
 				"Usage: " + "java [-classpath <classpath>] " + MechanicShop.class.getName () +
-		            " <dbname> <port> <user>");
-			return;
+		            " <dbname> <port> <user> [<command> ...]");
+			System.err.print (CommandRunner.USAGE_TEXT);
+			System.exit (CommandRunner.USAGE);
 		}//end if
 		
 		MechanicShop esql = null;
+		int status = 0;
+		boolean interactive = args.length == 3;
 		
 		try{
-			System.out.println("(1)");
+			if (interactive){
+				System.out.println("(1)");
+			}
 			
 			try {
 				Class.forName("org.postgresql.Driver");
@@ -233,15 +1411,28 @@ public class MechanicShop{
 
 				System.out.println("Where is your PostgreSQL JDBC Driver? " + "Include in your library path!");
 				e.printStackTrace();
+				status = 1;
 				return;
 			}
 			
-			System.out.println("(2)");
+			if (interactive){
+				System.out.println("(2)");
+			}
 			String dbname = args[0];
 			String dbport = args[1];
 			String user = args[2];
 			
-			esql = new MechanicShop (dbname, dbport, user, "");
+			esql = new MechanicShop (dbname, dbport, user, "",
+				Integer.getInteger("mechanicshop.pool.min", 1),
+				Integer.getInteger("mechanicshop.pool.max", 8), interactive);
+
+			if (!interactive){
+				//non-interactive command mode
+				PrintStream out = new PrintStream (new FileOutputStream (FileDescriptor.out), false, "UTF-8");
+				status = new CommandRunner (esql, out, System.err).run (Arrays.copyOfRange (args, 3, args.length));
+				out.flush ();
+				return;
+			}//end if
 			
 			boolean keepon = true;
 			while(keepon){
@@ -278,16 +1469,24 @@ public class MechanicShop{
 			}
 		}catch(Exception e){
 			System.err.println (e.getMessage ());
+			status = 1;
 		}finally{
 			try{
 				if(esql != null) {
-					System.out.print("Disconnecting from database...");
+					if (interactive){
+						System.out.print("Disconnecting from database...");
+					}
 					esql.cleanup ();
-					System.out.println("Done\n\nBye !");
+					if (interactive){
+						System.out.println("Done\n\nBye !");
+					}
 				}//end if				
 			}catch(Exception e){
 				// ignored.
 			}
+			if (status != 0){
+				System.exit (status);
+			}
 		}
 	}
 
@@ -308,6 +1507,26 @@ public class MechanicShop{
 	}//end readChoice
 	
 
+	/**
+	 * Prints the first page of a listing, and the next page whenever the
+	 * user types n.
+	 * 
+	 * @return the first other line the user types, trimmed
+	 */
+	static String browse(MechanicShop esql, Page.Source source, String what) throws Exception {
+		Page page = source.read(null);
+		while (true){
+			esql.printPage(page);
+			Integer next = page.getNextKey();
+			System.out.println(what + " shown: " + page.size() + (next != null ? ", type n for the next page" : ""));
+			String line = in.readLine().trim();
+			if (next == null || !line.equalsIgnoreCase("n")){
+				return line;
+			}
+			page = source.read(next);
+		}
+	}
+
 	public static void AddCustomer(MechanicShop esql){//1
 		int cid;
 		String address;
@@ -320,11 +1539,6 @@ public class MechanicShop{
 		do {	 
 			System.out.print("Please insert customer's address: ");
 			try {
-				if(Integer.parseInt(esql.executeQueryAndReturnResult("SELECT MAX(id) FROM Customer;").get(0).get(0)) != 0){
-					cid = Integer.parseInt(esql.executeQueryAndReturnResult("SELECT MAX(id) FROM Customer;").get(0).get(0)) + 1;
-				} else {
-					cid = 1;
-				}
 				address = in.readLine();
 				if( address.length() <= 0 || address.length() > 256){
 				  	throw new RuntimeException("Invalid input. Please try again!");
@@ -388,11 +1602,10 @@ public class MechanicShop{
 			} 
 		}while (true);
 
-		String res = "INSERT INTO Customer (id, fname, lname, phone, address) VALUES ('" + cid + "', '" + fName + "', '" + lName + "', '" + phone + "', '" + address + "');";
-		try{ esql.executeUpdate(res); 
+		try{ cid = esql.addCustomer(fName, lName, phone, address); 
 
 			System.out.println("------- Here are the new customer's information: -------");
-		int output = esql.executeQueryAndPrintResult("SELECT * FROM Customer WHERE id = " + cid);
+		int output = esql.executeQueryAndPrintResult(CUSTOMER_BY_ID, cid);
 		System.out.println("--------------------------------------------------------");
 
 		}
@@ -410,12 +1623,6 @@ public class MechanicShop{
 		
 		do { System.out.print("------ Please insert mechanic's first name: -------");
 			try {
-				if(Integer.parseInt(esql.executeQueryAndReturnResult("SELECT MAX(id) FROM Mechanic;").get(0).get(0)) != 0){
-					empid = Integer.parseInt(esql.executeQueryAndReturnResult("SELECT MAX(id) FROM Mechanic;").get(0).get(0)) + 1;
-				} else {
-					empid = 1;
-				}
-		 
 				fName = in.readLine();
 				if( fName.length() <= 0 || fName.length() > 32){
 				  	throw new RuntimeException("Invalid input. Please try again!");
@@ -454,12 +1661,11 @@ public class MechanicShop{
 			} 
 		}while (true);
 
-		String res = "INSERT INTO Mechanic (id, fname, lname, experience) VALUES ('" + empid + "', '" + fName + "', '" + lName + "', '" + exp_year + "');";
-		try{ esql.executeUpdate(res); }
-		catch (Exception e) { System.err.println(e.getMessage()); }
+		try{ empid = esql.addMechanic(fName, lName, exp_year); }
+		catch (Exception e) { System.err.println(e.getMessage()); return; }
 
 		try{System.out.println("------- Here are the new mechanic's information: -------");
-		int output = esql.executeQueryAndPrintResult("SELECT * FROM Mechanic WHERE id = " + empid);
+		int output = esql.executeQueryAndPrintResult(MECHANIC_BY_ID, empid);
 		System.out.println("--------------------------------------------------------");
 	}catch (Exception e) { System.err.println(e.getMessage()); }}
 	
@@ -521,7 +1727,7 @@ public class MechanicShop{
 
 		do { System.out.print("--------- Please insert car's production year: ---------");
 			try { Year = java.lang.Integer.parseInt(in.readLine());
-				if ( Year <= 0 || Year > 2021){
+				if ( Year < MIN_CAR_YEAR || Year > 2021){
 					throw new RuntimeException("Invalid input. Please try again!");
 				}
 				break;
@@ -531,10 +1737,9 @@ public class MechanicShop{
 			} 
 		}while (true);
 
-		String res = "INSERT INTO Car (vin, make, model, year) VALUES ('" + VIN + "', '" + Make + "', '" + Model + "', '" + Year + "');";
-		try{ esql.executeUpdate(res); 
+		try{ esql.addCar(VIN, Make, Model, Year); 
 		System.out.println("--------- Here are the new car's information: ----------");
-		int output = esql.executeQueryAndPrintResult("SELECT * FROM Car WHERE vin = '" + VIN +"';");
+		int output = esql.executeQueryAndPrintResult(CAR_BY_VIN, VIN);
 		System.out.println("--------------------------------------------------------");
 
 
@@ -550,33 +1755,32 @@ public class MechanicShop{
 		String date;
 		int odometer;
 		String complain;
-		String CURRENT_DATE;
-		DateTimeFormatter dtf = DateTimeFormatter.ofPattern("uuuu/MM/dd HH:mm:ss");
-        LocalDateTime now = LocalDateTime.now();
-        CURRENT_DATE = dtf.format(now);
 		String lName;
 		int input;
-		String carRecord;
+		List<Owns> cars;
 		int temp;
-		do { System.out.print("-------- Please insert customer's last name: --------");
-			try { lName = in.readLine();
+		//what the desk typed, null to ask again
+		CustomerSearch search = null;
+		do{
+			try{
+			if (search == null){
+				System.out.print("-------- Please insert customer's last name or phone number: --------");
+				lName = in.readLine();
 				if( lName.length() <= 0 || lName.length() > 32){
 				  	throw new RuntimeException("Invalid input. Please try again!");
 				}
-				break;
-			} catch (Exception e) {
-				System.out.println(e);
-				continue;
-			} 
-		}while (true);
-
-		do{
-			try{if (esql.executeQuery("SELECT * FROM Customer WHERE lname = '" + lName + "';")!= 0){
+				search = new CustomerSearch(lName);
+			}
+			int shown = esql.printCustomerSearch(search, BROWSE_LIMIT);
+			System.out.println("customer(s) shown: " + shown + ", best match first");
 			System.out.println("-------- Please Choose your id if there exists ---------");
-			System.out.println("------------------ Otherwise, type 0 -------------------");
-			temp = esql.executeQueryAndPrintResult("SELECT * FROM Customer WHERE lname = '" + lName + "';");
-			input = java.lang.Integer.parseInt(in.readLine());
-							
+			System.out.println("------ Otherwise, type 0, or s to search again -------");
+			String line = in.readLine().trim();
+			if (line.equalsIgnoreCase("s")){
+				search = null;
+				continue;
+			}
+			input = java.lang.Integer.parseInt(line);
 			
 			if(input == 0){
 				System.out.println("-------- No existing record. Creating now... ---------");
@@ -585,11 +1789,16 @@ public class MechanicShop{
 				input = java.lang.Integer.parseInt(in.readLine());
 
 			} 
+				if (esql.getCustomer(input) == null){
+					throw new RuntimeException("No customer with id " + input + ". Please try again!");
+				}
 
-				carRecord = "SELECT car_vin FROM Owns WHERE customer_id = '" + input + "';";
-				if (esql.executeQuery(carRecord)!=0){
-					System.out.println("--------------------------------------------------------");
-					temp = esql.executeQueryAndPrintResult(carRecord);
+				cars = esql.getOwnership(input);
+				System.out.println("--------------------------------------------------------");
+				if (!cars.isEmpty()){
+					for (Owns car : cars){
+						System.out.println(car.getCarVin());
+					}
 					System.out.println("------------- Please choose your car VIN ---------------");
 					VIN = in.readLine();
 				} else {
@@ -602,29 +1811,18 @@ public class MechanicShop{
 		
 		System.out.println("--------------------------------------------------------");
 		break;
-	}}
+	}
 	catch (Exception e) {
 				System.out.println(e);
+				//the search itself failed, so ask for another one
+				if (e instanceof SQLException){
+					search = null;
+				}
 				continue;}
 }while(true);
 
 
 		
-		do { System.out.print("------ Creating the service record now ... -------");
-			try {
-				if(Integer.parseInt(esql.executeQueryAndReturnResult("SELECT MAX(rid) FROM Service_Request;").get(0).get(0)) != 0){
-					rid = Integer.parseInt(esql.executeQueryAndReturnResult("SELECT MAX(rid) FROM Service_Request;").get(0).get(0)) + 1;
-				} else {
-					rid = 1;
-				}
-				break;
-			} catch (Exception e) {
-				System.out.println(e);
-				continue;
-			} 
-		}while (true);
-		System.out.println("--------------------------------------------------------");
-	
 		do { System.out.print("---------- Please insert odometer: ----------");
 			try { odometer = java.lang.Integer.parseInt(in.readLine());
 				if( odometer < 0 || odometer > 9999999){
@@ -648,59 +1846,79 @@ public class MechanicShop{
 		
 		
 
-		String res = "INSERT INTO Service_Request (rid, customer_id, car_vin, date, odometer, complain) VALUES ('" + rid + "', '" + input + "', '" + VIN + "', '" + CURRENT_DATE + "', '" + odometer + "', '" + complain + "');";
-		try{ esql.executeUpdate(res); 
-			 temp = esql.executeQueryAndPrintResult("SELECT * FROM Service_Request WHERE rid = '" + rid + "';");}
+		System.out.println("------ Creating the service record now ... -------");
+		try{ rid = esql.insertServiceRequest(input, VIN, odometer, complain); 
+			 if (esql.getRequestQueue() != null){
+				System.out.println("Service request " + rid + " is queued and will be saved shortly.");
+			 } else {
+				temp = esql.executeQueryAndPrintResult(REQUEST_BY_RID, rid);
+			 }}
 		catch (Exception e) { System.err.println(e.getMessage()); }
 		
 	}
 	
 	public static void CloseServiceRequest(MechanicShop esql) throws Exception{//5
-		String serviceNum;
-		String temp;
-		String eid;
-		String CURRENT_DATE;
-		DateTimeFormatter dtf = DateTimeFormatter.ofPattern("uuuu/MM/dd HH:mm:ss");
-        LocalDateTime now = LocalDateTime.now();
-        CURRENT_DATE = dtf.format(now);
-		int run;
-		do{try {
-			System.out.println("------ Please enter the service request number you want to close: -----");
-			temp = "SELECT * FROM Service_Request";
-			run = esql.executeQueryAndPrintResult(temp);
-
-			serviceNum = in.readLine();
-			temp = "SELECT * FROM Service_Request WHERE rid = '" + serviceNum + "';";
-			run = esql.executeQuery(temp);
-			while(run == 0){
-			    System.out.println("--- Not a valid number. Please type again... ---");
-			    serviceNum = in.readLine();
-			    temp = "SELECT * FROM Service_Request WHERE rid = '" + serviceNum + "';";
-			    run = esql.executeQuery(temp);
-			}
-
-			System.out.println("--- Choose an employee that you wish to work on your service ---");
-			System.out.println("---------- Enter the id here --------");
-			temp = "SELECT * FROM Mechanic;";
-			run = esql.executeQueryAndPrintResult(temp);
-
-			eid = in.readLine();
-			temp = "SELECT * FROM Mechanic WHERE id = '" + eid + "';";
-			run = esql.executeQuery(temp);
-			while (run == 0){
-			    System.out.println("--- Not a valid number. Please type again... ---");
-			    eid = in.readLine();
-			    temp = "SELECT * FROM Mechanic WHERE id = '" + eid + "';";
-			    run = esql.executeQuery(temp);
-			}
-			break;
-	    }
-	    catch(Exception e){
-		System.out.println(e);
-				continue;
-	    }
+		int rid;
+		int mid;
+		//the line typed after a listing, answered without prompting again
+		String input = null;
+		do { if (input == null){
+				System.out.println("------ Please enter the service request number you want to close, ------");
+				System.out.println("------ or a customer's last name or a car VIN to list its open requests, ------");
+				System.out.println("------ or * to list all open requests, or ? and some words to search their complaints: ------");
+			}
+			try { if (input == null){
+					input = in.readLine().trim();
+				}
+				if( input.length() <= 0){
+				  	throw new RuntimeException("Invalid input. Please try again!");
+				}
+				if (input.chars().allMatch(Character::isDigit)){
+					rid = Integer.parseInt(input);
+					if (esql.getServiceRequest(rid) == null){
+						throw new RuntimeException("No service request " + rid + ". Please try again!");
+					}
+					break;
+				}
+				if (input.startsWith("?")){
+					final RequestSearch search = new RequestSearch(input.substring(1)).openOnly();
+					input = browse(esql, after -> esql.pageRequestSearch(search, after, BROWSE_LIMIT), "open request(s)");
+					continue;
+				}
+				final RequestFilter filter = input.equals("*") ? new RequestFilter().openOnly()
+					: new RequestFilter().openOnly().matching(input);
+				input = browse(esql, after -> esql.pageServiceRequests(filter, after, BROWSE_LIMIT), "open request(s)");
+			} catch (Exception e) {
+				System.out.println(e);
+				input = null;
+			}
+		}while (true);
 
-	    }while(true);
+		input = null;
+		do { if (input == null){
+				System.out.println("--- Choose an employee that you wish to work on your service ---");
+				System.out.println("------ Enter the id here, or a last name to search mechanics, or * to list all ------");
+			}
+			try { if (input == null){
+					input = in.readLine().trim();
+				}
+				if( input.length() <= 0){
+				  	throw new RuntimeException("Invalid input. Please try again!");
+				}
+				if (input.chars().allMatch(Character::isDigit)){
+					mid = Integer.parseInt(input);
+					if (esql.getMechanic(mid) == null){
+						throw new RuntimeException("No mechanic with id " + mid + ". Please try again!");
+					}
+					break;
+				}
+				final String lname = input.equals("*") ? null : input;
+				input = browse(esql, after -> esql.pageMechanics(lname, after, BROWSE_LIMIT), "mechanic(s)");
+			} catch (Exception e) {
+				System.out.println(e);
+				input = null;
+			}
+		}while (true);
 	    
 	    String comment;
 	    int bill;
@@ -718,7 +1936,7 @@ public class MechanicShop{
 
 		do { System.out.print("---------- Please insert bill number: ----------");
 			try { bill = java.lang.Integer.parseInt(in.readLine());
-				if( bill < 0){
+				if( bill <= 0){
 				  	throw new RuntimeException("Invalid input. Please try again!");
 				}
 				break;
@@ -728,14 +1946,17 @@ public class MechanicShop{
 			} 
 		}while (true);
 
-
-
-    	try{System.out.println("---- Deleting the service request... ----");
-		String res = "INSERT INTO Closed_Request (wid, rid, mid, date, comment, bill) VALUES ('" + serviceNum + "', '" + serviceNum + "', '" + eid + "', '" + CURRENT_DATE + "', '" + comment + "', '" + bill + "');";
-		temp = "DELETE FROM Service_Request WHERE rid = '" + serviceNum+"';";
-		esql.executeQuery(temp);}
+    	try{System.out.println("---- Closing the service request... ----");
+			int wid = esql.closeServiceRequest(rid, mid, comment, bill);
+			ClosedRequest closed = esql.getClosedRequest(wid);
+			System.out.println("------- Here is the closed request: -------");
+			System.out.println("wid: " + closed.getWid() + ", rid: " + closed.getRid() + ", mechanic: " + closed.getMid());
+			System.out.println("closed on " + closed.getDate() + " (requested on " + closed.getRequestDate() + "), bill: " + closed.getBill());
+			System.out.println("comment: " + closed.getComment());
+			System.out.println("--------------------------------------------------------");
+		}
 		catch(Exception e) {
-				System.out.println(e);
+				System.out.println(e.getMessage());
 				}
 		
 	}
@@ -743,7 +1964,7 @@ public class MechanicShop{
 	public static void ListCustomersWithBillLessThan100(MechanicShop esql){//6
 		
 		try{
-			String query = "SELECT date,comment,bill FROM Closed_Request WHERE bill < 100;";
+			String query = REPORT_BILL_LESS_THAN_100;
 			int run = esql.executeQueryAndPrintResult(query);
 			System.out.println("total row(s): " + run);
 		}
@@ -755,7 +1976,7 @@ public class MechanicShop{
 	public static void ListCustomersWithMoreThan20Cars(MechanicShop esql){//7
 		
 		try{
-			String query = "SELECT fname,lname FROM Customer, (SELECT customer_id, COUNT(customer_id) FROM Owns GROUP BY customer_id HAVING COUNT(customer_id) > 20) AS NUM WHERE NUM.customer_id=Customer.id;";
+			String query = REPORT_MORE_THAN_20_CARS;
 			
 			int run = esql.executeQueryAndPrintResult(query);
 			System.out.println("total row(s): " + run);
@@ -768,7 +1989,7 @@ public class MechanicShop{
 	public static void ListCarsBefore1995With50000Milles(MechanicShop esql){//8
 		
 		try{
-			String query = "SELECT DISTINCT make, model, year FROM Car AS C, Service_Request AS S WHERE year < 1995 and S.car_vin = C.vin and S.odometer < 50000;";
+			String query = REPORT_CARS_BEFORE_1995;
 			int run = esql.executeQueryAndPrintResult(query);
 			System.out.println("total row(s): " + run);
 		}
@@ -790,11 +2011,28 @@ public class MechanicShop{
 				continue;
 			} 
 		}while (true);
+
+		//a blank answer leaves that filter unset
+		TopCarsFilter filter;
+		do { try { System.out.print("-------- Please insert the make, or leave it blank for all: --------");
+				String make = in.readLine().trim();
+				System.out.print("-------- Please insert the model, or leave it blank for all: --------");
+				String model = in.readLine().trim();
+				System.out.print("-------- Count requests from (yyyy-mm-dd), or leave it blank: --------");
+				String from = in.readLine().trim();
+				System.out.print("-------- Count requests to (yyyy-mm-dd), or leave it blank: --------");
+				String to = in.readLine().trim();
+				filter = new TopCarsFilter().make(make.isEmpty() ? null : make).model(model.isEmpty() ? null : model)
+					.between(from.isEmpty() ? null : java.sql.Date.valueOf(from), to.isEmpty() ? null : java.sql.Date.valueOf(to));
+				break;
+			} catch (Exception e) {
+				System.out.println(e);
+				continue;
+			} 
+		}while (true);
 		
 		try{
-			String query = "SELECT make, model, NOC.num FROM Car C, (SELECT car_vin, COUNT(rid) AS num FROM Service_Request GROUP BY car_vin) NOC WHERE NOC.car_vin = C.vin ORDER BY NOC.num DESC LIMIT ";
-			query += k + ";";
-			int run = esql.executeQueryAndPrintResult(query);
+			int run = esql.printTopServicedCars(filter, k);
 			System.out.println("total row(s): " + run);
 		}
 	 	catch(Exception e){
@@ -806,7 +2044,7 @@ public class MechanicShop{
 		//
 		
 		try{
-			String query = "SELECT Customer.fname, Customer.lname, total FROM Customer,(SELECT S.customer_id, SUM(C.bill) AS total FROM Closed_Request AS C, Service_Request AS S WHERE C.rid = S.rid GROUP BY S.customer_id) AS TEMP WHERE Customer.id=TEMP.customer_id ORDER BY TEMP.total DESC;";
+			String query = REPORT_TOTAL_BILL;
 			int run = esql.executeQueryAndPrintResult(query);
 			System.out.println("total row(s): " + run);
 		}
@@ -816,4 +2054,4 @@ public class MechanicShop{
 		
 	}
 	
-}
\ No newline at end of file
+}
\ No newline at end of file
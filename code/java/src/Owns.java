@@ -0,0 +1,31 @@
+/**
+ * A row of Owns: a customer owning a car.
+ *
+ */
+
+public final class Owns{
+	public static final RowMapper<Owns> MAPPER = rs -> new Owns(rs.getInt("ownership_id"), rs.getInt("customer_id"),
+		rs.getString("car_vin"));
+
+	private final int _ownershipId;
+	private final int _customerId;
+	private final String _carVin;
+
+	public Owns(int ownershipId, int customerId, String carVin){
+		this._ownershipId = ownershipId;
+		this._customerId = customerId;
+		this._carVin = carVin;
+	}
+
+	public int getOwnershipId(){
+		return this._ownershipId;
+	}
+
+	public int getCustomerId(){
+		return this._customerId;
+	}
+
+	public String getCarVin(){
+		return this._carVin;
+	}
+}//end Owns
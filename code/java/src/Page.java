@@ -0,0 +1,78 @@
+import java.io.IOException;
+import java.sql.SQLException;
+
+/**
+ * This class is one page of a keyset paginated listing.  The first column
+ * of every row is the key the listing is ordered by, and the next page is
+ * read with "key after the last key shown" instead of OFFSET, so page 100
+ * costs the same index probe as page 1.  The query reads one row more
+ * than the page holds to learn whether there is a next page.
+ *
+ */
+
+public class Page{
+
+	/**
+	 * Reads the page of a listing that starts after a key.
+	 */
+	public interface Source{
+		/**
+		 * @param after the key of the last row of the previous page, null
+		 * for the first page
+		 */
+		Page read(Integer after) throws SQLException;
+	}
+
+	private final LookupCache.Result _rows;
+	private final int _limit;
+
+	/**
+	 * @param rows up to limit + 1 rows, the key in the first column
+	 * @param limit the number of rows shown
+	 */
+	Page(LookupCache.Result rows, int limit){
+		this._rows = rows;
+		this._limit = limit;
+	}
+
+	public int size(){
+		return Math.min(this._rows.size(), this._limit);
+	}
+
+	public boolean hasNext(){
+		return this._rows.size() > this._limit;
+	}
+
+	/**
+	 * @return the key to pass to read the next page, or null on the last page
+	 */
+	public Integer getNextKey(){
+		if (!hasNext()){
+			return null;
+		}
+		return Integer.valueOf(this._rows.getRow(this._limit - 1)[0].trim());
+	}
+
+	/**
+	 * @return the values of row i of the page
+	 */
+	public String[] getRow(int i){
+		if (i >= size()){
+			throw new IndexOutOfBoundsException("row " + i + " of " + size());
+		}
+		return this._rows.getRow(i);
+	}
+
+	/**
+	 * Renders the rows of the page into a sink and ends it.
+	 */
+	public void writeTo(ResultSink sink) throws IOException {
+		if (this._rows.getColumns() != null){
+			sink.begin(this._rows.getColumns());
+			for (int i = 0; i < size(); ++i){
+				sink.row(this._rows.getRow(i));
+			}
+		}
+		sink.end();
+	}
+}//end Page
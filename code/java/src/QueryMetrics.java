@@ -0,0 +1,338 @@
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * This class collects the timings of one MechanicShop: a latency histogram,
+ * row count and error count per SQL statement and per shop operation, the
+ * connection pool's wait times, and the hit ratios of the statement and
+ * lookup caches.  Statements slower than a threshold are logged with the
+ * number of their parameters; the values hold customer data, so they are
+ * only logged with -Dmechanicshop.slowQueryLog.params=true, for debugging.
+ * Everything can be read over JMX or dumped as text or in the
+ * Prometheus text format (see the metrics command).
+ *
+ * Statements are named after the MechanicShop constant holding their SQL,
+ * e.g. REPORT_TOTAL_BILL; other statements by the start of their text.
+ */
+
+public class QueryMetrics implements QueryMetricsMBean{
+
+	/**
+	 * The timings of one statement or operation.
+	 */
+	public static class Timer{
+		private final LatencyHistogram _latency = new LatencyHistogram();
+		private final AtomicLong _rows = new AtomicLong();
+		private final AtomicLong _errors = new AtomicLong();
+		private volatile String _lastError = null;
+
+		public LatencyHistogram getLatency(){ return this._latency; }
+		public long getRows(){ return this._rows.get(); }
+		public long getErrors(){ return this._errors.get(); }
+		public String getLastError(){ return this._lastError; }
+	}//end Timer
+
+	private static final String JMX_DOMAIN = "edu.ucr.cs166.mechanicshop";
+	private static final AtomicInteger INSTANCES = new AtomicInteger();
+	//SQL text -> name of the MechanicShop constant holding it
+	private static final Map<String, String> STATEMENT_NAMES = statementNames();
+
+	private final ConnectionPool _pool;
+	private final LookupCache.Stats _lookupStats;
+	private volatile ConcurrentHashMap<String, Timer> _statements = new ConcurrentHashMap<String, Timer>();
+	private volatile ConcurrentHashMap<String, Timer> _operations = new ConcurrentHashMap<String, Timer>();
+	private volatile LatencyHistogram _allStatements = new LatencyHistogram();
+	private final AtomicLong _slowQueries = new AtomicLong();
+	private volatile long _slowQueryNanos;
+	private volatile PrintStream _slowQueryLog = System.err;
+	private final boolean _logParams = Boolean.getBoolean("mechanicshop.slowQueryLog.params");
+	private ObjectName _name = null;
+
+	/**
+	 * @param pool the pool whose wait times and statement cache are reported
+	 * @param lookupStats counters of the lookup cache
+	 * @param slowQueryMillis statements taking longer are logged, 0 to log none
+	 */
+	public QueryMetrics(ConnectionPool pool, LookupCache.Stats lookupStats, long slowQueryMillis){
+		this._pool = pool;
+		this._lookupStats = lookupStats;
+		setSlowQueryThresholdMillis(slowQueryMillis);
+	}
+
+	/**
+	 * Records one execution of a statement, from execute until its last row
+	 * was handled.
+	 *
+	 * @param sql the statement text
+	 * @param nanos how long it took
+	 * @param rows rows returned or written
+	 * @param error the failure, or null
+	 * @param params the bound parameters, counted in the slow query log
+	 */
+	public void recordStatement(String sql, long nanos, long rows, SQLException error, Object[] params){
+		Timer t = timer(this._statements, sql);
+		t._latency.record(nanos);
+		this._allStatements.record(nanos);
+		t._rows.addAndGet(rows);
+		if (error != null){
+			t._errors.incrementAndGet();
+			t._lastError = error.getMessage();
+		}
+		long threshold = this._slowQueryNanos;
+		if (threshold > 0 && nanos >= threshold){
+			this._slowQueries.incrementAndGet();
+			this._slowQueryLog.println(String.format("slow query: %.1f ms, %d row(s)%s: %s %s",
+				nanos / 1e6, rows, error != null ? ", failed" : "", name(sql),
+				this._logParams ? Arrays.toString(params) : "(" + params.length + " parameter(s))"));
+		}
+	}
+
+	/**
+	 * Records one call of a shop operation, e.g. addCustomer.
+	 */
+	public void recordOperation(String name, long nanos, boolean failed){
+		Timer t = timer(this._operations, name);
+		t._latency.record(nanos);
+		if (failed){
+			t._errors.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Sends the slow query log somewhere other than standard error.
+	 */
+	public void setSlowQueryLog(PrintStream log){
+		this._slowQueryLog = log;
+	}
+
+	public Map<String, Timer> getStatements(){ return this._statements; }
+	public Map<String, Timer> getOperations(){ return this._operations; }
+
+	/**
+	 * Makes the metrics visible to JMX clients such as jconsole.
+	 *
+	 * @param label distinguishes several shops in one JVM, e.g. the database name
+	 */
+	public void register(String label){
+		try{
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(JMX_DOMAIN + ":type=QueryMetrics,name="
+				+ ObjectName.quote(label + "-" + INSTANCES.incrementAndGet()));
+			server.registerMBean(this, name);
+			this._name = name;
+		}catch (JMException e){
+			System.err.println("Unable to register the metrics with JMX: " + e.getMessage());
+		}
+	}
+
+	public void unregister(){
+		if (this._name == null){
+			return;
+		}
+		try{
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(this._name);
+		}catch (JMException e){
+			// ignored.
+		}
+		this._name = null;
+	}
+
+	public long getStatementCount(){ return this._allStatements.getCount(); }
+	public long getSlowQueryCount(){ return this._slowQueries.get(); }
+	public double getStatementP50Millis(){ return this._allStatements.getPercentileMillis(0.5); }
+	public double getStatementP99Millis(){ return this._allStatements.getPercentileMillis(0.99); }
+	public double getConnectionWaitP99Millis(){ return this._pool.getWaitHistogram().getPercentileMillis(0.99); }
+	public int getActiveConnections(){ return this._pool.getActiveCount(); }
+	public int getIdleConnections(){ return this._pool.getIdleCount(); }
+	public double getStatementCacheHitRatio(){ return this._pool.getStatementStats().getHitRatio(); }
+	public double getLookupCacheHitRatio(){ return this._lookupStats.getHitRatio(); }
+
+	public long getStatementErrorCount(){
+		long errors = 0;
+		for (Timer t : this._statements.values()){
+			errors += t.getErrors();
+		}
+		return errors;
+	}
+
+	public long getRowCount(){
+		long rows = 0;
+		for (Timer t : this._statements.values()){
+			rows += t.getRows();
+		}
+		return rows;
+	}
+
+	public long getSlowQueryThresholdMillis(){
+		return this._slowQueryNanos / 1000000L;
+	}
+
+	public void setSlowQueryThresholdMillis(long millis){
+		this._slowQueryNanos = Math.max(0, millis) * 1000000L;
+	}
+
+	public void reset(){
+		this._statements = new ConcurrentHashMap<String, Timer>();
+		this._operations = new ConcurrentHashMap<String, Timer>();
+		this._allStatements = new LatencyHistogram();
+		this._slowQueries.set(0);
+	}
+
+	public String dumpText(){
+		StringBuilder sb = new StringBuilder();
+		sb.append(this._pool).append('\n');
+		sb.append("connection wait: ").append(this._pool.getWaitHistogram()).append('\n');
+		sb.append(this._pool.getStatementStats()).append('\n');
+		sb.append(this._lookupStats).append('\n');
+		sb.append(String.format("slow queries: %d (threshold %d ms)%n", getSlowQueryCount(), getSlowQueryThresholdMillis()));
+		sb.append("statements: ").append(this._allStatements).append('\n');
+		appendTimers(sb, "operation", byName(this._operations, false));
+		appendTimers(sb, "statement", byName(this._statements, true));
+		return sb.toString();
+	}
+
+	public String dumpPrometheus(){
+		StringBuilder sb = new StringBuilder();
+		Map<String, Timer> statements = byName(this._statements, true);
+		Map<String, Timer> operations = byName(this._operations, false);
+
+		summaryHeader(sb, "mechanicshop_statement_seconds", "Statement latency from execute to the last row.");
+		for (Map.Entry<String, Timer> e : statements.entrySet()){
+			summary(sb, "mechanicshop_statement_seconds", "statement", e.getKey(), e.getValue().getLatency());
+		}
+		header(sb, "mechanicshop_statement_rows_total", "counter", "Rows returned or written by a statement.");
+		for (Map.Entry<String, Timer> e : statements.entrySet()){
+			sample(sb, "mechanicshop_statement_rows_total", "statement", e.getKey(), e.getValue().getRows());
+		}
+		header(sb, "mechanicshop_statement_errors_total", "counter", "Failed executions of a statement.");
+		for (Map.Entry<String, Timer> e : statements.entrySet()){
+			sample(sb, "mechanicshop_statement_errors_total", "statement", e.getKey(), e.getValue().getErrors());
+		}
+		summaryHeader(sb, "mechanicshop_operation_seconds", "Latency of a shop operation.");
+		for (Map.Entry<String, Timer> e : operations.entrySet()){
+			summary(sb, "mechanicshop_operation_seconds", "operation", e.getKey(), e.getValue().getLatency());
+		}
+		header(sb, "mechanicshop_operation_errors_total", "counter", "Failed calls of a shop operation.");
+		for (Map.Entry<String, Timer> e : operations.entrySet()){
+			sample(sb, "mechanicshop_operation_errors_total", "operation", e.getKey(), e.getValue().getErrors());
+		}
+		header(sb, "mechanicshop_slow_queries_total", "counter", "Statements slower than the slow query threshold.");
+		sample(sb, "mechanicshop_slow_queries_total", null, null, getSlowQueryCount());
+
+		summaryHeader(sb, "mechanicshop_connection_wait_seconds", "Time spent waiting for a pooled connection.");
+		summary(sb, "mechanicshop_connection_wait_seconds", null, null, this._pool.getWaitHistogram());
+		header(sb, "mechanicshop_connections", "gauge", "Pooled connections by state.");
+		sample(sb, "mechanicshop_connections", "state", "active", getActiveConnections());
+		sample(sb, "mechanicshop_connections", "state", "idle", getIdleConnections());
+		header(sb, "mechanicshop_connection_timeouts_total", "counter", "Borrows that timed out.");
+		sample(sb, "mechanicshop_connection_timeouts_total", null, null, this._pool.getTimeoutCount());
+
+		StatementCache.Stats statementStats = this._pool.getStatementStats();
+		header(sb, "mechanicshop_cache_requests_total", "counter", "Cache lookups by cache and result.");
+		sb.append("mechanicshop_cache_requests_total{cache=\"statement\",result=\"hit\"} ").append(statementStats.getHits()).append('\n');
+		sb.append("mechanicshop_cache_requests_total{cache=\"statement\",result=\"miss\"} ").append(statementStats.getMisses()).append('\n');
+		sb.append("mechanicshop_cache_requests_total{cache=\"lookup\",result=\"hit\"} ").append(this._lookupStats.getHits()).append('\n');
+		sb.append("mechanicshop_cache_requests_total{cache=\"lookup\",result=\"miss\"} ").append(this._lookupStats.getMisses()).append('\n');
+		return sb.toString();
+	}
+
+	private static void appendTimers(StringBuilder sb, String kind, Map<String, Timer> timers){
+		for (Map.Entry<String, Timer> e : timers.entrySet()){
+			Timer t = e.getValue();
+			sb.append(String.format("%s %s: %s rows=%d errors=%d%n", kind, e.getKey(), t.getLatency(), t.getRows(), t.getErrors()));
+			if (t.getLastError() != null){
+				sb.append("    last error: ").append(t.getLastError()).append('\n');
+			}
+		}
+	}
+
+	private static void header(StringBuilder sb, String metric, String type, String help){
+		sb.append("# HELP ").append(metric).append(' ').append(help).append('\n');
+		sb.append("# TYPE ").append(metric).append(' ').append(type).append('\n');
+	}
+
+	private static void summaryHeader(StringBuilder sb, String metric, String help){
+		header(sb, metric, "summary", help);
+	}
+
+	private static void summary(StringBuilder sb, String metric, String label, String value, LatencyHistogram h){
+		String labels = label == null ? "" : label + "=\"" + escape(value) + "\",";
+		for (double q : new double[]{ 0.5, 0.9, 0.99 }){
+			sb.append(metric).append('{').append(labels).append("quantile=\"").append(q).append("\"} ")
+				.append(h.getPercentileMillis(q) / 1e3).append('\n');
+		}
+		String plain = label == null ? "" : "{" + label + "=\"" + escape(value) + "\"}";
+		sb.append(metric).append("_sum").append(plain).append(' ').append(h.getSumNanos() / 1e9).append('\n');
+		sb.append(metric).append("_count").append(plain).append(' ').append(h.getCount()).append('\n');
+	}
+
+	private static void sample(StringBuilder sb, String metric, String label, String value, long n){
+		sb.append(metric);
+		if (label != null){
+			sb.append('{').append(label).append("=\"").append(escape(value)).append("\"}");
+		}
+		sb.append(' ').append(n).append('\n');
+	}
+
+	private static String escape(String s){
+		return s.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	//sorted by display name; statements keyed by SQL are renamed
+	private static Map<String, Timer> byName(Map<String, Timer> timers, boolean statements){
+		Map<String, Timer> sorted = new TreeMap<String, Timer>();
+		for (Map.Entry<String, Timer> e : timers.entrySet()){
+			sorted.put(statements ? name(e.getKey()) : e.getKey(), e.getValue());
+		}
+		return sorted;
+	}
+
+	private static Timer timer(ConcurrentHashMap<String, Timer> timers, String key){
+		Timer t = timers.get(key);
+		if (t == null){
+			Timer created = new Timer();
+			t = timers.putIfAbsent(key, created);
+			if (t == null){
+				t = created;
+			}
+		}
+		return t;
+	}
+
+	private static String name(String sql){
+		String name = STATEMENT_NAMES.get(sql);
+		if (name != null){
+			return name;
+		}
+		String text = sql.replaceAll("\\s+", " ").trim();
+		return text.length() <= 60 ? text : text.substring(0, 57) + "...";
+	}
+
+	private static Map<String, String> statementNames(){
+		Map<String, String> names = new HashMap<String, String>();
+		for (Field f : MechanicShop.class.getDeclaredFields()){
+			int m = f.getModifiers();
+			if (Modifier.isStatic(m) && Modifier.isFinal(m) && f.getType() == String.class){
+				try{
+					names.put((String) f.get(null), f.getName());
+				}catch (IllegalAccessException e){
+					// not a query constant.
+				}
+			}
+		}
+		return names;
+	}
+}//end QueryMetrics
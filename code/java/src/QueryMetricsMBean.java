@@ -0,0 +1,38 @@
+/**
+ * The JMX view of QueryMetrics, registered as
+ * edu.ucr.cs166.mechanicshop:type=QueryMetrics for every MechanicShop.
+ * Times are in milliseconds.
+ *
+ */
+
+public interface QueryMetricsMBean{
+	long getStatementCount();
+	long getStatementErrorCount();
+	long getRowCount();
+	long getSlowQueryCount();
+	double getStatementP50Millis();
+	double getStatementP99Millis();
+	double getConnectionWaitP99Millis();
+	int getActiveConnections();
+	int getIdleConnections();
+	double getStatementCacheHitRatio();
+	double getLookupCacheHitRatio();
+
+	long getSlowQueryThresholdMillis();
+	void setSlowQueryThresholdMillis(long millis);
+
+	/**
+	 * @return every metric as readable text
+	 */
+	String dumpText();
+
+	/**
+	 * @return every metric in the Prometheus text exposition format
+	 */
+	String dumpPrometheus();
+
+	/**
+	 * Forgets the statement and operation timings.
+	 */
+	void reset();
+}//end QueryMetricsMBean
@@ -0,0 +1,202 @@
+import java.io.PrintStream;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class checks that the queries of the ten menu operations can be
+ * answered from the indexes of sql/migrations.  Every query is EXPLAINed
+ * with sequential scans disabled, so the check also passes on the small
+ * sample data set where the planner would rightly prefer a scan; at full
+ * scale the cost model picks the same indexes on its own.  On the
+ * partitioned request tables a plan names the index of each partition,
+ * which counts as using the index it was created from.
+ *
+ */
+
+public class QueryPlanCheck{
+
+	private static class Check{
+		final String operation;
+		final String sql;
+		final String[] samples;
+		final String[] indexes;
+
+		//samples are SQL literals substituted for the ? placeholders in order;
+		//the check passes when the plan uses any of the indexes
+		Check(String operation, String sql, String[] samples, String... indexes){
+			this.operation = operation;
+			this.sql = sql;
+			this.samples = samples;
+			this.indexes = indexes;
+		}
+	}
+
+	private static final String[] NONE = new String[0];
+
+	private static final Check[] CHECKS = {
+		new Check("1. AddCustomer", MechanicShop.CUSTOMER_BY_ID, new String[]{ "0" }, "customer_pkey"),
+		new Check("2. AddMechanic", MechanicShop.MECHANIC_BY_ID, new String[]{ "0" }, "mechanic_pkey"),
+		new Check("3. AddCar", MechanicShop.CAR_BY_VIN, new String[]{ "'XEGUBS7780168971'" }, "car_pkey"),
+		new Check("4. InsertServiceRequest (customer)", MechanicShop.CUSTOMERS_BY_LNAME_AFTER, new String[]{ "'Scarlett'", "-1", "21" }, "customer_lname_id_idx"),
+		searchCheck("4. InsertServiceRequest (customer search)", new CustomerSearch("Scarl"), "customer_lname_prefix_idx"),
+		searchCheck("4. InsertServiceRequest (similar names)", new CustomerSearch("Scarlet"), "customer_lname_trgm_idx"),
+		searchCheck("4. InsertServiceRequest (phone)", new CustomerSearch("1234"), "customer_phone_trgm_idx"),
+		new Check("4. InsertServiceRequest (cars)", MechanicShop.OWNS_OF_CUSTOMER, new String[]{ "1" }, "owns_customer_car_idx"),
+		requestCheck("5. CloseServiceRequest (open requests)", new RequestFilter().openOnly().matching("Scarlett"),
+			"service_request_pkey", "service_request_car_odometer_idx", "service_request_customer_rid_idx"),
+		textCheck("5. CloseServiceRequest (complaint search)", new RequestSearch("brakes").openOnly(), "service_request_complain_tsv_idx"),
+		textCheck("search-requests (closing comments)", new RequestSearch("brakes"), "closed_request_comment_tsv_idx"),
+		new Check("5. CloseServiceRequest (mechanic)", MechanicShop.MECHANICS_BY_LNAME_AFTER, new String[]{ "'Smith'", "-1", "21" }, "mechanic_lname_id_idx"),
+		new Check("6. ListCustomersWithBillLessThan100", MechanicShop.REPORT_BILL_LESS_THAN_100, NONE, "closed_request_bill_lt100_idx"),
+		new Check("7. ListCustomersWithMoreThan20Cars", MechanicShop.REPORT_MORE_THAN_20_CARS, NONE, "owns_customer_car_idx"),
+		new Check("8. ListCarsBefore1995With50000Milles", MechanicShop.REPORT_CARS_BEFORE_1995, NONE, "car_before_1995_idx", "service_request_car_odometer_idx"),
+		new Check("9. ListKCarsWithTheMostServices", MechanicShop.REPORT_K_MOST_SERVICED_CARS, new String[]{ "10" }, "car_service_count_top_idx"),
+		topCarsCheck("9. ListKCarsWithTheMostServices (dates)", new TopCarsFilter().between(Date.valueOf("2015-01-01"), Date.valueOf("2015-12-31")),
+			"service_request_date_car_idx"),
+		topCarsCheck("9. ListKCarsWithTheMostServices (make)", new TopCarsFilter().make("Toyota"), "car_make_model_idx"),
+		new Check("10. ListCustomersInDescendingOrderOfTheirTotalBill", MechanicShop.REPORT_TOTAL_BILL, NONE, "customer_total_bill_total_idx"),
+	};
+
+	//the first page of a request listing, with its parameters as samples
+	private static Check requestCheck(String operation, RequestFilter filter, String... indexes){
+		List<Object> params = new ArrayList<Object>();
+		String sql = filter.toQuery(null, MechanicShop.BROWSE_LIMIT, params);
+		return new Check(operation, sql, samples(params), indexes);
+	}
+
+	//the customer search of intake, with its parameters as samples; the
+	//check names the index the kind of match under test reads
+	private static Check searchCheck(String operation, CustomerSearch search, String... indexes){
+		List<Object> params = new ArrayList<Object>();
+		String sql = search.toQuery(MechanicShop.BROWSE_LIMIT, params);
+		return new Check(operation, sql, samples(params), indexes);
+	}
+
+	//the first page of a full-text search of the requests, with its
+	//parameters as samples
+	private static Check textCheck(String operation, RequestSearch search, String... indexes){
+		List<Object> params = new ArrayList<Object>();
+		String sql = search.toQuery(null, MechanicShop.BROWSE_LIMIT, params);
+		return new Check(operation, sql, samples(params), indexes);
+	}
+
+	//report 9 narrowed by a filter, with its parameters as samples
+	private static Check topCarsCheck(String operation, TopCarsFilter filter, String... indexes){
+		List<Object> params = new ArrayList<Object>();
+		String sql = filter.toQuery(10, params);
+		return new Check(operation, sql, samples(params), indexes);
+	}
+
+	//query parameters as SQL literals
+	private static String[] samples(List<Object> params){
+		String[] samples = new String[params.size()];
+		for (int i = 0; i < samples.length; ++i){
+			Object p = params.get(i);
+			samples[i] = p instanceof Number ? p.toString() : "'" + p.toString().replace("'", "''") + "'";
+		}
+		return samples;
+	}
+
+	/**
+	 * EXPLAINs every operation and prints which index it uses.
+	 *
+	 * @param pool where the connection is borrowed from
+	 * @param out where the results are printed
+	 * @param verbose also print the plans of passing checks
+	 * @return the number of operations whose plan uses none of the expected indexes
+	 * @throws java.sql.SQLException when a query cannot be explained
+	 */
+	public static int run(ConnectionPool pool, PrintStream out, boolean verbose) throws SQLException {
+		ConnectionPool.PooledConnection pc = pool.borrow();
+		int failed = 0;
+		try{
+			Connection conn = pc.getConnection();
+			conn.setAutoCommit(false);
+			Statement stmt = conn.createStatement();
+			stmt.execute("SET LOCAL enable_seqscan = off");
+			Map<String, List<String>> partitions = partitionIndexes(stmt);
+			for (Check c : CHECKS){
+				String plan = explain(stmt, inline(c.sql, c.samples));
+				String used = null;
+				for (String index : c.indexes){
+					if (uses(plan, index, partitions)){
+						used = index;
+						break;
+					}
+				}
+				if (used != null){
+					out.println("PASS  " + c.operation + "  uses " + used);
+				} else {
+					++failed;
+					out.println("FAIL  " + c.operation + "  expected " + String.join(" or ", c.indexes));
+				}
+				if (used == null || verbose){
+					out.println(plan);
+				}
+			}
+			stmt.close();
+			conn.rollback();
+		}finally{
+			pool.release(pc);
+		}
+		out.println((CHECKS.length - failed) + " of " + CHECKS.length + " checks passed");
+		return failed;
+	}
+
+	//the indexes of the partitions, by the partitioned index they belong to
+	private static Map<String, List<String>> partitionIndexes(Statement stmt) throws SQLException {
+		Map<String, List<String>> partitions = new HashMap<String, List<String>>();
+		ResultSet rs = stmt.executeQuery("SELECT p.relname, c.relname FROM pg_inherits i, pg_class p, pg_class c"
+			+ " WHERE p.oid = i.inhparent AND c.oid = i.inhrelid AND p.relkind = 'I'");
+		while (rs.next()){
+			partitions.computeIfAbsent(rs.getString(1), k -> new ArrayList<String>()).add(rs.getString(2));
+		}
+		rs.close();
+		return partitions;
+	}
+
+	private static boolean uses(String plan, String index, Map<String, List<String>> partitions){
+		if (plan.contains(index)){
+			return true;
+		}
+		for (String partition : partitions.getOrDefault(index, Collections.<String>emptyList())){
+			if (plan.contains(partition)){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static String explain(Statement stmt, String sql) throws SQLException {
+		StringBuilder plan = new StringBuilder();
+		ResultSet rs = stmt.executeQuery("EXPLAIN " + sql);
+		while (rs.next()){
+			plan.append("      ").append(rs.getString(1)).append('\n');
+		}
+		rs.close();
+		return plan.toString();
+	}
+
+	//substitutes the sample literals for the ? placeholders
+	private static String inline(String sql, String[] samples){
+		StringBuilder sb = new StringBuilder();
+		int next = 0;
+		for (int i = 0; i < sql.length(); ++i){
+			char c = sql.charAt(i);
+			if (c == '?'){
+				sb.append(samples[next++]);
+			} else if (c != ';'){
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+}//end QueryPlanCheck
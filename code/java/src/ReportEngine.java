@@ -0,0 +1,847 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * This class answers reports 6 to 10 from an in-memory copy of the request
+ * tables instead of the database.  The rows are kept as primitive int
+ * columns, with VINs, makes, models, names and comments dictionary encoded,
+ * and the per-car service counts, per-customer car counts and per-customer
+ * bill totals are kept up to date as rows arrive.  The reports are parallel
+ * fork/join scans over those columns and give the same rows as their SQL.
+ *
+ * The copy is refreshed incrementally: rows with a key above the highest
+ * one seen, less a look-back of a few id blocks for the keys other clients
+ * reserved earlier but wrote later, are read and the ones not seen yet are
+ * added.  Customers and cars are read as requests refer to them.  Rows are
+ * never updated by the shop; after rows are deleted (archive, bulk load)
+ * reset() drops the copy and it is read again.  Until the first load is
+ * done, MechanicShop runs the reports on the database.
+ *
+ */
+
+public class ReportEngine{
+	private static final int FETCH_SIZE = 10000;
+	private static final int MIN_CHUNK = 1 << 14;
+	private static final int MISSING_BATCH = 1000;
+
+	static final String OWNS_AFTER =
+		"SELECT ownership_id, customer_id FROM Owns WHERE ownership_id > ?;";
+	static final String SERVICE_REQUESTS_AFTER =
+		"SELECT rid, customer_id, car_vin, odometer FROM Service_Request WHERE rid > ?;";
+	static final String CLOSED_REQUESTS_AFTER =
+		"SELECT wid, rid, date, comment, bill FROM Closed_Request WHERE wid > ?;";
+	static final String ALL_CUSTOMERS =
+		"SELECT id, fname, lname FROM Customer;";
+	static final String CUSTOMERS_IN =
+		"SELECT id, fname, lname FROM Customer WHERE id = ANY (?::int[]);";
+	static final String ALL_CARS =
+		"SELECT vin, make, model, year FROM Car;";
+	static final String CARS_IN =
+		"SELECT vin, make, model, year FROM Car WHERE vin = ANY (?::varchar[]);";
+
+	private static final String[] BILL_LESS_THAN_100_COLUMNS = { "date", "comment", "bill" };
+	private static final String[] MORE_THAN_20_CARS_COLUMNS = { "fname", "lname" };
+	private static final String[] CARS_BEFORE_1995_COLUMNS = { "make", "model", "year" };
+	private static final String[] K_MOST_SERVICED_CARS_COLUMNS = { "make", "model", "num" };
+	private static final String[] TOTAL_BILL_COLUMNS = { "fname", "lname", "total" };
+
+	/**
+	 * Where the rows are read from; MechanicShop.executeQueryAndStream
+	 * outside the tests.
+	 */
+	interface RowSource{
+		int executeQueryAndStream(String query, int fetchSize, RowHandler handler, Object... params) throws SQLException;
+	}
+
+	private final MechanicShop _esql;
+	private final RowSource _source;
+	private final long _maxStalenessNanos;
+	private final int _lookback;
+	private final ReentrantReadWriteLock _lock = new ReentrantReadWriteLock();
+	private final ScheduledExecutorService _refresher;
+	private Store _store = new Store();
+	private volatile boolean _loaded = false;
+	private volatile long _refreshedAt = 0;
+
+	/**
+	 * @param esql where the rows are read from
+	 * @param maxStalenessMs a report refreshes the copy first when it is
+	 * older than this; 0 refreshes only on demand
+	 * @param lookbackBlocks how many id blocks below the highest key seen
+	 * are read again, see IdAllocator.BLOCK_SIZE
+	 */
+	public ReportEngine(MechanicShop esql, long maxStalenessMs, int lookbackBlocks){
+		this(esql, esql::executeQueryAndStream, maxStalenessMs, lookbackBlocks);
+	}
+
+	//esql is only used by verify() and may be null when source is given
+	ReportEngine(MechanicShop esql, RowSource source, long maxStalenessMs, int lookbackBlocks){
+		this._esql = esql;
+		this._source = source;
+		this._maxStalenessNanos = TimeUnit.MILLISECONDS.toNanos(maxStalenessMs);
+		this._lookback = IdAllocator.BLOCK_SIZE * lookbackBlocks;
+		this._refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "report-engine-refresh");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * Loads the copy in the background, then keeps refreshing it every
+	 * maxStalenessMs so reports rarely wait for a refresh.  With a
+	 * staleness of 0 the copy is loaded once and then only refreshed on
+	 * demand.
+	 */
+	public void start(){
+		Runnable refresh = () -> {
+			try{
+				refresh();
+			}catch (SQLException e){
+				System.err.println("Unable to refresh the report engine: " + e.getMessage());
+			}
+		};
+		if (this._maxStalenessNanos > 0){
+			this._refresher.scheduleWithFixedDelay(refresh, 0, this._maxStalenessNanos, TimeUnit.NANOSECONDS);
+		} else {
+			this._refresher.execute(refresh);
+		}
+	}
+
+	/**
+	 * Stops the background refresh.
+	 */
+	public void close(){
+		this._refresher.shutdownNow();
+	}
+
+	/**
+	 * Drops the copy; it is read again by the next refresh.
+	 */
+	public void reset(){
+		this._lock.writeLock().lock();
+		try{
+			this._store = new Store();
+			this._loaded = false;
+		}finally{
+			this._lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the copy is loaded, so the reports can be answered from it
+	 */
+	public boolean isLoaded(){
+		return this._loaded;
+	}
+
+	/**
+	 * @return the query is one of the reports answered here and the copy
+	 * is loaded
+	 */
+	public boolean answers(String query){
+		return this._loaded && (query.equals(MechanicShop.REPORT_BILL_LESS_THAN_100)
+			|| query.equals(MechanicShop.REPORT_MORE_THAN_20_CARS)
+			|| query.equals(MechanicShop.REPORT_CARS_BEFORE_1995)
+			|| query.equals(MechanicShop.REPORT_K_MOST_SERVICED_CARS)
+			|| query.equals(MechanicShop.REPORT_TOTAL_BILL));
+	}
+
+	/**
+	 * Reads the rows added since the last refresh, or all rows the first
+	 * time.  Reports wait while the new rows are added.
+	 *
+	 * @return the number of rows added
+	 * @throws java.sql.SQLException when the rows cannot be read; a failed
+	 * first load leaves the copy empty
+	 */
+	public long refresh() throws SQLException {
+		this._lock.writeLock().lock();
+		try{
+			Store s = this._store;
+			long before = s.rows();
+			try{
+				if (!this._loaded){
+					this._source.executeQueryAndStream(ALL_CUSTOMERS, FETCH_SIZE, s::addCustomer);
+					this._source.executeQueryAndStream(ALL_CARS, FETCH_SIZE, s::addCar);
+				}
+				this._source.executeQueryAndStream(OWNS_AFTER, FETCH_SIZE, s::addOwnership, lowWater(s.maxOwnership));
+				this._source.executeQueryAndStream(SERVICE_REQUESTS_AFTER, FETCH_SIZE, s::addServiceRequest, lowWater(s.maxRid));
+				this._source.executeQueryAndStream(CLOSED_REQUESTS_AFTER, FETCH_SIZE, s::addClosedRequest, lowWater(s.maxWid));
+				s.billPending();
+				readMissing(s);
+			}catch (SQLException e){
+				if (!this._loaded){
+					this._store = new Store();
+				}
+				throw e;
+			}
+			this._loaded = true;
+			this._refreshedAt = System.nanoTime();
+			return s.rows() - before;
+		}finally{
+			this._lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Answers one of the reports of answers() into a sink.
+	 *
+	 * @param sink receives the rows
+	 * @param query the report query, one of the REPORT_ constants of MechanicShop
+	 * @param params its parameters, the K of report 9
+	 * @return the number of rows written
+	 * @throws java.sql.SQLException when the copy cannot be refreshed or
+	 * the output cannot be written
+	 */
+	public int write(ResultSink sink, String query, Object[] params) throws SQLException {
+		if (this._maxStalenessNanos > 0 && System.nanoTime() - this._refreshedAt > this._maxStalenessNanos){
+			refresh();
+		}
+		this._lock.readLock().lock();
+		try{
+			Store s = this._store;
+			if (query.equals(MechanicShop.REPORT_BILL_LESS_THAN_100)){
+				return s.billLessThan100(sink);
+			} else if (query.equals(MechanicShop.REPORT_MORE_THAN_20_CARS)){
+				return s.moreThan20Cars(sink);
+			} else if (query.equals(MechanicShop.REPORT_CARS_BEFORE_1995)){
+				return s.carsBefore1995(sink);
+			} else if (query.equals(MechanicShop.REPORT_K_MOST_SERVICED_CARS)){
+				return s.mostServicedCars(sink, ((Number) params[0]).intValue());
+			} else if (query.equals(MechanicShop.REPORT_TOTAL_BILL)){
+				return s.totalBill(sink);
+			}
+			throw new IllegalArgumentException("Not a report: " + query);
+		}catch (IOException e){
+			throw new SQLException("Unable to write query result: " + e.getMessage(), e);
+		}finally{
+			this._lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Runs every report both on the database and here and compares the
+	 * rows; the order only counts where the query orders them completely.
+	 *
+	 * @param out where the results and timings are printed
+	 * @return the number of reports that differ
+	 * @throws java.sql.SQLException when a report cannot be run
+	 */
+	public int verify(PrintStream out) throws SQLException {
+		Object[][] reports = {
+			{ "6. ListCustomersWithBillLessThan100", MechanicShop.REPORT_BILL_LESS_THAN_100, new Object[0], false },
+			{ "7. ListCustomersWithMoreThan20Cars", MechanicShop.REPORT_MORE_THAN_20_CARS, new Object[0], false },
+			{ "8. ListCarsBefore1995With50000Milles", MechanicShop.REPORT_CARS_BEFORE_1995, new Object[0], false },
+			{ "9. ListKCarsWithTheMostServices", MechanicShop.REPORT_K_MOST_SERVICED_CARS, new Object[]{ 10 }, true },
+			{ "10. ListCustomersInDescendingOrderOfTheirTotalBill", MechanicShop.REPORT_TOTAL_BILL, new Object[0], false },
+		};
+		refresh();
+		int failed = 0;
+		for (Object[] r : reports){
+			String query = (String) r[1];
+			Object[] params = (Object[]) r[2];
+			long start = System.nanoTime();
+			List<List<String>> expected = this._esql.executeQueryAndReturnResult(query, params);
+			long sqlNanos = System.nanoTime() - start;
+			Collector actual = new Collector();
+			start = System.nanoTime();
+			write(actual, query, params);
+			long engineNanos = System.nanoTime() - start;
+			if (!((Boolean) r[3])){
+				sort(expected);
+				sort(actual.rows);
+			}
+			boolean same = expected.equals(actual.rows);
+			if (!same){
+				++failed;
+			}
+			out.println(String.format("%s  %s  %d row(s)  sql %.3f ms  engine %.3f ms", same ? "PASS" : "FAIL", r[0],
+				actual.rows.size(), sqlNanos / 1e6, engineNanos / 1e6));
+		}
+		out.println((reports.length - failed) + " of " + reports.length + " reports match");
+		return failed;
+	}
+
+	/**
+	 * @return a one line summary of what is loaded
+	 */
+	public String toString(){
+		this._lock.readLock().lock();
+		try{
+			return this._store.toString();
+		}finally{
+			this._lock.readLock().unlock();
+		}
+	}
+
+	private int lowWater(int max){
+		return Math.max(-1, max - this._lookback);
+	}
+
+	//reads the customers and cars the new rows refer to
+	private void readMissing(Store s) throws SQLException {
+		List<String> batch = new ArrayList<String>();
+		for (int id = s.missingCustomers.nextSetBit(0); id >= 0; id = s.missingCustomers.nextSetBit(id + 1)){
+			batch.add(String.valueOf(id));
+			if (batch.size() == MISSING_BATCH){
+				this._source.executeQueryAndStream(CUSTOMERS_IN, FETCH_SIZE, s::addCustomer, "{" + String.join(",", batch) + "}");
+				batch.clear();
+			}
+		}
+		if (!batch.isEmpty()){
+			this._source.executeQueryAndStream(CUSTOMERS_IN, FETCH_SIZE, s::addCustomer, "{" + String.join(",", batch) + "}");
+			batch.clear();
+		}
+		s.missingCustomers.clear();
+		for (int car = s.missingCars.nextSetBit(0); car >= 0; car = s.missingCars.nextSetBit(car + 1)){
+			batch.add("\"" + s.vins.value(car).replace("\\", "\\\\").replace("\"", "\\\"") + "\"");
+			if (batch.size() == MISSING_BATCH){
+				this._source.executeQueryAndStream(CARS_IN, FETCH_SIZE, s::addCar, "{" + String.join(",", batch) + "}");
+				batch.clear();
+			}
+		}
+		if (!batch.isEmpty()){
+			this._source.executeQueryAndStream(CARS_IN, FETCH_SIZE, s::addCar, "{" + String.join(",", batch) + "}");
+		}
+		s.missingCars.clear();
+	}
+
+	private static void sort(List<List<String>> rows){
+		Collections.sort(rows, (a, b) -> {
+			for (int i = 0; i < a.size(); ++i){
+				String x = a.get(i);
+				String y = b.get(i);
+				int c = x == null ? (y == null ? 0 : -1) : (y == null ? 1 : x.compareTo(y));
+				if (c != 0){
+					return c;
+				}
+			}
+			return 0;
+		});
+	}
+
+	/**
+	 * The loaded rows.  Cars are numbered by the dictionary code of their
+	 * VIN and customers by their id, and the columns of both are indexed by
+	 * that number.  Only the writer of the engine changes a store, so its
+	 * columns need no locking of their own.
+	 */
+	private static class Store{
+		final Dictionary vins = new Dictionary();
+		final Dictionary makes = new Dictionary();
+		final Dictionary models = new Dictionary();
+		final Dictionary names = new Dictionary();
+		final Dictionary comments = new Dictionary();
+
+		//cars, by vin code; -1 until the car is read
+		final IntColumn carMake = new IntColumn(-1);
+		final IntColumn carModel = new IntColumn(-1);
+		final IntColumn carYear = new IntColumn(-1);
+		final IntColumn carServices = new IntColumn(0);
+		final BitSet missingCars = new BitSet();
+
+		//customers, by id; -1 until the customer is read
+		final IntColumn customerFname = new IntColumn(-1);
+		final IntColumn customerLname = new IntColumn(-1);
+		final IntColumn customerCars = new IntColumn(0);
+		final LongColumn customerBills = new LongColumn();
+		final BitSet billedCustomers = new BitSet();
+		final BitSet missingCustomers = new BitSet();
+
+		final BitSet ownerships = new BitSet();
+		int maxOwnership = -1;
+
+		//service requests, in the order read, and their customers by rid
+		final BitSet rids = new BitSet();
+		int maxRid = -1;
+		final IntColumn serviceCar = new IntColumn(0);
+		final IntColumn serviceOdometer = new IntColumn(0);
+		final IntColumn ridCustomer = new IntColumn(-1);
+
+		//closed requests, in the order read, and those whose service
+		//request is not read yet, so their bill is not added up yet
+		final BitSet wids = new BitSet();
+		int maxWid = -1;
+		final IntColumn closedRid = new IntColumn(0);
+		final IntColumn closedDate = new IntColumn(0);
+		final IntColumn closedComment = new IntColumn(-1);
+		final IntColumn closedBill = new IntColumn(0);
+		final IntColumn unbilled = new IntColumn(0);
+
+		long rows(){
+			return this.ownerships.cardinality() + (long) this.serviceCar.size() + this.closedRid.size();
+		}
+
+		void addCustomer(ResultSet rs) throws SQLException {
+			int id = rs.getInt(1);
+			this.customerFname.set(id, this.names.code(rs.getString(2)));
+			this.customerLname.set(id, this.names.code(rs.getString(3)));
+		}
+
+		void addCar(ResultSet rs) throws SQLException {
+			int car = this.vins.code(rs.getString(1));
+			this.carMake.set(car, this.makes.code(rs.getString(2)));
+			this.carModel.set(car, this.models.code(rs.getString(3)));
+			this.carYear.set(car, rs.getInt(4));
+		}
+
+		void addOwnership(ResultSet rs) throws SQLException {
+			int id = rs.getInt(1);
+			if (this.ownerships.get(id)){
+				return;
+			}
+			this.ownerships.set(id);
+			this.maxOwnership = Math.max(this.maxOwnership, id);
+			int customer = rs.getInt(2);
+			this.customerCars.set(customer, this.customerCars.get(customer) + 1);
+			if (this.customerFname.get(customer) < 0){
+				this.missingCustomers.set(customer);
+			}
+		}
+
+		void addServiceRequest(ResultSet rs) throws SQLException {
+			int rid = rs.getInt(1);
+			if (this.rids.get(rid)){
+				return;
+			}
+			this.rids.set(rid);
+			this.maxRid = Math.max(this.maxRid, rid);
+			int customer = rs.getInt(2);
+			int car = this.vins.code(rs.getString(3));
+			this.serviceCar.add(car);
+			this.serviceOdometer.add(rs.getInt(4));
+			this.ridCustomer.set(rid, customer);
+			this.carServices.set(car, this.carServices.get(car) + 1);
+			if (this.carYear.get(car) < 0){
+				this.missingCars.set(car);
+			}
+			if (this.customerFname.get(customer) < 0){
+				this.missingCustomers.set(customer);
+			}
+		}
+
+		void addClosedRequest(ResultSet rs) throws SQLException {
+			int wid = rs.getInt(1);
+			if (this.wids.get(wid)){
+				return;
+			}
+			this.wids.set(wid);
+			this.maxWid = Math.max(this.maxWid, wid);
+			int row = this.closedRid.size();
+			this.closedRid.add(rs.getInt(2));
+			this.closedDate.add((int) rs.getDate(3).toLocalDate().toEpochDay());
+			this.closedComment.add(this.comments.code(rs.getString(4)));
+			this.closedBill.add(rs.getInt(5));
+			if (!bill(row)){
+				this.unbilled.add(row);
+			}
+		}
+
+		//adds the bill of a closed request to its customer's total
+		private boolean bill(int row){
+			int customer = this.ridCustomer.get(this.closedRid.get(row));
+			if (customer < 0){
+				return false;
+			}
+			this.customerBills.add(customer, this.closedBill.get(row));
+			this.billedCustomers.set(customer);
+			return true;
+		}
+
+		//bills the closed requests whose service request was read since
+		void billPending(){
+			int kept = 0;
+			for (int i = 0; i < this.unbilled.size(); ++i){
+				int row = this.unbilled.get(i);
+				if (!bill(row)){
+					this.unbilled.set(kept++, row);
+				}
+			}
+			this.unbilled.truncate(kept);
+		}
+
+		//report 6: the closed requests billed less than 100, in the order read
+		int billLessThan100(ResultSink sink) throws IOException {
+			final int[] bills = this.closedBill.array();
+			IntColumn matches = scan(this.closedRid.size(), new RangeScan<IntColumn>(){
+				public IntColumn scan(int from, int to){
+					IntColumn found = new IntColumn(0);
+					for (int i = from; i < to; ++i){
+						if (bills[i] < 100){
+							found.add(i);
+						}
+					}
+					return found;
+				}
+				public IntColumn merge(IntColumn left, IntColumn right){
+					return left.append(right);
+				}
+			});
+			sink.begin(BILL_LESS_THAN_100_COLUMNS);
+			String[] values = new String[3];
+			for (int i = 0; i < matches.size(); ++i){
+				int row = matches.get(i);
+				values[0] = LocalDate.ofEpochDay(this.closedDate.get(row)).toString();
+				values[1] = this.comments.value(this.closedComment.get(row));
+				values[2] = Integer.toString(this.closedBill.get(row));
+				sink.row(values);
+			}
+			sink.end();
+			return matches.size();
+		}
+
+		//report 7: the customers owning more than 20 cars, by id
+		int moreThan20Cars(ResultSink sink) throws IOException {
+			final int[] cars = this.customerCars.array();
+			final int[] fnames = this.customerFname.array();
+			IntColumn matches = scan(Math.min(this.customerCars.size(), this.customerFname.size()), new RangeScan<IntColumn>(){
+				public IntColumn scan(int from, int to){
+					IntColumn found = new IntColumn(0);
+					for (int i = from; i < to; ++i){
+						if (cars[i] > 20 && fnames[i] >= 0){
+							found.add(i);
+						}
+					}
+					return found;
+				}
+				public IntColumn merge(IntColumn left, IntColumn right){
+					return left.append(right);
+				}
+			});
+			sink.begin(MORE_THAN_20_CARS_COLUMNS);
+			String[] values = new String[2];
+			for (int i = 0; i < matches.size(); ++i){
+				int customer = matches.get(i);
+				values[0] = this.names.value(this.customerFname.get(customer));
+				values[1] = this.names.value(this.customerLname.get(customer));
+				sink.row(values);
+			}
+			sink.end();
+			return matches.size();
+		}
+
+		//report 8: make, model and year of the cars before 1995 serviced
+		//below 50000 miles, each once, sorted
+		int carsBefore1995(ResultSink sink) throws IOException {
+			final int[] cars = this.serviceCar.array();
+			final int[] odometers = this.serviceOdometer.array();
+			final int[] years = this.carYear.array();
+			final int known = this.carYear.size();
+			BitSet matches = scan(this.serviceCar.size(), new RangeScan<BitSet>(){
+				public BitSet scan(int from, int to){
+					BitSet found = new BitSet();
+					for (int i = from; i < to; ++i){
+						int car = cars[i];
+						if (odometers[i] < 50000 && car < known && years[car] >= 0 && years[car] < 1995){
+							found.set(car);
+						}
+					}
+					return found;
+				}
+				public BitSet merge(BitSet left, BitSet right){
+					left.or(right);
+					return left;
+				}
+			});
+			Set<List<String>> distinct = new HashSet<List<String>>();
+			for (int car = matches.nextSetBit(0); car >= 0; car = matches.nextSetBit(car + 1)){
+				distinct.add(Arrays.asList(this.makes.value(this.carMake.get(car)), this.models.value(this.carModel.get(car)),
+					Integer.toString(this.carYear.get(car))));
+			}
+			List<List<String>> rows = new ArrayList<List<String>>(distinct);
+			sort(rows);
+			sink.begin(CARS_BEFORE_1995_COLUMNS);
+			for (List<String> row : rows){
+				sink.row(row.toArray(new String[3]));
+			}
+			sink.end();
+			return rows.size();
+		}
+
+		//report 9: the k cars with the most service requests, ties by VIN
+		int mostServicedCars(ResultSink sink, final int k) throws IOException {
+			if (k <= 0){
+				throw new IllegalArgumentException("K needs to be greater than 0");
+			}
+			final int[] counts = this.carServices.array();
+			final int[] makes = this.carMake.array();
+			final int known = this.carMake.size();
+			//worst first: fewest requests, then the highest VIN
+			final Comparator<Integer> worstFirst = (a, b) -> counts[a] != counts[b] ? Integer.compare(counts[a], counts[b])
+				: this.vins.value(b).compareTo(this.vins.value(a));
+			PriorityQueue<Integer> top = scan(this.carServices.size(), new RangeScan<PriorityQueue<Integer>>(){
+				public PriorityQueue<Integer> scan(int from, int to){
+					PriorityQueue<Integer> best = new PriorityQueue<Integer>(k + 1, worstFirst);
+					for (int car = from; car < to; ++car){
+						if (counts[car] > 0 && car < known && makes[car] >= 0){
+							best.add(car);
+							if (best.size() > k){
+								best.poll();
+							}
+						}
+					}
+					return best;
+				}
+				public PriorityQueue<Integer> merge(PriorityQueue<Integer> left, PriorityQueue<Integer> right){
+					for (Integer car : right){
+						left.add(car);
+						if (left.size() > k){
+							left.poll();
+						}
+					}
+					return left;
+				}
+			});
+			List<Integer> cars = new ArrayList<Integer>(top);
+			Collections.sort(cars, Collections.reverseOrder(worstFirst));
+			sink.begin(K_MOST_SERVICED_CARS_COLUMNS);
+			String[] values = new String[3];
+			for (int car : cars){
+				values[0] = this.makes.value(this.carMake.get(car));
+				values[1] = this.models.value(this.carModel.get(car));
+				values[2] = Integer.toString(counts[car]);
+				sink.row(values);
+			}
+			sink.end();
+			return cars.size();
+		}
+
+		//report 10: the customers with closed requests by their total bill,
+		//highest first, ties by id
+		int totalBill(ResultSink sink) throws IOException {
+			final long[] totals = this.customerBills.array();
+			final BitSet billed = this.billedCustomers;
+			final int[] fnames = this.customerFname.array();
+			IntColumn matches = scan(Math.min(this.customerBills.size(), this.customerFname.size()), new RangeScan<IntColumn>(){
+				public IntColumn scan(int from, int to){
+					IntColumn found = new IntColumn(0);
+					for (int i = from; i < to; ++i){
+						if (billed.get(i) && fnames[i] >= 0){
+							found.add(i);
+						}
+					}
+					return found;
+				}
+				public IntColumn merge(IntColumn left, IntColumn right){
+					return left.append(right);
+				}
+			});
+			Integer[] customers = new Integer[matches.size()];
+			for (int i = 0; i < customers.length; ++i){
+				customers[i] = matches.get(i);
+			}
+			Arrays.parallelSort(customers, (a, b) -> totals[a] != totals[b] ? Long.compare(totals[b], totals[a]) : Integer.compare(a, b));
+			sink.begin(TOTAL_BILL_COLUMNS);
+			String[] values = new String[3];
+			for (int customer : customers){
+				values[0] = this.names.value(this.customerFname.get(customer));
+				values[1] = this.names.value(this.customerLname.get(customer));
+				values[2] = Long.toString(totals[customer]);
+				sink.row(values);
+			}
+			sink.end();
+			return customers.length;
+		}
+
+		public String toString(){
+			return String.format("%d cars, %d customers, %d ownerships, %d service requests, %d closed requests",
+				this.vins.size(), this.customerFname.size(), this.ownerships.cardinality(), this.serviceCar.size(), this.closedRid.size());
+		}
+	}//end Store
+
+	/**
+	 * Scans a range of rows; a large range is split in halves scanned in
+	 * parallel and their results merged in row order.
+	 */
+	private interface RangeScan<T>{
+		T scan(int from, int to);
+		T merge(T left, T right);
+	}
+
+	private static <T> T scan(int size, RangeScan<T> scan){
+		int chunk = Math.max(MIN_CHUNK, size / (ForkJoinPool.getCommonPoolParallelism() * 4 + 1));
+		return ForkJoinPool.commonPool().invoke(new ScanTask<T>(scan, 0, size, chunk));
+	}
+
+	private static class ScanTask<T> extends RecursiveTask<T>{
+		private static final long serialVersionUID = 1L;
+
+		private final RangeScan<T> _scan;
+		private final int _from;
+		private final int _to;
+		private final int _chunk;
+
+		ScanTask(RangeScan<T> scan, int from, int to, int chunk){
+			this._scan = scan;
+			this._from = from;
+			this._to = to;
+			this._chunk = chunk;
+		}
+
+		protected T compute(){
+			if (this._to - this._from <= this._chunk){
+				return this._scan.scan(this._from, this._to);
+			}
+			int mid = (this._from + this._to) >>> 1;
+			ScanTask<T> left = new ScanTask<T>(this._scan, this._from, mid, this._chunk);
+			left.fork();
+			T right = new ScanTask<T>(this._scan, mid, this._to, this._chunk).compute();
+			return this._scan.merge(left.join(), right);
+		}
+	}//end ScanTask
+
+	/**
+	 * A growable int array.  Reading past the end gives the fill value, so
+	 * a column indexed by id reads unknown ids as the fill.
+	 */
+	static class IntColumn{
+		private final int _fill;
+		private int[] _values = new int[16];
+		private int _size = 0;
+
+		IntColumn(int fill){
+			this._fill = fill;
+			if (fill != 0){
+				Arrays.fill(this._values, fill);
+			}
+		}
+
+		int size(){
+			return this._size;
+		}
+
+		int get(int i){
+			return i < this._size ? this._values[i] : this._fill;
+		}
+
+		void add(int value){
+			set(this._size, value);
+		}
+
+		void set(int i, int value){
+			if (i >= this._values.length){
+				int length = this._values.length;
+				this._values = Arrays.copyOf(this._values, Math.max(i + 1, length * 2));
+				if (this._fill != 0){
+					Arrays.fill(this._values, length, this._values.length, this._fill);
+				}
+			}
+			this._values[i] = value;
+			if (i >= this._size){
+				this._size = i + 1;
+			}
+		}
+
+		void truncate(int size){
+			this._size = Math.min(this._size, size);
+		}
+
+		IntColumn append(IntColumn other){
+			for (int i = 0; i < other._size; ++i){
+				add(other._values[i]);
+			}
+			return this;
+		}
+
+		//the backing array, valid up to size()
+		int[] array(){
+			return this._values;
+		}
+	}//end IntColumn
+
+	/**
+	 * A growable long array of running totals, indexed by id.
+	 */
+	static class LongColumn{
+		private long[] _values = new long[16];
+		private int _size = 0;
+
+		int size(){
+			return this._size;
+		}
+
+		void add(int i, long delta){
+			if (i >= this._values.length){
+				this._values = Arrays.copyOf(this._values, Math.max(i + 1, this._values.length * 2));
+			}
+			this._values[i] += delta;
+			if (i >= this._size){
+				this._size = i + 1;
+			}
+		}
+
+		long[] array(){
+			return this._values;
+		}
+	}//end LongColumn
+
+	/**
+	 * Numbers the distinct strings of a column in the order first seen.
+	 */
+	static class Dictionary{
+		private final Map<String, Integer> _codes = new HashMap<String, Integer>();
+		private final List<String> _values = new ArrayList<String>();
+
+		//-1 for null
+		int code(String value){
+			if (value == null){
+				return -1;
+			}
+			Integer code = this._codes.get(value);
+			if (code == null){
+				code = this._values.size();
+				this._values.add(value);
+				this._codes.put(value, code);
+			}
+			return code;
+		}
+
+		String value(int code){
+			return code < 0 ? null : this._values.get(code);
+		}
+
+		int size(){
+			return this._values.size();
+		}
+	}//end Dictionary
+
+	/**
+	 * Keeps the rows of a report for verify().
+	 */
+	private static class Collector extends ResultSink{
+		final List<List<String>> rows = new ArrayList<List<String>>();
+
+		Collector(){
+			super(null);
+		}
+
+		public void begin(String[] columns){ }
+
+		public void row(String[] values){
+			this.rows.add(new ArrayList<String>(Arrays.asList(values)));
+		}
+
+		public void end(){ }
+	}//end Collector
+}//end ReportEngine
@@ -0,0 +1,88 @@
+import java.sql.Date;
+import java.util.List;
+
+/**
+ * This class limits reports 6, 8 and 10 to the service requests dated in
+ * a range.  The bounds are put on the partition keys, Service_Request.date
+ * and Closed_Request.request_date, so only the monthly partitions of the
+ * range are read.  Report 6 lists the closings of the requests in the
+ * range, and report 10 totals their bills from the request tables instead
+ * of Customer_Total_Bill.  Report 9 takes its range through TopCarsFilter;
+ * report 7 does not read the request tables.
+ *
+ */
+
+public class ReportPeriod{
+	private final Date _from;
+	private final Date _to;
+
+	/**
+	 * @param from the first day, or null to leave the range open
+	 * @param to the last day, included, or null to leave the range open
+	 */
+	public ReportPeriod(Date from, Date to){
+		this._from = from;
+		this._to = to;
+	}
+
+	/**
+	 * @return the range has no bounds, so the reports read all of the history
+	 */
+	public boolean isOpen(){
+		return this._from == null && this._to == null;
+	}
+
+	/**
+	 * Builds report 6, the closed requests billed less than 100.
+	 *
+	 * @param params receives the values of the ? placeholders, in order
+	 */
+	String billLessThan100(List<Object> params){
+		if (isOpen()){
+			return MechanicShop.REPORT_BILL_LESS_THAN_100;
+		}
+		return "SELECT date,comment,bill FROM Closed_Request WHERE bill < 100" + bounds("request_date", params) + ";";
+	}
+
+	/**
+	 * Builds report 8, the cars before 1995 serviced below 50000 miles.
+	 *
+	 * @param params receives the values of the ? placeholders, in order
+	 */
+	String carsBefore1995(List<Object> params){
+		if (isOpen()){
+			return MechanicShop.REPORT_CARS_BEFORE_1995;
+		}
+		return "SELECT DISTINCT make, model, year FROM Car AS C, Service_Request AS S WHERE year < 1995 and S.car_vin = C.vin and S.odometer < 50000"
+			+ bounds("S.date", params) + ";";
+	}
+
+	/**
+	 * Builds report 10, the customers by their total bill.  Both request
+	 * tables are bounded, so both are pruned.
+	 *
+	 * @param params receives the values of the ? placeholders, in order
+	 */
+	String totalBill(List<Object> params){
+		if (isOpen()){
+			return MechanicShop.REPORT_TOTAL_BILL;
+		}
+		return "SELECT Customer.fname, Customer.lname, TEMP.total FROM Customer, (SELECT S.customer_id, SUM(C.bill) AS total"
+			+ " FROM Closed_Request C, Service_Request S WHERE C.rid = S.rid AND C.request_date = S.date"
+			+ bounds("S.date", params) + bounds("C.request_date", params)
+			+ " GROUP BY S.customer_id) AS TEMP WHERE Customer.id=TEMP.customer_id ORDER BY TEMP.total DESC;";
+	}
+
+	private String bounds(String column, List<Object> params){
+		StringBuilder sql = new StringBuilder();
+		if (this._from != null){
+			sql.append(" AND ").append(column).append(" >= ?");
+			params.add(this._from);
+		}
+		if (this._to != null){
+			sql.append(" AND ").append(column).append(" <= ?");
+			params.add(this._to);
+		}
+		return sql.toString();
+	}
+}//end ReportPeriod
@@ -0,0 +1,252 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+
+/**
+ * This class manages the monthly partitions of Service_Request and
+ * Closed_Request, see the PARTITIONS section of create.sql.  Archiving a
+ * month exports its two partitions with COPY ... TO STDOUT into gzipped
+ * CSV files and drops them, all in one transaction, so a month is either
+ * archived completely or left in place.  Restoring loads the
+ * files into new partitions of that month.  The callers rebuild the
+ * summary tables afterwards, so reports 9 and 10 cover exactly the months
+ * that are attached.
+ *
+ */
+
+public class RequestArchive{
+	static final String SERVICE_COLUMNS = "rid, customer_id, car_vin, date, odometer, complain";
+	static final String CLOSED_COLUMNS = "wid, rid, mid, date, comment, bill, request_date";
+
+	//the partitions of both tables with the planner's row estimates
+	static final String PARTITIONS =
+		"SELECT c.relname AS partition, pg_get_expr(c.relpartbound, c.oid) AS bounds, GREATEST(c.reltuples, 0)::bigint AS approx_rows"
+		+ " FROM pg_inherits i, pg_class c WHERE c.oid = i.inhrelid AND i.inhparent IN ('service_request'::regclass, 'closed_request'::regclass)"
+		+ " ORDER BY c.relname;";
+	private static final String MONTHS =
+		"SELECT c.relname FROM pg_inherits i, pg_class c WHERE c.oid = i.inhrelid AND i.inhparent = 'service_request'::regclass"
+		+ " AND c.relname LIKE 'service\\_request\\_p%' ORDER BY c.relname;";
+	private static final String CREATE_PARTITIONS =
+		"SELECT create_request_partitions(?, ?);";
+
+	private static final String SERVICE_PREFIX = "service_request_p";
+	private static final String CLOSED_PREFIX = "closed_request_p";
+	private static final String SUFFIX = ".csv.gz";
+	private static final DateTimeFormatter MONTH = DateTimeFormatter.ofPattern("yyyy_MM");
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final ConnectionPool _pool;
+
+	/**
+	 * @param pool where the connections are borrowed from
+	 */
+	public RequestArchive(ConnectionPool pool){
+		this._pool = pool;
+	}
+
+	/**
+	 * Creates the missing partitions of the months from one day to another,
+	 * moving their rows out of the default partitions.
+	 *
+	 * @param from a day of the first month
+	 * @param to a day of the last month
+	 * @return the number of months created
+	 * @throws java.sql.SQLException when the tables are not partitioned
+	 */
+	public int createPartitions(Date from, Date to) throws SQLException {
+		ConnectionPool.PooledConnection pc = this._pool.borrow();
+		try{
+			PreparedStatement stmt = pc.prepare(CREATE_PARTITIONS);
+			stmt.setDate(1, from);
+			stmt.setDate(2, to);
+			ResultSet rs = stmt.executeQuery();
+			int created = rs.next() ? rs.getInt(1) : 0;
+			rs.close();
+			return created;
+		}finally{
+			this._pool.release(pc);
+		}
+	}
+
+	/**
+	 * Archives every month that ends before a day, oldest first.  The
+	 * default partitions are never archived.
+	 *
+	 * @param before the months that end before this day are archived
+	 * @param dir where service_request_pYYYY_MM.csv.gz and
+	 * closed_request_pYYYY_MM.csv.gz are written
+	 * @param out where progress is reported
+	 * @return the months archived
+	 * @throws java.sql.SQLException when a partition cannot be detached or exported
+	 * @throws java.io.IOException when a file cannot be written, or already exists
+	 */
+	public List<YearMonth> archive(LocalDate before, File dir, PrintStream out) throws SQLException, IOException {
+		if (!dir.isDirectory() && !dir.mkdirs()){
+			throw new IOException("Cannot create " + dir.getPath());
+		}
+		List<YearMonth> archived = new ArrayList<YearMonth>();
+		for (YearMonth month : months()){
+			if (month.plusMonths(1).atDay(1).isAfter(before)){
+				break;
+			}
+			long rows = archiveMonth(month, dir);
+			out.println(String.format("  archived %s: %d rows", month, rows));
+			archived.add(month);
+		}
+		return archived;
+	}
+
+	/**
+	 * Loads an archived month back into new partitions of that month.
+	 *
+	 * @param dir where the files of the month were archived
+	 * @param month the month to restore
+	 * @return the number of rows restored
+	 * @throws java.sql.SQLException when the month is still attached or the
+	 * rows do not fit the tables any more
+	 * @throws java.io.IOException when a file cannot be read
+	 */
+	public long restore(File dir, YearMonth month) throws SQLException, IOException {
+		String service = SERVICE_PREFIX + month.format(MONTH);
+		String closed = CLOSED_PREFIX + month.format(MONTH);
+		File serviceFile = new File(dir, service + SUFFIX);
+		File closedFile = new File(dir, closed + SUFFIX);
+		for (File f : new File[]{ serviceFile, closedFile }){
+			if (!f.canRead()){
+				throw new IOException("Cannot read " + f.getPath());
+			}
+		}
+		ConnectionPool.PooledConnection pc = this._pool.borrow();
+		try{
+			Connection conn = pc.getConnection();
+			conn.setAutoCommit(false);
+			Statement stmt = conn.createStatement();
+			ResultSet rs = stmt.executeQuery("SELECT to_regclass('" + service + "') IS NOT NULL");
+			boolean attached = rs.next() && rs.getBoolean(1);
+			rs.close();
+			if (attached){
+				stmt.close();
+				throw new SQLException(month + " is attached, archive it before restoring it");
+			}
+			stmt.execute("SET LOCAL DateStyle = 'ISO, MDY'");
+			stmt.execute("SET LOCAL mechanicshop.skip_summaries = on");
+			stmt.close();
+			PreparedStatement create = pc.prepare(CREATE_PARTITIONS);
+			create.setDate(1, Date.valueOf(month.atDay(1)));
+			create.setDate(2, Date.valueOf(month.atEndOfMonth()));
+			create.executeQuery().close();
+
+			CopyManager copy = conn.unwrap(PGConnection.class).getCopyAPI();
+			long rows = load(copy, "COPY " + service + " (" + SERVICE_COLUMNS + ") FROM STDIN WITH (FORMAT csv)", serviceFile);
+			rows += load(copy, "COPY " + closed + " (" + CLOSED_COLUMNS + ") FROM STDIN WITH (FORMAT csv)", closedFile);
+			conn.commit();
+			return rows;
+		}finally{
+			this._pool.release(pc);
+		}
+	}
+
+	//the months that have a partition, oldest first
+	private List<YearMonth> months() throws SQLException {
+		List<YearMonth> months = new ArrayList<YearMonth>();
+		ConnectionPool.PooledConnection pc = this._pool.borrow();
+		try{
+			Statement stmt = pc.getConnection().createStatement();
+			ResultSet rs = stmt.executeQuery(MONTHS);
+			while (rs.next()){
+				months.add(YearMonth.parse(rs.getString(1).substring(SERVICE_PREFIX.length()), MONTH));
+			}
+			rs.close();
+			stmt.close();
+		}finally{
+			this._pool.release(pc);
+		}
+		return months;
+	}
+
+	//exports and drops the two partitions of a month; the files are
+	//removed again unless the transaction commits
+	private long archiveMonth(YearMonth month, File dir) throws SQLException, IOException {
+		String service = SERVICE_PREFIX + month.format(MONTH);
+		String closed = CLOSED_PREFIX + month.format(MONTH);
+		File serviceFile = new File(dir, service + SUFFIX);
+		File closedFile = new File(dir, closed + SUFFIX);
+		for (File f : new File[]{ serviceFile, closedFile }){
+			if (f.exists()){
+				throw new IOException(f.getPath() + " already exists");
+			}
+		}
+		ConnectionPool.PooledConnection pc = this._pool.borrow();
+		boolean committed = false;
+		try{
+			Connection conn = pc.getConnection();
+			conn.setAutoCommit(false);
+			Statement stmt = conn.createStatement();
+			stmt.execute("SET LOCAL DateStyle = 'ISO, MDY'");
+			//no writes to either table until the month is gone, as the
+			//detach below would take this lock anyway
+			stmt.execute("LOCK TABLE Service_Request, Closed_Request IN ACCESS EXCLUSIVE MODE");
+
+			//exported while still attached
+			CopyManager copy = conn.unwrap(PGConnection.class).getCopyAPI();
+			long rows = export(copy, "COPY " + service + " (" + SERVICE_COLUMNS + ") TO STDOUT WITH (FORMAT csv)", serviceFile);
+			rows += export(copy, "COPY " + closed + " (" + CLOSED_COLUMNS + ") TO STDOUT WITH (FORMAT csv)", closedFile);
+
+			//the closings first: while they reference the requests, the
+			//request partition cannot be detached
+			stmt.execute("DROP TABLE " + closed);
+			stmt.execute("ALTER TABLE Service_Request DETACH PARTITION " + service);
+			stmt.execute("DROP TABLE " + service);
+			stmt.close();
+			conn.commit();
+			committed = true;
+			return rows;
+		}finally{
+			this._pool.release(pc);
+			if (!committed){
+				serviceFile.delete();
+				closedFile.delete();
+			}
+		}
+	}
+
+	private static long export(CopyManager copy, String sql, File file) throws SQLException, IOException {
+		OutputStream out = new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE), BUFFER_SIZE);
+		try{
+			return copy.copyOut(sql, out);
+		}finally{
+			out.close();
+		}
+	}
+
+	private static long load(CopyManager copy, String sql, File file) throws SQLException, IOException {
+		InputStream in = new GZIPInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE), BUFFER_SIZE);
+		try{
+			return copy.copyIn(sql, in, BUFFER_SIZE);
+		}finally{
+			in.close();
+		}
+	}
+}//end RequestArchive
@@ -0,0 +1,94 @@
+import java.sql.Date;
+import java.util.List;
+
+/**
+ * This class selects the service requests listed by
+ * MechanicShop.pageServiceRequests.  Every filter left unset matches all
+ * requests; the ones set are combined with AND.  Requests are listed
+ * newest first, by descending rid.
+ *
+ */
+
+public class RequestFilter{
+	private static final String COLUMNS =
+		"SELECT S.rid, S.customer_id, S.car_vin, S.date, S.odometer, S.complain FROM Service_Request S WHERE S.rid < ?";
+
+	private boolean _openOnly = false;
+	private Integer _customerId = null;
+	private String _match = null;
+	private Date _from = null;
+	private Date _to = null;
+
+	/**
+	 * Only requests that are not closed yet.
+	 */
+	public RequestFilter openOnly(){
+		this._openOnly = true;
+		return this;
+	}
+
+	/**
+	 * Only requests of one customer.
+	 */
+	public RequestFilter customer(int customerId){
+		this._customerId = customerId;
+		return this;
+	}
+
+	/**
+	 * Only requests for the car with this VIN, or of the customers with
+	 * this last name, as typed at the desk.
+	 */
+	public RequestFilter matching(String vinOrLname){
+		this._match = vinOrLname;
+		return this;
+	}
+
+	/**
+	 * Only requests dated between from and to, both included; either may
+	 * be null to leave that end open.
+	 */
+	public RequestFilter between(Date from, Date to){
+		this._from = from;
+		this._to = to;
+		return this;
+	}
+
+	/**
+	 * Builds the query of one page.  Only the filters that are set end up
+	 * in the SQL, so each combination gets a plan of its own instead of
+	 * one generic plan full of "? IS NULL OR" branches.
+	 *
+	 * @param after the rid of the last row of the previous page, null for the first page
+	 * @param limit rows per page; one more is read to learn whether there is a next page
+	 * @param params receives the values of the ? placeholders, in order
+	 * @return the query
+	 */
+	String toQuery(Integer after, int limit, List<Object> params){
+		StringBuilder sql = new StringBuilder(COLUMNS);
+		params.add(after != null ? after : Integer.MAX_VALUE);
+		if (this._customerId != null){
+			sql.append(" AND S.customer_id = ?");
+			params.add(this._customerId);
+		}
+		if (this._match != null){
+			sql.append(" AND (S.car_vin = ? OR S.customer_id IN (SELECT id FROM Customer WHERE lname = ?::bpchar))");
+			params.add(this._match);
+			params.add(this._match);
+		}
+		if (this._from != null){
+			sql.append(" AND S.date >= ?");
+			params.add(this._from);
+		}
+		if (this._to != null){
+			sql.append(" AND S.date <= ?");
+			params.add(this._to);
+		}
+		if (this._openOnly){
+			sql.append(" AND NOT EXISTS (SELECT 1 FROM Closed_Request C WHERE C.rid = S.rid AND C.request_date = S.date)");
+		}
+		sql.append(" ORDER BY S.rid DESC LIMIT ?;");
+		params.add(limit + 1);
+		return sql.toString();
+	}
+}//end RequestFilter
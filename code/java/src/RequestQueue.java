@@ -0,0 +1,374 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class writes new service requests behind the clerk's back.  A
+ * request gets its rid and is appended to a local journal, then the clerk
+ * is answered while a background writer inserts the queued requests in
+ * batches through MechanicShop.executeBatch.  The queue is bounded: when
+ * the writer falls behind, submit() waits for room, and gives up with an
+ * SQLException after a timeout.
+ *
+ * The journal holds every request not yet known to be in the database.
+ * It is emptied whenever the queue drains, and replayed when the next
+ * MechanicShop starts after a crash.  The insert ignores rids that are
+ * already there, so replaying a request that did make it is harmless.
+ * Requests the database rejects (e.g. a car deleted in the meantime) are
+ * appended to the journal file name plus ".rejected".
+ *
+ */
+
+public class RequestQueue{
+	private static final long RETRY_MIN_MILLIS = 100;
+	private static final long RETRY_MAX_MILLIS = 10000;
+	private static final long POLL_MILLIS = 100;
+
+	//one queued request: the parameters of INSERT_SERVICE_REQUEST_ONCE
+	private static class Request{
+		final int rid;
+		final int customerId;
+		final String vin;
+		final Date date;
+		final int odometer;
+		final String complain;
+
+		Request(int rid, int customerId, String vin, Date date, int odometer, String complain){
+			this.rid = rid;
+			this.customerId = customerId;
+			this.vin = vin;
+			this.date = date;
+			this.odometer = odometer;
+			this.complain = complain;
+		}
+
+		Object[] params(){
+			return new Object[]{ this.rid, this.customerId, this.vin, this.date, this.odometer, this.complain };
+		}
+
+		//one tab separated journal line
+		String toLine(){
+			return this.rid + "\t" + this.customerId + "\t" + escape(this.vin) + "\t" + this.date + "\t"
+				+ this.odometer + "\t" + (this.complain == null ? "\\N" : escape(this.complain)) + "\n";
+		}
+
+		static Request parse(String line){
+			String[] f = line.split("\t", -1);
+			if (f.length != 6){
+				throw new IllegalArgumentException("expected 6 fields, got " + f.length);
+			}
+			return new Request(Integer.parseInt(f[0]), Integer.parseInt(f[1]), unescape(f[2]), Date.valueOf(f[3]),
+				Integer.parseInt(f[4]), f[5].equals("\\N") ? null : unescape(f[5]));
+		}
+	}
+
+	/**
+	 * Where the batches go; MechanicShop.executeBatch outside the tests.
+	 */
+	interface BatchWriter{
+		BatchResult executeBatch(String sql, List<Object[]> rows, int batchSize) throws SQLException;
+	}
+
+	private final BatchWriter _esql;
+	private final File _file;
+	private final int _batchSize;
+	private final long _submitTimeoutMillis;
+	private final boolean _fsync;
+	private final LinkedBlockingQueue<Request> _queue = new LinkedBlockingQueue<Request>();
+	//free places in the queue; taken by submit(), given back once written
+	private final Semaphore _room;
+	private final Object _lock = new Object();
+	private final RandomAccessFile _journal;
+	private final FileLock _journalLock;
+	private final Thread _writer;
+	//requests submitted but not yet written, guarded by _lock
+	private int _pending = 0;
+	private volatile boolean _closing = false;
+
+	/**
+	 * Opens the journal, replays what an earlier run left in it and starts
+	 * the writer.
+	 *
+	 * @param esql where the requests are written
+	 * @param file the journal; only one process may use it at a time
+	 * @param capacity the most requests queued at once
+	 * @param batchSize the most requests written together
+	 * @param submitTimeoutMillis how long submit() waits for room in a full queue
+	 * @param fsync force every journal append to disk before answering
+	 * @throws java.io.IOException when the journal cannot be opened or is in use
+	 * @throws java.sql.SQLException when the replay cannot reach the database
+	 */
+	public RequestQueue(MechanicShop esql, File file, int capacity, int batchSize, long submitTimeoutMillis, boolean fsync) throws IOException, SQLException {
+		this(esql::executeBatch, file, capacity, batchSize, submitTimeoutMillis, fsync);
+	}
+
+	RequestQueue(BatchWriter esql, File file, int capacity, int batchSize, long submitTimeoutMillis, boolean fsync) throws IOException, SQLException {
+		this._esql = esql;
+		this._file = file;
+		this._batchSize = batchSize;
+		this._submitTimeoutMillis = submitTimeoutMillis;
+		this._fsync = fsync;
+		this._room = new Semaphore(capacity);
+		this._journal = new RandomAccessFile(file, "rw");
+		FileLock lock = this._journal.getChannel().tryLock();
+		if (lock == null){
+			this._journal.close();
+			throw new IOException("Journal " + file.getPath() + " is in use by another process");
+		}
+		this._journalLock = lock;
+		try{
+			replay();
+		}catch (IOException | SQLException e){
+			this._journal.close();
+			throw e;
+		}
+		this._writer = new Thread(this::drain, "request-writer");
+		this._writer.setDaemon(true);
+		this._writer.start();
+	}
+
+	/**
+	 * Queues a service request and makes it durable in the journal.
+	 *
+	 * @throws java.sql.SQLException when the queue stays full for the submit
+	 * timeout, or the queue is closed
+	 * @throws java.io.IOException when the journal cannot be written
+	 */
+	public void submit(int rid, int customerId, String vin, Date date, int odometer, String complain) throws SQLException, IOException {
+		Request r = new Request(rid, customerId, vin, date, odometer, complain);
+		try{
+			if (!this._room.tryAcquire(this._submitTimeoutMillis, TimeUnit.MILLISECONDS)){
+				throw new SQLException("Service request queue is full; the database is not keeping up");
+			}
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for the service request queue", e);
+		}
+		synchronized (this._lock){
+			try{
+				if (this._closing){
+					throw new SQLException("Service request queue is closed");
+				}
+				append(r.toLine());
+			}catch (SQLException | IOException e){
+				this._room.release();
+				throw e;
+			}
+			this._queue.add(r);
+			++this._pending;
+		}
+	}
+
+	/**
+	 * @return the requests submitted but not yet written
+	 */
+	public int getPending(){
+		synchronized (this._lock){
+			return this._pending;
+		}
+	}
+
+	/**
+	 * Waits until every request submitted so far is written.
+	 *
+	 * @return false when the timeout passed first
+	 */
+	public boolean flush(long timeoutMillis) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		synchronized (this._lock){
+			while (this._pending > 0){
+				long left = deadline - System.currentTimeMillis();
+				if (left <= 0){
+					return false;
+				}
+				this._lock.wait(left);
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Stops taking requests, writes the queued ones and closes the
+	 * journal.  Whatever could not be written within the timeout stays in
+	 * the journal for the next start.
+	 *
+	 * @return the number of requests left in the journal
+	 */
+	public int close(long timeoutMillis){
+		synchronized (this._lock){
+			this._closing = true;
+		}
+		try{
+			this._writer.join(timeoutMillis);
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+		this._writer.interrupt();
+		synchronized (this._lock){
+			try{
+				this._journalLock.release();
+				this._journal.close();
+			}catch (IOException e){
+				// ignored.
+			}
+			return this._pending;
+		}
+	}
+
+	//the writer thread: takes up to batchSize requests at a time until closed and empty
+	private void drain(){
+		List<Request> batch = new ArrayList<Request>(this._batchSize);
+		while (true){
+			Request first;
+			try{
+				first = this._queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+			}catch (InterruptedException e){
+				return;
+			}
+			if (first == null){
+				if (this._closing){
+					return;
+				}
+				continue;
+			}
+			batch.add(first);
+			this._queue.drainTo(batch, this._batchSize - 1);
+			if (!writeWithRetry(batch)){
+				return;
+			}
+			this._room.release(batch.size());
+			synchronized (this._lock){
+				this._pending -= batch.size();
+				if (this._pending == 0){
+					truncate();
+				}
+				this._lock.notifyAll();
+			}
+			batch.clear();
+		}
+	}
+
+	//keeps trying while the database is unreachable; false when interrupted by close()
+	private boolean writeWithRetry(List<Request> batch){
+		long wait = RETRY_MIN_MILLIS;
+		while (true){
+			try{
+				write(batch);
+				return true;
+			}catch (SQLException e){
+				System.err.println("Writing " + batch.size() + " queued service request(s) failed, retrying: " + e.getMessage());
+			}
+			try{
+				Thread.sleep(wait);
+			}catch (InterruptedException e){
+				return false;
+			}
+			wait = Math.min(RETRY_MAX_MILLIS, wait * 2);
+		}
+	}
+
+	private void write(List<Request> batch) throws SQLException {
+		List<Object[]> rows = new ArrayList<Object[]>(batch.size());
+		for (Request r : batch){
+			rows.add(r.params());
+		}
+		BatchResult result = this._esql.executeBatch(MechanicShop.INSERT_SERVICE_REQUEST_ONCE, rows, this._batchSize);
+		for (BatchResult.RowError e : result.getErrors()){
+			reject(batch.get(e.row), e.message);
+		}
+	}
+
+	//writes what a crashed run left in the journal, then empties it
+	private void replay() throws IOException, SQLException {
+		List<Request> left = new ArrayList<Request>();
+		BufferedReader in = new BufferedReader(new InputStreamReader(
+			Channels.newInputStream(this._journal.getChannel().position(0)), StandardCharsets.UTF_8));
+		String line;
+		while ((line = in.readLine()) != null){
+			try{
+				left.add(Request.parse(line));
+			}catch (IllegalArgumentException e){
+				//a line torn by the crash was never acknowledged
+				System.err.println("Skipping unreadable journal line: " + e.getMessage());
+			}
+		}
+		if (!left.isEmpty()){
+			System.err.println("Replaying " + left.size() + " service request(s) from " + this._file.getPath());
+			for (int from = 0; from < left.size(); from += this._batchSize){
+				write(left.subList(from, Math.min(left.size(), from + this._batchSize)));
+			}
+		}
+		truncate();
+	}
+
+	private void append(String line) throws IOException {
+		FileChannel channel = this._journal.getChannel();
+		ByteBuffer buf = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+		while (buf.hasRemaining()){
+			channel.write(buf);
+		}
+		if (this._fsync){
+			channel.force(false);
+		}
+	}
+
+	private void truncate(){
+		try{
+			FileChannel channel = this._journal.getChannel();
+			channel.truncate(0);
+			channel.position(0);
+		}catch (IOException e){
+			//the journal keeps written requests; replaying them is harmless
+			System.err.println("Unable to truncate " + this._file.getPath() + ": " + e.getMessage());
+		}
+	}
+
+	private void reject(Request r, String message){
+		System.err.println("Service request " + r.rid + " was rejected: " + message);
+		try{
+			Writer out = new OutputStreamWriter(new FileOutputStream(this._file.getPath() + ".rejected", true), StandardCharsets.UTF_8);
+			try{
+				out.write(r.toLine().replace("\n", "\t" + escape(message) + "\n"));
+			}finally{
+				out.close();
+			}
+		}catch (IOException e){
+			System.err.println("Unable to record the rejected request: " + e.getMessage());
+		}
+	}
+
+	private static String escape(String s){
+		return s.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+	}
+
+	private static String unescape(String s){
+		StringBuilder sb = new StringBuilder(s.length());
+		for (int i = 0; i < s.length(); ++i){
+			char c = s.charAt(i);
+			if (c == '\\' && i + 1 < s.length()){
+				char n = s.charAt(++i);
+				sb.append(n == 't' ? '\t' : n == 'n' ? '\n' : n == 'r' ? '\r' : n);
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+}//end RequestQueue
@@ -0,0 +1,130 @@
+import java.sql.Date;
+import java.util.List;
+
+/**
+ * This class finds the service requests whose complaint, or the comment of
+ * their closing, mentions some words, as listed by
+ * MechanicShop.pageRequestSearch.  The text is read like a web search:
+ * "brake noise" needs both words, "brake or clutch" either, "-rust"
+ * excludes a word and quotes make a phrase; words match by their stem, so
+ * "brakes" finds "braking".  The words are looked up in the GIN indexes of
+ * migration 008, and the matches are ranked by how well the complaint and
+ * comment together match, best first, with the car and the customer of
+ * each request.  The other filters, when set, are combined with AND.
+ *
+ */
+
+public class RequestSearch{
+	//the configuration the tsvector columns of migration 008 are built with
+	private static final String QUERY = "websearch_to_tsquery('english', ?)";
+
+	private static final String COLUMNS =
+		"WITH T AS (SELECT S.rid, ts_rank(S.complain_tsv || coalesce(C.comment_tsv, ''::tsvector), " + QUERY + ") AS rank,"
+		+ " S.date, S.car_vin, Car.make, Car.model, Car.year, Cu.fname, Cu.lname, S.complain, C.comment, C.date AS closed"
+		+ " FROM Service_Request S JOIN Car ON Car.vin = S.car_vin JOIN Customer Cu ON Cu.id = S.customer_id"
+		+ " LEFT JOIN Closed_Request C ON C.rid = S.rid AND C.request_date = S.date WHERE ";
+
+	private final String _text;
+	private boolean _openOnly = false;
+	private String _vin = null;
+	private Integer _beforeYear = null;
+	private Date _from = null;
+	private Date _to = null;
+
+	/**
+	 * @param text the words to look for
+	 * @throws java.lang.IllegalArgumentException when the text is empty
+	 */
+	public RequestSearch(String text){
+		this._text = text == null ? "" : text.trim();
+		if (this._text.isEmpty()){
+			throw new IllegalArgumentException("Type the words to look for");
+		}
+	}
+
+	/**
+	 * Only requests that are not closed yet; their complaint is the only
+	 * text searched.
+	 */
+	public RequestSearch openOnly(){
+		this._openOnly = true;
+		return this;
+	}
+
+	/**
+	 * Only requests for the car with this VIN, e.g. to find a complaint
+	 * that keeps coming back.
+	 */
+	public RequestSearch car(String vin){
+		this._vin = vin;
+		return this;
+	}
+
+	/**
+	 * Only requests for cars built before a year.
+	 */
+	public RequestSearch carsBefore(int year){
+		this._beforeYear = year;
+		return this;
+	}
+
+	/**
+	 * Only requests dated between from and to, both included; either may
+	 * be null to leave that end open.
+	 */
+	public RequestSearch between(Date from, Date to){
+		this._from = from;
+		this._to = to;
+		return this;
+	}
+
+	/**
+	 * Builds the query of one page.  Pages are keyed by the rank and the
+	 * rid of the last row shown; as Page keys by the first column only,
+	 * the rank of that rid is computed again for the next page.
+	 *
+	 * @param after the rid of the last row of the previous page, null for the first page
+	 * @param limit rows per page; one more is read to learn whether there is a next page
+	 * @param params receives the values of the ? placeholders, in order
+	 * @return the query, with rid in the first column
+	 */
+	String toQuery(Integer after, int limit, List<Object> params){
+		StringBuilder sql = new StringBuilder(COLUMNS);
+		params.add(this._text);
+		if (this._openOnly){
+			//no closing, so only the complaint can match
+			sql.append("S.complain_tsv @@ ").append(QUERY).append(" AND C.wid IS NULL");
+			params.add(this._text);
+		}else{
+			//each text matched by its own index, as an OR across the join could use neither
+			sql.append("(S.rid, S.date) IN (SELECT rid, date FROM Service_Request WHERE complain_tsv @@ ").append(QUERY)
+				.append(" UNION SELECT rid, request_date FROM Closed_Request WHERE comment_tsv @@ ").append(QUERY).append(")");
+			params.add(this._text);
+			params.add(this._text);
+		}
+		if (this._vin != null){
+			sql.append(" AND S.car_vin = ?");
+			params.add(this._vin);
+		}
+		if (this._beforeYear != null){
+			sql.append(" AND Car.year < ?");
+			params.add(this._beforeYear);
+		}
+		if (this._from != null){
+			sql.append(" AND S.date >= ?");
+			params.add(this._from);
+		}
+		if (this._to != null){
+			sql.append(" AND S.date <= ?");
+			params.add(this._to);
+		}
+		sql.append(") SELECT * FROM T");
+		if (after != null){
+			sql.append(" WHERE (T.rank, T.rid) < (SELECT rank, rid FROM T WHERE rid = ?)");
+			params.add(after);
+		}
+		sql.append(" ORDER BY rank DESC, rid DESC LIMIT ?;");
+		params.add(limit + 1);
+		return sql.toString();
+	}
+}//end RequestSearch
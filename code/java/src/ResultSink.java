@@ -0,0 +1,305 @@
+import java.io.BufferedWriter;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class renders query results.  A sink receives the column names once,
+ * then every row, and writes them to a single buffered Writer that is only
+ * flushed when the result is complete, so printing a large report costs a
+ * handful of system calls instead of one console write per cell.
+ *
+ * Rows are passed as a reused String array; sinks that keep rows around
+ * must copy them.
+ */
+
+public abstract class ResultSink{
+	public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+	public static final int DEFAULT_PAGE_SIZE = 50;
+
+	protected final Writer out;
+
+	protected ResultSink(Writer out){
+		this.out = out;
+	}
+
+	/**
+	 * Called before the first row with the result's column names.
+	 */
+	public abstract void begin(String[] columns) throws IOException;
+
+	/**
+	 * Called once per row with the column values; null for SQL NULL.
+	 */
+	public abstract void row(String[] values) throws IOException;
+
+	/**
+	 * Called after the last row.  Writes anything still pending and flushes.
+	 */
+	public void end() throws IOException {
+		this.out.flush();
+	}
+
+	/**
+	 * @return a large buffered writer on standard out that bypasses the
+	 * per-call locking and flushing of System.out
+	 */
+	public static Writer stdout(){
+		return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(FileDescriptor.out), StandardCharsets.UTF_8), DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Creates a sink for the given format name.
+	 *
+	 * @param format one of table, tsv, csv or json
+	 * @param out where the rendered rows are written
+	 * @param pageSize rows per page for the table format
+	 */
+	public static ResultSink forFormat(String format, Writer out, int pageSize){
+		if ("table".equalsIgnoreCase(format)){
+			return new TextTable(out, pageSize);
+		} else if ("tsv".equalsIgnoreCase(format)){
+			return new Tsv(out);
+		} else if ("csv".equalsIgnoreCase(format)){
+			return new Csv(out);
+		} else if ("json".equalsIgnoreCase(format) || "jsonl".equalsIgnoreCase(format)){
+			return new JsonLines(out);
+		}
+		throw new IllegalArgumentException("Unknown output format: " + format + " (expected table, tsv, csv or json)");
+	}
+
+	/**
+	 * Column-aligned text table.  Widths are computed per page, so output
+	 * starts after the first pageSize rows instead of after the whole result.
+	 */
+	public static class TextTable extends ResultSink{
+		private final int _pageSize;
+		private final List<String[]> _page = new ArrayList<String[]>();
+		private String[] _columns;
+
+		public TextTable(Writer out, int pageSize){
+			super(out);
+			this._pageSize = Math.max(1, pageSize);
+		}
+
+		public void begin(String[] columns){
+			this._columns = columns;
+		}
+
+		public void row(String[] values) throws IOException {
+			String[] copy = new String[values.length];
+			for (int i = 0; i < values.length; ++i){
+				copy[i] = values[i] == null ? "null" : stripTrailing(values[i]);
+			}
+			this._page.add(copy);
+			if (this._page.size() >= this._pageSize){
+				writePage();
+			}
+		}
+
+		public void end() throws IOException {
+			writePage();
+			super.end();
+		}
+
+		private void writePage() throws IOException {
+			if (this._page.isEmpty()){
+				return;
+			}
+			int[] width = new int[this._columns.length];
+			for (int i = 0; i < width.length; ++i){
+				width[i] = this._columns[i].length();
+			}
+			for (String[] r : this._page){
+				for (int i = 0; i < width.length; ++i){
+					width[i] = Math.max(width[i], r[i].length());
+				}
+			}
+			writeLine(this._columns, width);
+			for (int i = 0; i < width.length; ++i){
+				if (i > 0){
+					this.out.write("-+-");
+				}
+				repeat('-', width[i]);
+			}
+			this.out.write('\n');
+			for (String[] r : this._page){
+				writeLine(r, width);
+			}
+			this._page.clear();
+		}
+
+		private void writeLine(String[] cells, int[] width) throws IOException {
+			for (int i = 0; i < cells.length; ++i){
+				if (i > 0){
+					this.out.write(" | ");
+				}
+				this.out.write(cells[i]);
+				if (i < cells.length - 1){
+					repeat(' ', width[i] - cells[i].length());
+				}
+			}
+			this.out.write('\n');
+		}
+
+		private void repeat(char c, int n) throws IOException {
+			for (int i = 0; i < n; ++i){
+				this.out.write(c);
+			}
+		}
+
+		//CHAR(n) columns come back blank padded
+		private static String stripTrailing(String s){
+			int end = s.length();
+			while (end > 0 && s.charAt(end - 1) == ' '){
+				--end;
+			}
+			return end == s.length() ? s : s.substring(0, end);
+		}
+	}//end TextTable
+
+	/**
+	 * Tab separated values; tabs, newlines and backslashes are escaped.
+	 */
+	public static class Tsv extends ResultSink{
+		public Tsv(Writer out){
+			super(out);
+		}
+
+		public void begin(String[] columns) throws IOException {
+			row(columns);
+		}
+
+		public void row(String[] values) throws IOException {
+			for (int i = 0; i < values.length; ++i){
+				if (i > 0){
+					this.out.write('\t');
+				}
+				String v = values[i];
+				if (v == null){
+					this.out.write("\\N");
+					continue;
+				}
+				for (int j = 0; j < v.length(); ++j){
+					char c = v.charAt(j);
+					switch (c){
+						case '\t': this.out.write("\\t"); break;
+						case '\n': this.out.write("\\n"); break;
+						case '\r': this.out.write("\\r"); break;
+						case '\\': this.out.write("\\\\"); break;
+						default: this.out.write(c);
+					}
+				}
+			}
+			this.out.write('\n');
+		}
+	}//end Tsv
+
+	/**
+	 * RFC 4180 comma separated values with a header line.
+	 */
+	public static class Csv extends ResultSink{
+		public Csv(Writer out){
+			super(out);
+		}
+
+		public void begin(String[] columns) throws IOException {
+			row(columns);
+		}
+
+		public void row(String[] values) throws IOException {
+			for (int i = 0; i < values.length; ++i){
+				if (i > 0){
+					this.out.write(',');
+				}
+				String v = values[i];
+				if (v == null){
+					continue;
+				}
+				boolean quote = false;
+				for (int j = 0; j < v.length() && !quote; ++j){
+					char c = v.charAt(j);
+					quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+				}
+				if (!quote){
+					this.out.write(v);
+					continue;
+				}
+				this.out.write('"');
+				for (int j = 0; j < v.length(); ++j){
+					char c = v.charAt(j);
+					if (c == '"'){
+						this.out.write('"');
+					}
+					this.out.write(c);
+				}
+				this.out.write('"');
+			}
+			this.out.write("\r\n");
+		}
+	}//end Csv
+
+	/**
+	 * One JSON object per row, keyed by column name.
+	 */
+	public static class JsonLines extends ResultSink{
+		private String[] _keys;
+
+		public JsonLines(Writer out){
+			super(out);
+		}
+
+		public void begin(String[] columns){
+			this._keys = new String[columns.length];
+			for (int i = 0; i < columns.length; ++i){
+				StringBuilder sb = new StringBuilder();
+				quote(sb, columns[i]);
+				this._keys[i] = sb.append(':').toString();
+			}
+		}
+
+		public void row(String[] values) throws IOException {
+			StringBuilder sb = new StringBuilder(128);
+			sb.append('{');
+			for (int i = 0; i < values.length; ++i){
+				if (i > 0){
+					sb.append(',');
+				}
+				sb.append(this._keys[i]);
+				if (values[i] == null){
+					sb.append("null");
+				} else {
+					quote(sb, values[i]);
+				}
+			}
+			sb.append("}\n");
+			this.out.append(sb);
+		}
+
+		private static void quote(StringBuilder sb, String s){
+			sb.append('"');
+			for (int i = 0; i < s.length(); ++i){
+				char c = s.charAt(i);
+				switch (c){
+					case '"': sb.append("\\\""); break;
+					case '\\': sb.append("\\\\"); break;
+					case '\n': sb.append("\\n"); break;
+					case '\r': sb.append("\\r"); break;
+					case '\t': sb.append("\\t"); break;
+					default:
+						if (c < 0x20){
+							sb.append(String.format("\\u%04x", (int) c));
+						} else {
+							sb.append(c);
+						}
+				}
+			}
+			sb.append('"');
+		}
+	}//end JsonLines
+}//end ResultSink
@@ -0,0 +1,13 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Callback used by MechanicShop.executeQueryAndStream.  It is called once
+ * per row while the result set is positioned on that row; it must not keep
+ * a reference to the result set after returning.
+ *
+ */
+
+public interface RowHandler{
+	void handleRow(ResultSet rs) throws SQLException;
+}//end RowHandler
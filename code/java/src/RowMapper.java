@@ -0,0 +1,19 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Turns the current row of a result set into one typed value, reading the
+ * columns with getInt, getDate and friends instead of going through
+ * strings.  Used by MechanicShop.executeQueryAndMap; like RowHandler it
+ * must not keep a reference to the result set.  The MAPPER of each row
+ * class (Customer, Car, ServiceRequest, ...) reads the columns by name,
+ * so it fits SELECT * as well as any select list holding them.
+ *
+ */
+
+public interface RowMapper<T>{
+	//the first column as an int
+	RowMapper<Integer> FIRST_INT = rs -> rs.getInt(1);
+
+	T map(ResultSet rs) throws SQLException;
+}//end RowMapper
@@ -0,0 +1,52 @@
+import java.sql.Date;
+
+/**
+ * A row of Service_Request.  The complaint may be null.
+ *
+ */
+
+public final class ServiceRequest{
+	public static final RowMapper<ServiceRequest> MAPPER = rs -> new ServiceRequest(rs.getInt("rid"),
+		rs.getInt("customer_id"), rs.getString("car_vin"), rs.getDate("date"), rs.getInt("odometer"),
+		rs.getString("complain"));
+
+	private final int _rid;
+	private final int _customerId;
+	private final String _carVin;
+	private final Date _date;
+	private final int _odometer;
+	private final String _complain;
+
+	public ServiceRequest(int rid, int customerId, String carVin, Date date, int odometer, String complain){
+		this._rid = rid;
+		this._customerId = customerId;
+		this._carVin = carVin;
+		this._date = date;
+		this._odometer = odometer;
+		this._complain = complain;
+	}
+
+	public int getRid(){
+		return this._rid;
+	}
+
+	public int getCustomerId(){
+		return this._customerId;
+	}
+
+	public String getCarVin(){
+		return this._carVin;
+	}
+
+	public Date getDate(){
+		return this._date;
+	}
+
+	public int getOdometer(){
+		return this._odometer;
+	}
+
+	public String getComplain(){
+		return this._complain;
+	}
+}//end ServiceRequest
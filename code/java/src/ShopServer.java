@@ -0,0 +1,223 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class serves the shop operations to many front desks at once over a
+ * plain TCP line protocol, so the desks share one JVM and one connection
+ * pool instead of running a client each.
+ *
+ * A desk sends one command per line, written as in a script (see
+ * CommandRunner.USAGE_TEXT).  The server answers with the output of the
+ * command followed by a line "END &lt;status&gt;", where status is
+ * CommandRunner.OK, FAILED or USAGE.  "quit" ends the session.  Every
+ * session runs on its own thread with its own CommandRunner; the
+ * MechanicShop underneath is shared, and its bounded connection pool
+ * limits how many statements run against the database at once.  Sessions
+ * beyond the limit are turned away with "error: server busy".
+ *
+ * The protocol has no authentication, so the server listens on the
+ * loopback interface unless another address is given explicitly, and the
+ * sessions may not run the commands that write files, change the schema
+ * or do maintenance (see CommandRunner).
+ *
+ */
+
+public class ShopServer{
+	public static final int DEFAULT_PORT = 5166;
+	public static final int DEFAULT_SESSIONS = 64;
+	//a session that sends nothing for this long is closed
+	private static final int IDLE_TIMEOUT_MILLIS = Integer.getInteger("mechanicshop.server.idleTimeoutMs", 30 * 60 * 1000);
+	private static final long STOP_WAIT_MILLIS = 5000;
+
+	private final MechanicShop _esql;
+	private final InetAddress _address;
+	private final int _port;
+	private final ThreadPoolExecutor _sessions;
+	private final Set<Socket> _open = ConcurrentHashMap.newKeySet();
+	private final AtomicInteger _accepted = new AtomicInteger();
+	private final AtomicInteger _rejected = new AtomicInteger();
+	private volatile ServerSocket _listener = null;
+	private volatile boolean _stopped = false;
+
+	/**
+	 * Listens on the loopback interface only.
+	 *
+	 * @param esql the connected MechanicShop shared by all sessions
+	 * @param port the TCP port to listen on
+	 * @param maxSessions how many desks may be connected at once
+	 */
+	public ShopServer(MechanicShop esql, int port, int maxSessions){
+		this(esql, InetAddress.getLoopbackAddress(), port, maxSessions);
+	}
+
+	/**
+	 * @param esql the connected MechanicShop shared by all sessions
+	 * @param address the local address to listen on; anything but the
+	 * loopback address lets other hosts in, without authentication
+	 * @param port the TCP port to listen on
+	 * @param maxSessions how many desks may be connected at once
+	 */
+	public ShopServer(MechanicShop esql, InetAddress address, int port, int maxSessions){
+		this._esql = esql;
+		this._address = address;
+		this._port = port;
+		final AtomicInteger threads = new AtomicInteger();
+		//no queue: a session either gets a thread right away or is turned away
+		this._sessions = new ThreadPoolExecutor(maxSessions, maxSessions, 60, TimeUnit.SECONDS,
+			new SynchronousQueue<Runnable>(), r -> {
+				Thread t = new Thread(r, "session-" + threads.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			});
+		this._sessions.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Accepts sessions until stop() is called.
+	 *
+	 * @param log where the server reports that it is listening
+	 * @throws java.io.IOException when the port cannot be bound
+	 */
+	public void serve(PrintStream log) throws IOException {
+		ServerSocket listener = new ServerSocket(this._port, 0, this._address);
+		this._listener = listener;
+		if (this._stopped){
+			listener.close();
+			return;
+		}
+		log.println("Listening on " + this._address.getHostAddress() + " port " + listener.getLocalPort() + " for up to "
+			+ this._sessions.getMaximumPoolSize() + " sessions");
+		log.flush();
+		try{
+			while (!this._stopped){
+				final Socket socket;
+				try{
+					socket = listener.accept();
+				}catch (SocketException e){
+					//closed by stop()
+					if (this._stopped){
+						break;
+					}
+					throw e;
+				}
+				this._accepted.incrementAndGet();
+				try{
+					this._sessions.execute(() -> session(socket));
+				}catch (RejectedExecutionException e){
+					this._rejected.incrementAndGet();
+					refuse(socket);
+				}
+			}
+		}finally{
+			listener.close();
+		}
+	}
+
+	/**
+	 * Stops accepting sessions, closes the open ones and waits briefly for
+	 * their commands to finish.
+	 */
+	public void stop(){
+		this._stopped = true;
+		try{
+			if (this._listener != null){
+				this._listener.close();
+			}
+		}catch (IOException e){
+			// ignored.
+		}
+		this._sessions.shutdown();
+		for (Socket s : this._open){
+			closeQuietly(s);
+		}
+		try{
+			this._sessions.awaitTermination(STOP_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @return the port the server listens on, once serve() bound it
+	 */
+	public int getPort(){
+		ServerSocket listener = this._listener;
+		return listener != null ? listener.getLocalPort() : this._port;
+	}
+
+	public int getActiveSessions(){ return this._sessions.getActiveCount(); }
+	public int getAcceptedSessions(){ return this._accepted.get(); }
+	public int getRejectedSessions(){ return this._rejected.get(); }
+
+	private void session(Socket socket){
+		this._open.add(socket);
+		try{
+			socket.setSoTimeout(IDLE_TIMEOUT_MILLIS);
+			socket.setTcpNoDelay(true);
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+			PrintStream out = new PrintStream(new BufferedOutputStream(socket.getOutputStream()), false, "UTF-8");
+			CommandRunner runner = new CommandRunner(this._esql, out, out, true);
+			String line;
+			try{
+				while (!this._stopped && (line = in.readLine()) != null){
+					String trimmed = line.trim();
+					if (trimmed.equals("quit")){
+						break;
+					}
+					int status = CommandRunner.OK;
+					if (!trimmed.isEmpty() && !trimmed.startsWith("#")){
+						status = runner.run(CommandRunner.tokenize(trimmed));
+					}
+					out.println("END " + status);
+					out.flush();
+				}
+			}catch (SocketTimeoutException e){
+				out.println("error: idle for " + IDLE_TIMEOUT_MILLIS / 1000 + " s, closing the session");
+				out.flush();
+			}
+		}catch (IOException e){
+			// the desk went away; nothing to answer
+		}finally{
+			this._open.remove(socket);
+			closeQuietly(socket);
+		}
+	}
+
+	//answers a session that found every thread busy, then hangs up
+	private static void refuse(Socket socket){
+		try{
+			PrintStream out = new PrintStream(socket.getOutputStream(), false, "UTF-8");
+			out.println("error: server busy, try again later");
+			out.println("END " + CommandRunner.FAILED);
+			out.flush();
+		}catch (IOException e){
+			// ignored.
+		}finally{
+			closeQuietly(socket);
+		}
+	}
+
+	private static void closeQuietly(Socket socket){
+		try{
+			socket.close();
+		}catch (IOException e){
+			// ignored.
+		}
+	}
+}//end ShopServer
@@ -0,0 +1,122 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class keeps the most recently used PreparedStatements of one
+ * connection, keyed by their SQL text.  Reusing the same PreparedStatement
+ * lets the PostgreSQL driver switch to a server-side prepared plan instead
+ * of parsing and planning the query on every call.
+ *
+ * A cache belongs to exactly one connection and is only touched by the
+ * thread that currently borrowed that connection, so it is not synchronized.
+ */
+
+public class StatementCache{
+
+	/**
+	 * Hit/miss counters shared by all caches of one connection pool.
+	 */
+	public static class Stats{
+		private final AtomicLong _hits = new AtomicLong();
+		private final AtomicLong _misses = new AtomicLong();
+		private final AtomicLong _evictions = new AtomicLong();
+
+		public long getHits(){ return this._hits.get(); }
+		public long getMisses(){ return this._misses.get(); }
+		public long getEvictions(){ return this._evictions.get(); }
+
+		public double getHitRatio(){
+			long hits = this._hits.get();
+			long total = hits + this._misses.get();
+			return total == 0 ? 0.0 : (double) hits / total;
+		}
+
+		public String toString(){
+			return String.format("statements[hits=%d misses=%d evictions=%d hitRatio=%.3f]",
+				getHits(), getMisses(), getEvictions(), getHitRatio());
+		}
+	}//end Stats
+
+	private final Connection _connection;
+	private final Stats _stats;
+	private final Map<String, PreparedStatement> _statements;
+
+	/**
+	 * @param connection the connection the statements are prepared on
+	 * @param capacity maximum number of statements kept open
+	 * @param stats counters to report hits and misses to
+	 */
+	public StatementCache(Connection connection, final int capacity, Stats stats){
+		this._connection = connection;
+		this._stats = stats;
+		this._statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true){
+			protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest){
+				if (size() <= capacity){
+					return false;
+				}
+				_stats._evictions.incrementAndGet();
+				closeQuietly(eldest.getValue());
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Returns the cached statement for the given SQL text, preparing it on
+	 * a miss.  The statement's parameters are cleared; callers must not
+	 * close it.
+	 *
+	 * @param sql the SQL text with ? placeholders
+	 * @return a ready to bind PreparedStatement
+	 * @throws java.sql.SQLException when the statement cannot be prepared
+	 */
+	public PreparedStatement prepare(String sql) throws SQLException {
+		PreparedStatement ps = this._statements.get(sql);
+		if (ps != null && !ps.isClosed()){
+			this._stats._hits.incrementAndGet();
+			ps.clearParameters();
+			return ps;
+		}
+		this._stats._misses.incrementAndGet();
+		ps = this._connection.prepareStatement(sql);
+		this._statements.put(sql, ps);
+		return ps;
+	}
+
+	/**
+	 * Drops a statement from the cache, e.g. after it failed in a way that
+	 * leaves it unusable.
+	 */
+	public void evict(String sql){
+		closeQuietly(this._statements.remove(sql));
+	}
+
+	/**
+	 * Closes every cached statement.
+	 */
+	public void close(){
+		for (PreparedStatement ps : this._statements.values()){
+			closeQuietly(ps);
+		}
+		this._statements.clear();
+	}
+
+	public int size(){
+		return this._statements.size();
+	}
+
+	private static void closeQuietly(PreparedStatement ps){
+		if (ps == null){
+			return;
+		}
+		try{
+			ps.close();
+		}catch (SQLException e){
+			// ignored.
+		}
+	}
+}//end StatementCache
@@ -0,0 +1,99 @@
+import java.sql.Date;
+import java.util.List;
+
+/**
+ * This class narrows report 9, the K cars with the most service requests,
+ * to a make, a model and a date range.  Cars with the same count are
+ * ordered by VIN, so the same data always gives the same K cars.
+ *
+ * Without a date range the counts come from Car_Service_Count and the
+ * top K are read straight off its (num DESC, car_vin) index.  A date
+ * range has to count the requests again, but the filters are applied
+ * before the GROUP BY, so only the requests in the range, and of the
+ * matching cars, are read and counted.
+ *
+ */
+
+public class TopCarsFilter{
+	private String _make = null;
+	private String _model = null;
+	private Date _from = null;
+	private Date _to = null;
+
+	/**
+	 * Only cars of this make.
+	 */
+	public TopCarsFilter make(String make){
+		this._make = make;
+		return this;
+	}
+
+	/**
+	 * Only cars of this model.
+	 */
+	public TopCarsFilter model(String model){
+		this._model = model;
+		return this;
+	}
+
+	/**
+	 * Only count the requests dated between from and to, both included;
+	 * either may be null to leave that end open.
+	 */
+	public TopCarsFilter between(Date from, Date to){
+		this._from = from;
+		this._to = to;
+		return this;
+	}
+
+	/**
+	 * Builds the report query.  Only the filters that are set end up in the
+	 * SQL.
+	 *
+	 * @param k the number of cars listed
+	 * @param params receives the values of the ? placeholders, in order
+	 * @return the query, with the columns make, model and num
+	 */
+	String toQuery(int k, List<Object> params){
+		if (this._make == null && this._model == null && this._from == null && this._to == null){
+			params.add(k);
+			return MechanicShop.REPORT_K_MOST_SERVICED_CARS;
+		}
+		StringBuilder counts = new StringBuilder();
+		boolean dated = this._from != null || this._to != null;
+		String car;
+		if (dated){
+			counts.append("SELECT S.car_vin, COUNT(*) AS num FROM Service_Request S WHERE TRUE");
+			if (this._from != null){
+				counts.append(" AND S.date >= ?");
+				params.add(this._from);
+			}
+			if (this._to != null){
+				counts.append(" AND S.date <= ?");
+				params.add(this._to);
+			}
+			car = "S.car_vin";
+		} else {
+			counts.append("SELECT N.car_vin, N.num FROM Car_Service_Count N WHERE TRUE");
+			car = "N.car_vin";
+		}
+		if (this._make != null || this._model != null){
+			counts.append(" AND ").append(car).append(" IN (SELECT vin FROM Car WHERE TRUE");
+			if (this._make != null){
+				counts.append(" AND make = ?");
+				params.add(this._make);
+			}
+			if (this._model != null){
+				counts.append(" AND model = ?");
+				params.add(this._model);
+			}
+			counts.append(")");
+		}
+		if (dated){
+			counts.append(" GROUP BY S.car_vin");
+		}
+		params.add(k);
+		return "SELECT C.make, C.model, NOC.num FROM Car C, (" + counts + ") NOC WHERE NOC.car_vin = C.vin"
+			+ " ORDER BY NOC.num DESC, NOC.car_vin LIMIT ?;";
+	}
+}//end TopCarsFilter
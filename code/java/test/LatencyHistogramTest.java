@@ -0,0 +1,83 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Tests of LatencyHistogram: counts, mean and max are exact, percentiles
+ * are within the 12.5% of a bucket.
+ */
+
+public class LatencyHistogramTest{
+
+	@Test
+	public void emptyHistogramReadsZero(){
+		LatencyHistogram h = new LatencyHistogram();
+		assertEquals(0, h.getCount());
+		assertEquals(0.0, h.getMeanMillis(), 0.0);
+		assertEquals(0.0, h.getPercentileMillis(0.5), 0.0);
+		assertEquals(0.0, h.getPercentileMillis(0.99), 0.0);
+	}
+
+	@Test
+	public void countMeanAndMaxAreExact(){
+		LatencyHistogram h = new LatencyHistogram();
+		h.record(TimeUnit.MILLISECONDS.toNanos(1));
+		h.record(TimeUnit.MILLISECONDS.toNanos(2));
+		h.record(TimeUnit.MILLISECONDS.toNanos(6));
+		assertEquals(3, h.getCount());
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(9), h.getSumNanos());
+		assertEquals(3.0, h.getMeanMillis(), 1e-9);
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(6), h.getMaxNanos());
+	}
+
+	@Test
+	public void negativeDurationsCountAsZero(){
+		LatencyHistogram h = new LatencyHistogram();
+		h.record(-5000);
+		assertEquals(1, h.getCount());
+		assertEquals(0, h.getSumNanos());
+		assertEquals(0, h.getMaxNanos());
+		assertEquals(0.0, h.getPercentileMillis(1.0), 0.0);
+	}
+
+	@Test
+	public void percentilesAreWithinABucket(){
+		LatencyHistogram h = new LatencyHistogram();
+		//1 to 1000 milliseconds, one each
+		for (int ms = 1; ms <= 1000; ++ms){
+			h.record(TimeUnit.MILLISECONDS.toNanos(ms));
+		}
+		assertClose(500, h.getPercentileMillis(0.5));
+		assertClose(900, h.getPercentileMillis(0.9));
+		assertClose(990, h.getPercentileMillis(0.99));
+		assertClose(1, h.getPercentileMillis(0.0));
+		//never beyond the largest duration seen
+		assertTrue(h.getPercentileMillis(1.0) <= 1000.0);
+	}
+
+	@Test
+	public void smallDurationsGetABucketEach(){
+		LatencyHistogram h = new LatencyHistogram();
+		for (int us = 0; us < 8; ++us){
+			h.record(TimeUnit.MICROSECONDS.toNanos(us));
+		}
+		//the middle of the 3 microsecond bucket
+		assertEquals(0.0035, h.getPercentileMillis(0.5), 1e-9);
+	}
+
+	@Test
+	public void hugeDurationsShareTheLastBucket(){
+		LatencyHistogram h = new LatencyHistogram();
+		h.record(TimeUnit.DAYS.toNanos(2));
+		assertEquals(1, h.getCount());
+		double p50 = h.getPercentileMillis(0.5);
+		assertTrue(p50 >= TimeUnit.HOURS.toMillis(9) && p50 <= TimeUnit.DAYS.toMillis(2));
+	}
+
+	private static void assertClose(double expected, double actual){
+		assertTrue("expected about " + expected + " but was " + actual, Math.abs(actual - expected) <= expected * 0.125);
+	}
+}//end LatencyHistogramTest
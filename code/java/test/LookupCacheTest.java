@@ -0,0 +1,126 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests of LookupCache: time to live, least recently used eviction,
+ * invalidation by table and by generation, and typed entries.
+ */
+
+public class LookupCacheTest{
+	private static final String QUERY = "SELECT * FROM Customer WHERE id = ?;";
+	private static final String OTHER_QUERY = "SELECT * FROM Mechanic WHERE id = ?;";
+
+	@Test
+	public void hitAfterPut(){
+		LookupCache cache = new LookupCache(10, 60000);
+		Object[] params = { 1 };
+		assertNull(cache.get(QUERY, params));
+		LookupCache.Result result = new LookupCache.Result();
+		cache.put("customer", QUERY, params, result, cache.generation());
+		assertSame(result, cache.get(QUERY, new Object[]{ 1 }));
+		assertNull(cache.get(QUERY, new Object[]{ 2 }));
+		assertEquals(1, cache.getStats().getHits());
+		assertEquals(2, cache.getStats().getMisses());
+	}
+
+	@Test
+	public void entriesExpire() throws InterruptedException {
+		LookupCache cache = new LookupCache(10, 1);
+		Object[] params = { 1 };
+		cache.put("customer", QUERY, params, new LookupCache.Result(), cache.generation());
+		Thread.sleep(20);
+		assertNull(cache.get(QUERY, params));
+		assertEquals(1, cache.getStats().getExpirations());
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void leastRecentlyUsedIsEvicted(){
+		LookupCache cache = new LookupCache(2, 60000);
+		LookupCache.Result one = new LookupCache.Result();
+		LookupCache.Result two = new LookupCache.Result();
+		LookupCache.Result three = new LookupCache.Result();
+		cache.put("customer", QUERY, new Object[]{ 1 }, one, cache.generation());
+		cache.put("customer", QUERY, new Object[]{ 2 }, two, cache.generation());
+		//reading 1 makes 2 the least recently used
+		assertSame(one, cache.get(QUERY, new Object[]{ 1 }));
+		cache.put("customer", QUERY, new Object[]{ 3 }, three, cache.generation());
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.getStats().getEvictions());
+		assertSame(one, cache.get(QUERY, new Object[]{ 1 }));
+		assertNull(cache.get(QUERY, new Object[]{ 2 }));
+		assertSame(three, cache.get(QUERY, new Object[]{ 3 }));
+	}
+
+	@Test
+	public void invalidateDropsOnlyThatTable(){
+		LookupCache cache = new LookupCache(10, 60000);
+		cache.put("customer", QUERY, new Object[]{ 1 }, new LookupCache.Result(), cache.generation());
+		cache.put("mechanic", OTHER_QUERY, new Object[]{ 1 }, new LookupCache.Result(), cache.generation());
+		cache.invalidate("customer");
+		assertNull(cache.get(QUERY, new Object[]{ 1 }));
+		assertNotNull(cache.get(OTHER_QUERY, new Object[]{ 1 }));
+		assertEquals(1, cache.getStats().getInvalidations());
+	}
+
+	@Test
+	public void readStartedBeforeAnInvalidationIsNotCached(){
+		LookupCache cache = new LookupCache(10, 60000);
+		long generation = cache.generation();
+		//another client writes a table while the read is running
+		cache.invalidate("owns");
+		cache.put("customer", QUERY, new Object[]{ 1 }, new LookupCache.Result(), generation);
+		assertNull(cache.get(QUERY, new Object[]{ 1 }));
+		List<Integer> values = cache.put("customer", QUERY, RowMapper.FIRST_INT, new Object[]{ 1 }, Arrays.asList(7), generation);
+		assertEquals(Arrays.asList(7), values);
+		assertNull(cache.get(QUERY, RowMapper.FIRST_INT, new Object[]{ 1 }));
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void clearDropsEverything(){
+		LookupCache cache = new LookupCache(10, 60000);
+		long generation = cache.generation();
+		cache.put("customer", QUERY, new Object[]{ 1 }, new LookupCache.Result(), generation);
+		cache.put("mechanic", OTHER_QUERY, new Object[]{ 1 }, new LookupCache.Result(), generation);
+		cache.clear();
+		assertEquals(0, cache.size());
+		assertTrue(cache.generation() != generation);
+	}
+
+	@Test
+	public void typedEntriesAreKeptApartFromText(){
+		LookupCache cache = new LookupCache(10, 60000);
+		Object[] params = { 1 };
+		LookupCache.Result text = new LookupCache.Result();
+		cache.put("customer", QUERY, params, text, cache.generation());
+		assertNull(cache.get(QUERY, RowMapper.FIRST_INT, params));
+		cache.put("customer", QUERY, RowMapper.FIRST_INT, params, Arrays.asList(7), cache.generation());
+		assertSame(text, cache.get(QUERY, params));
+		assertEquals(Arrays.asList(7), cache.get(QUERY, RowMapper.FIRST_INT, params));
+		assertEquals(2, cache.size());
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void typedEntriesAreReadOnly(){
+		LookupCache cache = new LookupCache(10, 60000);
+		cache.put("customer", QUERY, RowMapper.FIRST_INT, new Object[]{ 1 }, Arrays.asList(7), cache.generation());
+		cache.get(QUERY, RowMapper.FIRST_INT, new Object[]{ 1 }).set(0, 8);
+	}
+
+	@Test
+	public void zeroCapacityOrTtlDisables(){
+		assertFalse(new LookupCache(0, 60000).isEnabled());
+		assertFalse(new LookupCache(10, 0).isEnabled());
+		assertTrue(new LookupCache(10, 60000).isEnabled());
+	}
+}//end LookupCacheTest
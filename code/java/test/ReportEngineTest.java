@@ -0,0 +1,286 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of ReportEngine on a small shop held in memory.  The expected rows
+ * are what the REPORT_ queries of MechanicShop return on the same rows;
+ * reports 6 and 7 are unordered in SQL and compared as sets.
+ */
+
+public class ReportEngineTest{
+	private Tables _db;
+	private ReportEngine _engine;
+
+	@Before
+	public void load(){
+		this._db = new Tables();
+		this._db.customer(1, "Ann", "Lee");
+		this._db.customer(2, "Bob", "Ray");
+		this._db.customer(3, "Cy", "Fox");
+		this._db.car("VIN1", "Ford", "T", 1990);
+		this._db.car("VIN2", "Honda", "Civic", 2000);
+		this._db.car("VIN3", "Ford", "T", 1990);
+		this._db.car("VIN4", "Mazda", "Miata", 1994);
+		//Ann owns 21 cars, Bob 20, Cy 1
+		int ownership = 0;
+		for (int i = 0; i < 21; ++i){
+			this._db.owns(ownership++, 1);
+		}
+		for (int i = 0; i < 20; ++i){
+			this._db.owns(ownership++, 2);
+		}
+		this._db.owns(ownership++, 3);
+		this._db.serviceRequest(10, 1, "VIN1", 40000);
+		this._db.serviceRequest(11, 1, "VIN1", 60000);
+		this._db.serviceRequest(12, 2, "VIN2", 10000);
+		this._db.serviceRequest(13, 3, "VIN3", 49999);
+		this._db.serviceRequest(14, 2, "VIN4", 50000);
+		this._db.serviceRequest(15, 3, "VIN2", 5);
+		this._db.serviceRequest(16, 1, "VIN4", 100);
+		this._db.closedRequest(100, 10, "2021-01-05", "ok", 50);
+		this._db.closedRequest(101, 11, "2021-01-06", "fine", 150);
+		this._db.closedRequest(102, 12, "2021-01-07", null, 99);
+		this._db.closedRequest(103, 13, "2021-01-08", "done", 100);
+		this._db.closedRequest(104, 15, "2021-01-09", "ok", 300);
+		this._engine = new ReportEngine(null, this._db, 0, 1);
+	}
+
+	@Test
+	public void answersOnlyOnceLoaded() throws SQLException {
+		assertFalse(this._engine.isLoaded());
+		assertFalse(this._engine.answers(MechanicShop.REPORT_TOTAL_BILL));
+		this._engine.refresh();
+		assertTrue(this._engine.answers(MechanicShop.REPORT_TOTAL_BILL));
+		assertFalse(this._engine.answers("SELECT * FROM Customer;"));
+		this._engine.reset();
+		assertFalse(this._engine.isLoaded());
+	}
+
+	@Test
+	public void billLessThan100() throws SQLException {
+		this._engine.refresh();
+		assertEquals(set(row("2021-01-05", "ok", "50"), row("2021-01-07", null, "99")),
+			new HashSet<List<String>>(report(MechanicShop.REPORT_BILL_LESS_THAN_100)));
+	}
+
+	@Test
+	public void moreThan20Cars() throws SQLException {
+		this._engine.refresh();
+		assertEquals(set(row("Ann", "Lee")), new HashSet<List<String>>(report(MechanicShop.REPORT_MORE_THAN_20_CARS)));
+	}
+
+	@Test
+	public void carsBefore1995() throws SQLException {
+		this._engine.refresh();
+		//VIN1 and VIN3 are both a 1990 Ford T and come out once; VIN4 at
+		//50000 miles does not count but its request at 100 miles does
+		assertEquals(Arrays.asList(row("Ford", "T", "1990"), row("Mazda", "Miata", "1994")),
+			report(MechanicShop.REPORT_CARS_BEFORE_1995));
+	}
+
+	@Test
+	public void mostServicedCarsBreaksTiesByVin() throws SQLException {
+		this._engine.refresh();
+		assertEquals(Arrays.asList(row("Ford", "T", "2"), row("Honda", "Civic", "2")),
+			report(MechanicShop.REPORT_K_MOST_SERVICED_CARS, 2));
+		assertEquals(Arrays.asList(row("Ford", "T", "2"), row("Honda", "Civic", "2"), row("Mazda", "Miata", "2"), row("Ford", "T", "1")),
+			report(MechanicShop.REPORT_K_MOST_SERVICED_CARS, 10));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void mostServicedCarsNeedsAPositiveK() throws SQLException {
+		this._engine.refresh();
+		report(MechanicShop.REPORT_K_MOST_SERVICED_CARS, 0);
+	}
+
+	@Test
+	public void totalBill() throws SQLException {
+		this._engine.refresh();
+		assertEquals(Arrays.asList(row("Cy", "Fox", "400"), row("Ann", "Lee", "200"), row("Bob", "Ray", "99")),
+			report(MechanicShop.REPORT_TOTAL_BILL));
+	}
+
+	@Test
+	public void refreshAddsOnlyNewRows() throws SQLException {
+		assertEquals(42 + 7 + 5, this._engine.refresh());
+		//reread rows within the look-back are not counted twice
+		assertEquals(0, this._engine.refresh());
+		this._db.customer(4, "Di", "Orr");
+		this._db.serviceRequest(17, 4, "VIN2", 70000);
+		this._db.closedRequest(105, 17, "2021-02-01", "big", 500);
+		assertEquals(2, this._engine.refresh());
+		assertEquals(Arrays.asList(row("Di", "Orr", "500"), row("Cy", "Fox", "400"), row("Ann", "Lee", "200"), row("Bob", "Ray", "99")),
+			report(MechanicShop.REPORT_TOTAL_BILL));
+		assertEquals(Arrays.asList(row("Honda", "Civic", "3")), report(MechanicShop.REPORT_K_MOST_SERVICED_CARS, 1));
+	}
+
+	@Test
+	public void closingReadBeforeItsRequestIsBilledLater() throws SQLException {
+		this._engine.refresh();
+		//the closing is committed, the request reserved earlier is not yet
+		this._db.closedRequest(105, 18, "2021-02-01", "late", 1000);
+		this._engine.refresh();
+		assertEquals(row("Cy", "Fox", "400"), report(MechanicShop.REPORT_TOTAL_BILL).get(0));
+		this._db.serviceRequest(18, 2, "VIN2", 100);
+		this._engine.refresh();
+		assertEquals(row("Bob", "Ray", "1099"), report(MechanicShop.REPORT_TOTAL_BILL).get(0));
+	}
+
+	@Test
+	public void resetReadsEverythingAgain() throws SQLException {
+		this._engine.refresh();
+		this._db.closed.clear();
+		this._engine.reset();
+		this._engine.refresh();
+		assertTrue(report(MechanicShop.REPORT_TOTAL_BILL).isEmpty());
+		assertTrue(report(MechanicShop.REPORT_BILL_LESS_THAN_100).isEmpty());
+	}
+
+	private List<List<String>> report(String query, Object... params) throws SQLException {
+		Rows sink = new Rows();
+		assertEquals(this._engine.write(sink, query, params), sink.rows.size());
+		return sink.rows;
+	}
+
+	private static List<String> row(String... values){
+		return Arrays.asList(values);
+	}
+
+	@SafeVarargs
+	private static Set<List<String>> set(List<String>... rows){
+		return new HashSet<List<String>>(Arrays.asList(rows));
+	}
+
+	/**
+	 * The tables, answering the queries ReportEngine reads them with.
+	 */
+	private static class Tables implements ReportEngine.RowSource{
+		final List<Object[]> customers = new ArrayList<Object[]>();
+		final List<Object[]> cars = new ArrayList<Object[]>();
+		final List<Object[]> owns = new ArrayList<Object[]>();
+		final List<Object[]> requests = new ArrayList<Object[]>();
+		final List<Object[]> closed = new ArrayList<Object[]>();
+
+		void customer(int id, String fname, String lname){
+			this.customers.add(new Object[]{ id, fname, lname });
+		}
+
+		void car(String vin, String make, String model, int year){
+			this.cars.add(new Object[]{ vin, make, model, year });
+		}
+
+		void owns(int ownershipId, int customerId){
+			this.owns.add(new Object[]{ ownershipId, customerId });
+		}
+
+		void serviceRequest(int rid, int customerId, String vin, int odometer){
+			this.requests.add(new Object[]{ rid, customerId, vin, odometer });
+		}
+
+		void closedRequest(int wid, int rid, String date, String comment, int bill){
+			this.closed.add(new Object[]{ wid, rid, Date.valueOf(date), comment, bill });
+		}
+
+		public int executeQueryAndStream(String query, int fetchSize, RowHandler handler, Object... params) throws SQLException {
+			List<Object[]> rows = new ArrayList<Object[]>();
+			if (query.equals(ReportEngine.ALL_CUSTOMERS)){
+				rows.addAll(this.customers);
+			} else if (query.equals(ReportEngine.ALL_CARS)){
+				rows.addAll(this.cars);
+			} else if (query.equals(ReportEngine.CUSTOMERS_IN)){
+				rows.addAll(in(this.customers, params[0]));
+			} else if (query.equals(ReportEngine.CARS_IN)){
+				rows.addAll(in(this.cars, params[0]));
+			} else if (query.equals(ReportEngine.OWNS_AFTER)){
+				rows.addAll(after(this.owns, params[0]));
+			} else if (query.equals(ReportEngine.SERVICE_REQUESTS_AFTER)){
+				rows.addAll(after(this.requests, params[0]));
+			} else if (query.equals(ReportEngine.CLOSED_REQUESTS_AFTER)){
+				rows.addAll(after(this.closed, params[0]));
+			} else {
+				throw new SQLException("Unexpected query: " + query);
+			}
+			for (Object[] row : rows){
+				handler.handleRow(resultSet(row));
+			}
+			return rows.size();
+		}
+
+		//the rows keyed above the parameter
+		private static List<Object[]> after(List<Object[]> table, Object key){
+			List<Object[]> rows = new ArrayList<Object[]>();
+			for (Object[] row : table){
+				if ((Integer) row[0] > ((Number) key).intValue()){
+					rows.add(row);
+				}
+			}
+			return rows;
+		}
+
+		//the rows keyed in a {a,"b"} array literal
+		private static List<Object[]> in(List<Object[]> table, Object array){
+			Set<String> keys = new HashSet<String>();
+			String literal = (String) array;
+			for (String key : literal.substring(1, literal.length() - 1).split(",")){
+				keys.add(key.replace("\"", ""));
+			}
+			List<Object[]> rows = new ArrayList<Object[]>();
+			for (Object[] row : table){
+				if (keys.contains(row[0].toString())){
+					rows.add(row);
+				}
+			}
+			return rows;
+		}
+
+		//a result set positioned on one row, reading only the getters ReportEngine uses
+		private static ResultSet resultSet(final Object[] row){
+			return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[]{ ResultSet.class }, (proxy, method, args) -> {
+				Object value = row[(Integer) args[0] - 1];
+				switch (method.getName()){
+					case "getInt":
+						return ((Number) value).intValue();
+					case "getString":
+						return value == null ? null : value.toString();
+					case "getDate":
+						return value;
+					default:
+						throw new UnsupportedOperationException(method.getName());
+				}
+			});
+		}
+	}//end Tables
+
+	/**
+	 * Keeps the rows of a report.
+	 */
+	private static class Rows extends ResultSink{
+		final List<List<String>> rows = new ArrayList<List<String>>();
+
+		Rows(){
+			super(null);
+		}
+
+		public void begin(String[] columns){ }
+
+		public void row(String[] values){
+			this.rows.add(new ArrayList<String>(Arrays.asList(values)));
+		}
+
+		public void end(){ }
+	}//end Rows
+}//end ReportEngineTest
@@ -0,0 +1,153 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests of RequestQueue against a recording BatchWriter instead of the
+ * database: replay of the journal a crashed run left, torn lines, rejected
+ * requests, and the write behind of submit().
+ */
+
+public class RequestQueueTest{
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	private final Recorder _writer = new Recorder();
+	private RequestQueue _queue = null;
+
+	@After
+	public void close(){
+		if (this._queue != null){
+			this._queue.close(5000);
+		}
+	}
+
+	@Test
+	public void replaysTheJournalAndEmptiesIt() throws Exception {
+		File journal = journal(
+			"1\t10\tVIN1\t2021-03-01\t1200\tbrakes\n",
+			"2\t11\tVIN2\t2021-03-02\t5300\t\\N\n",
+			"3\t12\tVIN3\t2021-03-03\t0\ttab\\there\n");
+		this._queue = new RequestQueue(this._writer, journal, 10, 2, 1000, false);
+		//three rows in batches of two
+		assertEquals(2, this._writer.batches.size());
+		List<Object[]> rows = this._writer.rows();
+		assertEquals(3, rows.size());
+		assertArrayEquals(new Object[]{ 1, 10, "VIN1", Date.valueOf("2021-03-01"), 1200, "brakes" }, rows.get(0));
+		assertArrayEquals(new Object[]{ 2, 11, "VIN2", Date.valueOf("2021-03-02"), 5300, null }, rows.get(1));
+		assertArrayEquals(new Object[]{ 3, 12, "VIN3", Date.valueOf("2021-03-03"), 0, "tab\there" }, rows.get(2));
+		assertEquals(0, journal.length());
+		assertEquals(0, this._queue.getPending());
+	}
+
+	@Test
+	public void skipsTornLines() throws Exception {
+		File journal = journal(
+			"1\t10\tVIN1\t2021-03-01\t1200\tbrakes\n",
+			"2\t11\tVIN2\t2021-0");
+		this._queue = new RequestQueue(this._writer, journal, 10, 10, 1000, false);
+		List<Object[]> rows = this._writer.rows();
+		assertEquals(1, rows.size());
+		assertEquals(1, rows.get(0)[0]);
+		assertEquals(0, journal.length());
+	}
+
+	@Test
+	public void emptyJournalWritesNothing() throws Exception {
+		this._queue = new RequestQueue(this._writer, this.tmp.newFile("requests.journal"), 10, 10, 1000, false);
+		assertTrue(this._writer.batches.isEmpty());
+	}
+
+	@Test
+	public void rejectedRequestsGoToTheRejectedFile() throws Exception {
+		File journal = journal(
+			"1\t10\tVIN1\t2021-03-01\t1200\tbrakes\n",
+			"2\t11\tGONE\t2021-03-02\t5300\toil\n");
+		this._writer.reject = "GONE";
+		this._queue = new RequestQueue(this._writer, journal, 10, 10, 1000, false);
+		File rejected = new File(journal.getPath() + ".rejected");
+		assertTrue(rejected.exists());
+		List<String> lines = Files.readAllLines(rejected.toPath(), StandardCharsets.UTF_8);
+		assertEquals(Collections.singletonList("2\t11\tGONE\t2021-03-02\t5300\toil\tno such car"), lines);
+		assertEquals(0, journal.length());
+	}
+
+	@Test
+	public void submittedRequestsAreWrittenBehind() throws Exception {
+		File journal = this.tmp.newFile("requests.journal");
+		this._queue = new RequestQueue(this._writer, journal, 10, 10, 1000, false);
+		this._queue.submit(5, 20, "VIN5", Date.valueOf("2021-04-01"), 100, "noise");
+		assertTrue(this._queue.flush(5000));
+		List<Object[]> rows = this._writer.rows();
+		assertEquals(1, rows.size());
+		assertArrayEquals(new Object[]{ 5, 20, "VIN5", Date.valueOf("2021-04-01"), 100, "noise" }, rows.get(0));
+		assertEquals(0, journal.length());
+	}
+
+	@Test
+	public void closedQueueRefusesRequests() throws Exception {
+		this._queue = new RequestQueue(this._writer, this.tmp.newFile("requests.journal"), 10, 10, 1000, false);
+		assertEquals(0, this._queue.close(5000));
+		try{
+			this._queue.submit(5, 20, "VIN5", Date.valueOf("2021-04-01"), 100, "noise");
+			fail("submit after close");
+		}catch (SQLException e){
+			// expected.
+		}
+		this._queue = null;
+	}
+
+	private File journal(String... lines) throws IOException {
+		File file = this.tmp.newFile("requests.journal");
+		Files.write(file.toPath(), String.join("", lines).getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+
+	//keeps every batch; rejects the rows whose VIN is reject
+	private static class Recorder implements RequestQueue.BatchWriter{
+		final List<List<Object[]>> batches = Collections.synchronizedList(new ArrayList<List<Object[]>>());
+		volatile String reject = null;
+
+		public BatchResult executeBatch(String sql, List<Object[]> rows, int batchSize) throws SQLException {
+			assertEquals(MechanicShop.INSERT_SERVICE_REQUEST_ONCE, sql);
+			BatchResult result = new BatchResult();
+			this.batches.add(new ArrayList<Object[]>(rows));
+			for (int i = 0; i < rows.size(); ++i){
+				if (rows.get(i)[2].equals(this.reject)){
+					result.addError(i, "no such car");
+				} else {
+					result.addWritten(1);
+				}
+			}
+			result.addBatch();
+			result.finish();
+			return result;
+		}
+
+		List<Object[]> rows(){
+			List<Object[]> all = new ArrayList<Object[]>();
+			synchronized (this.batches){
+				for (List<Object[]> batch : this.batches){
+					all.addAll(batch);
+				}
+			}
+			return all;
+		}
+	}//end Recorder
+}//end RequestQueueTest
@@ -9,4 +9,17 @@ cp ../data/*.csv /tmp/$USER/myDB/data/.
 
 echo "Initializing tables .. "
 sleep 1
-psql -h localhost -p $PGPORT $USER"_DB" < ../sql/create.sql
\ No newline at end of file
+psql -h localhost -p $PGPORT $USER"_DB" < ../sql/create.sql
+
+# load.sql creates the monthly partitions with the function of migration 009
+psql -h localhost -p $PGPORT $USER"_DB" < ../sql/migrations/009_request_partition_function.sql
+
+echo "Loading data .. "
+sleep 1
+psql -h localhost -p $PGPORT $USER"_DB" < ../sql/load.sql
+
+# after the load, so the indexes are built once in bulk
+echo "Applying migrations .. "
+for f in ../sql/migrations/*.sql; do
+	psql -h localhost -p $PGPORT $USER"_DB" < $f
+done
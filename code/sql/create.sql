@@ -4,6 +4,9 @@ DROP TABLE IF EXISTS Car CASCADE;--OK
 DROP TABLE IF EXISTS Owns CASCADE;--OK
 DROP TABLE IF EXISTS Service_Request CASCADE;--OK
 DROP TABLE IF EXISTS Closed_Request CASCADE;--OK
+DROP TABLE IF EXISTS Car_Service_Count CASCADE;--OK
+DROP TABLE IF EXISTS Customer_Total_Bill CASCADE;--OK
+DROP TABLE IF EXISTS Schema_Version CASCADE;--OK
 
 
 -------------
@@ -21,6 +24,15 @@ CREATE DOMAIN _YEAR AS int4 CHECK(VALUE >= 1970);
 ------------
 ---TABLES---
 ------------
+-- The migrations of sql/migrations applied to this database
+CREATE TABLE Schema_Version
+(
+	version INTEGER NOT NULL,
+	description TEXT NOT NULL,
+	applied_on TIMESTAMP NOT NULL DEFAULT now(),
+	PRIMARY KEY (version)
+);
+
 CREATE TABLE Customer
 (
 	id INTEGER NOT NULL,
@@ -61,6 +73,10 @@ CREATE TABLE Owns
 	FOREIGN KEY (car_vin) REFERENCES Car(vin)
 );
 
+-- Both request tables are partitioned by month (PostgreSQL 12 or later),
+-- see PARTITIONS below.  A key must include the partition key, so rid is
+-- unique together with the date; rids come from a sequence and are
+-- unique on their own anyway.
 CREATE TABLE Service_Request
 (
 	rid INTEGER NOT NULL,
@@ -69,11 +85,13 @@ CREATE TABLE Service_Request
 	date DATE NOT NULL,
 	odometer _PINTEGER NOT NULL,
 	complain TEXT,
-	PRIMARY KEY (rid),
+	PRIMARY KEY (rid, date),
 	FOREIGN KEY (customer_id) REFERENCES Customer(id),
 	FOREIGN KEY (car_vin) REFERENCES Car(vin)
-);
+) PARTITION BY RANGE (date);
 
+-- request_date is the date of the closed request, so a request and its
+-- closing are in the same month and are archived together.
 CREATE TABLE Closed_Request
 (
 	wid INTEGER NOT NULL,
@@ -82,69 +100,36 @@ CREATE TABLE Closed_Request
 	date DATE NOT NULL,
 	comment TEXT,
 	bill _PINTEGER NOT NULL,
-	PRIMARY KEY (wid),
-	FOREIGN KEY (rid) REFERENCES Service_Request(rid),
+	request_date DATE NOT NULL,
+	PRIMARY KEY (wid, request_date),
+	CONSTRAINT closed_request_rid_key UNIQUE (rid, request_date),
+	FOREIGN KEY (rid, request_date) REFERENCES Service_Request(rid, date),
 	FOREIGN KEY (mid) REFERENCES Mechanic(id)
-);
-
-----------------------------
--- INSERT DATA STATEMENTS --
-----------------------------
+) PARTITION BY RANGE (request_date);
 
-COPY Customer (
-	id,
-	fname,
-	lname,
-	phone,
-	address
-)
-FROM 'customer.csv'
-WITH DELIMITER ',';
-
-COPY Mechanic (
-	id,
-	fname,
-	lname,
-	experience
-)
-FROM 'mechanic.csv'
-WITH DELIMITER ',';
-
-COPY Car (
-	vin,
-	make,
-	model,
-	year
-)
-FROM 'car.csv'
-WITH DELIMITER ',';
-
-COPY Owns (
-	ownership_id,
-	customer_id,
-	car_vin
-)
-FROM 'owns.csv'
-WITH DELIMITER ',';
-
-COPY Service_Request (
-	rid,
-	customer_id,
-	car_vin,
-	date,
-	odometer,
-	complain
-)
-FROM 'service_request.csv'
-WITH DELIMITER ',';
+---------------
+---SEQUENCES---
+---------------
+-- Each nextval() reserves a block of 100 ids for one client process
+-- (see IdAllocator.BLOCK_SIZE), so keep INCREMENT BY in sync with it.
+CREATE SEQUENCE customer_id_seq INCREMENT BY 100 MINVALUE 0 START WITH 0 OWNED BY Customer.id;
+CREATE SEQUENCE mechanic_id_seq INCREMENT BY 100 MINVALUE 0 START WITH 0 OWNED BY Mechanic.id;
+CREATE SEQUENCE owns_ownership_id_seq INCREMENT BY 100 MINVALUE 0 START WITH 0 OWNED BY Owns.ownership_id;
+CREATE SEQUENCE service_request_rid_seq INCREMENT BY 100 MINVALUE 0 START WITH 0 OWNED BY Service_Request.rid;
+CREATE SEQUENCE closed_request_wid_seq INCREMENT BY 100 MINVALUE 0 START WITH 0 OWNED BY Closed_Request.wid;
 
-COPY Closed_Request (
-	wid,
-	rid,
-	mid,
-	date,
-	comment,
-	bill
-)
-FROM 'closed_request.csv'
-WITH DELIMITER ',';
\ No newline at end of file
+----------------
+---PARTITIONS---
+----------------
+-- One partition per month of each request table, named
+-- service_request_pYYYY_MM and closed_request_pYYYY_MM.  Queries bounded
+-- by date (request_date for Closed_Request) only read the months in
+-- range, and old months are archived as a whole, see
+-- "MechanicShop ... archive".  Rows of a month without a partition go to
+-- the default partitions until create_request_partitions() moves them.
+-- That function is installed by migration 009, which runs before the data
+-- is loaded; the summary tables of reports 9 and 10 and all indexes are
+-- installed by the other migrations, which run after the load so the
+-- indexes are built once in bulk, see createPostgreDB.sh.
+CREATE TABLE Service_Request_Default PARTITION OF Service_Request DEFAULT;
+CREATE TABLE Closed_Request_Default PARTITION OF Closed_Request DEFAULT;
@@ -0,0 +1,117 @@
+-- Server-side load of the CSV files in the database's data directory.
+-- Run after create.sql and migration 009, which installs the function it
+-- calls, and before the other migrations, so their indexes are built once
+-- in bulk; see createPostgreDB.sh.  To load from a client
+-- machine instead, use: java MechanicShop <dbname> <port> <user> load <csv dir>
+
+-- Loaded into a database that already has the summary triggers of
+-- migration 003, the rows skip them and the summaries are rebuilt once
+-- at the end, as BulkLoader does.
+SET mechanicshop.skip_summaries = on;
+
+----------------------------
+-- INSERT DATA STATEMENTS --
+----------------------------
+
+COPY Customer (
+	id,
+	fname,
+	lname,
+	phone,
+	address
+)
+FROM 'customer.csv'
+WITH DELIMITER ',';
+
+COPY Mechanic (
+	id,
+	fname,
+	lname,
+	experience
+)
+FROM 'mechanic.csv'
+WITH DELIMITER ',';
+
+COPY Car (
+	vin,
+	make,
+	model,
+	year
+)
+FROM 'car.csv'
+WITH DELIMITER ',';
+
+COPY Owns (
+	ownership_id,
+	customer_id,
+	car_vin
+)
+FROM 'owns.csv'
+WITH DELIMITER ',';
+
+-- The requests go through staging tables: the monthly partitions of
+-- their dates are created before the rows are inserted, and a closed
+-- request gets the date of its request as request_date.
+CREATE TEMP TABLE Service_Request_Load AS
+SELECT rid, customer_id, car_vin, date, odometer, complain FROM Service_Request WITH NO DATA;
+
+COPY Service_Request_Load (
+	rid,
+	customer_id,
+	car_vin,
+	date,
+	odometer,
+	complain
+)
+FROM 'service_request.csv'
+WITH DELIMITER ',';
+
+SELECT create_request_partitions(MIN(date), MAX(date)) FROM Service_Request_Load;
+INSERT INTO Service_Request (rid, customer_id, car_vin, date, odometer, complain)
+SELECT rid, customer_id, car_vin, date, odometer, complain FROM Service_Request_Load;
+
+CREATE TEMP TABLE Closed_Request_Load AS
+SELECT wid, rid, mid, date, comment, bill FROM Closed_Request WITH NO DATA;
+
+COPY Closed_Request_Load (
+	wid,
+	rid,
+	mid,
+	date,
+	comment,
+	bill
+)
+FROM 'closed_request.csv'
+WITH DELIMITER ',';
+
+INSERT INTO Closed_Request (wid, rid, mid, date, comment, bill, request_date)
+SELECT L.wid, L.rid, L.mid, L.date, L.comment, L.bill, S.date
+FROM Closed_Request_Load L LEFT JOIN Service_Request_Load S ON S.rid = L.rid;
+
+-------------------------------
+-- MOVE SEQUENCES PAST DATA --
+-------------------------------
+SELECT setval('customer_id_seq', COALESCE((SELECT MAX(id) + 1 FROM Customer), 0), false);
+SELECT setval('mechanic_id_seq', COALESCE((SELECT MAX(id) + 1 FROM Mechanic), 0), false);
+SELECT setval('owns_ownership_id_seq', COALESCE((SELECT MAX(ownership_id) + 1 FROM Owns), 0), false);
+SELECT setval('service_request_rid_seq', COALESCE((SELECT MAX(rid) + 1 FROM Service_Request), 0), false);
+SELECT setval('closed_request_wid_seq', COALESCE((SELECT MAX(wid) + 1 FROM Closed_Request), 0), false);
+
+-----------------------------
+-- SUMMARIES AND STATISTICS --
+-----------------------------
+SET mechanicshop.skip_summaries = off;
+DO $$
+BEGIN
+	IF to_regproc('rebuild_report_summaries') IS NOT NULL THEN
+		PERFORM rebuild_report_summaries();
+	END IF;
+END;
+$$;
+
+ANALYZE Customer;
+ANALYZE Mechanic;
+ANALYZE Car;
+ANALYZE Owns;
+ANALYZE Service_Request;
+ANALYZE Closed_Request;
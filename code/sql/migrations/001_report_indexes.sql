@@ -0,0 +1,50 @@
+-- Migration 001: indexes for the lookups and reports of MechanicShop.
+-- Run after the data is loaded (load.sql or "MechanicShop ... load"), so the
+-- indexes are built once in bulk instead of row by row during COPY.
+-- create.sql declares Schema_Version for new databases.
+-- Check the plans with: java MechanicShop <dbname> <port> <user> explain
+
+CREATE TABLE IF NOT EXISTS Schema_Version
+(
+	version INTEGER NOT NULL,
+	description TEXT NOT NULL,
+	applied_on TIMESTAMP NOT NULL DEFAULT now(),
+	PRIMARY KEY (version)
+);
+
+BEGIN;
+
+-- InsertServiceRequest: customer lookup by last name
+CREATE INDEX IF NOT EXISTS customer_lname_idx ON Customer (lname);
+
+-- InsertServiceRequest: cars of a customer; report 7: cars per customer.
+-- Covers car_vin so both are answered from the index alone.
+CREATE INDEX IF NOT EXISTS owns_customer_car_idx ON Owns (customer_id, car_vin);
+
+-- Report 8: service requests of a car below an odometer reading;
+-- report 9: service requests per car
+CREATE INDEX IF NOT EXISTS service_request_car_odometer_idx ON Service_Request (car_vin, odometer);
+
+-- Report 10: requests of a customer
+CREATE INDEX IF NOT EXISTS service_request_customer_idx ON Service_Request (customer_id);
+
+-- Report 10: bills per request, covering bill
+CREATE INDEX IF NOT EXISTS closed_request_rid_bill_idx ON Closed_Request (rid, bill);
+
+-- Report 6: cheap closed requests only
+CREATE INDEX IF NOT EXISTS closed_request_bill_lt100_idx ON Closed_Request (bill) WHERE bill < 100;
+
+-- Report 8: old cars only, covering the reported columns
+CREATE INDEX IF NOT EXISTS car_before_1995_idx ON Car (vin, make, model, year) WHERE year < 1995;
+
+INSERT INTO Schema_Version (version, description)
+SELECT 1, 'report indexes'
+WHERE NOT EXISTS (SELECT 1 FROM Schema_Version WHERE version = 1);
+
+COMMIT;
+
+ANALYZE Customer;
+ANALYZE Owns;
+ANALYZE Car;
+ANALYZE Service_Request;
+ANALYZE Closed_Request;
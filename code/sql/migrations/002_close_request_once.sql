@@ -0,0 +1,29 @@
+-- Migration 002: a service request can be closed only once.
+-- CloseServiceRequest relies on this unique key for its single
+-- INSERT ... ON CONFLICT (rid, request_date) DO NOTHING.  A unique index
+-- of the monthly partitioned Closed_Request must include the partition
+-- key, request_date; as it is the date of the one request a rid names,
+-- the key still allows one closing per request.  create.sql declares it
+-- as the constraint closed_request_rid_key for new databases, so there
+-- this migration changes nothing.
+
+BEGIN;
+
+DO $$
+BEGIN
+	IF EXISTS (SELECT 1 FROM information_schema.columns
+			WHERE table_name = 'closed_request' AND column_name = 'request_date') THEN
+		CREATE UNIQUE INDEX IF NOT EXISTS closed_request_rid_key ON Closed_Request (rid, request_date);
+	ELSE
+		-- a database from before migration 006, which replaces this
+		-- index with the key above when it partitions the table
+		CREATE UNIQUE INDEX IF NOT EXISTS closed_request_rid_key ON Closed_Request (rid);
+	END IF;
+END;
+$$;
+
+INSERT INTO Schema_Version (version, description)
+SELECT 2, 'close a request only once'
+WHERE NOT EXISTS (SELECT 1 FROM Schema_Version WHERE version = 2);
+
+COMMIT;
@@ -0,0 +1,119 @@
+-- Migration 003: summary tables for reports 9 and 10.
+-- Car_Service_Count holds the number of service requests per car and
+-- Customer_Total_Bill the sum of the closed bills per customer.  Triggers
+-- keep both up to date in the same transaction as the write, so the
+-- reports read a few index pages instead of aggregating every request.
+-- Rebuild from scratch with: java MechanicShop <dbname> <port> <user> rebuild-summaries
+-- Migration 006 replaces the three functions below with versions that
+-- also join on the partition keys (Closed_Request.request_date =
+-- Service_Request.date); a change to them has to be made there too.
+
+BEGIN;
+
+-- No foreign keys: the tables are derived data and must not get in the
+-- way of TRUNCATE on Car and Customer (see BulkLoader).
+CREATE TABLE IF NOT EXISTS Car_Service_Count
+(
+	car_vin VARCHAR(16) NOT NULL,
+	num INTEGER NOT NULL,
+	PRIMARY KEY (car_vin)
+);
+
+CREATE TABLE IF NOT EXISTS Customer_Total_Bill
+(
+	customer_id INTEGER NOT NULL,
+	total BIGINT NOT NULL,
+	PRIMARY KEY (customer_id)
+);
+
+-- Report 9: cars with the most services first
+CREATE INDEX IF NOT EXISTS car_service_count_num_idx ON Car_Service_Count (num);
+
+-- Report 10: customers with the highest total bill first
+CREATE INDEX IF NOT EXISTS customer_total_bill_total_idx ON Customer_Total_Bill (total);
+
+-- Rows are removed when they drop to zero, so the reports list exactly the
+-- cars and customers the old aggregates did.  A transaction that sets
+-- mechanicshop.skip_summaries to on (BulkLoader does for its COPYs) skips
+-- the triggers and must call rebuild_report_summaries() afterwards.
+CREATE OR REPLACE FUNCTION service_request_summaries() RETURNS trigger AS $$
+BEGIN
+	IF current_setting('mechanicshop.skip_summaries', true) = 'on' THEN
+		RETURN NULL;
+	END IF;
+	IF TG_OP IN ('UPDATE', 'DELETE') THEN
+		UPDATE Car_Service_Count SET num = num - 1 WHERE car_vin = OLD.car_vin;
+		DELETE FROM Car_Service_Count WHERE car_vin = OLD.car_vin AND num <= 0;
+	END IF;
+	IF TG_OP IN ('INSERT', 'UPDATE') THEN
+		INSERT INTO Car_Service_Count (car_vin, num) VALUES (NEW.car_vin, 1)
+		ON CONFLICT (car_vin) DO UPDATE SET num = Car_Service_Count.num + 1;
+	END IF;
+	-- a request moved to another customer takes its bill along
+	IF TG_OP = 'UPDATE' AND NEW.customer_id <> OLD.customer_id THEN
+		UPDATE Customer_Total_Bill T SET total = T.total - C.bill
+		FROM Closed_Request C WHERE C.rid = OLD.rid AND T.customer_id = OLD.customer_id;
+		DELETE FROM Customer_Total_Bill WHERE customer_id = OLD.customer_id AND total <= 0;
+		INSERT INTO Customer_Total_Bill (customer_id, total)
+		SELECT NEW.customer_id, C.bill FROM Closed_Request C WHERE C.rid = NEW.rid
+		ON CONFLICT (customer_id) DO UPDATE SET total = Customer_Total_Bill.total + EXCLUDED.total;
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION closed_request_summaries() RETURNS trigger AS $$
+BEGIN
+	IF current_setting('mechanicshop.skip_summaries', true) = 'on' THEN
+		RETURN NULL;
+	END IF;
+	IF TG_OP IN ('UPDATE', 'DELETE') THEN
+		UPDATE Customer_Total_Bill T SET total = T.total - OLD.bill
+		FROM Service_Request S WHERE S.rid = OLD.rid AND T.customer_id = S.customer_id;
+		DELETE FROM Customer_Total_Bill
+		WHERE customer_id = (SELECT customer_id FROM Service_Request WHERE rid = OLD.rid) AND total <= 0;
+	END IF;
+	IF TG_OP IN ('INSERT', 'UPDATE') THEN
+		INSERT INTO Customer_Total_Bill (customer_id, total)
+		SELECT S.customer_id, NEW.bill FROM Service_Request S WHERE S.rid = NEW.rid
+		ON CONFLICT (customer_id) DO UPDATE SET total = Customer_Total_Bill.total + EXCLUDED.total;
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Recomputes both tables.  The SHARE locks wait for running writers and
+-- hold off new ones until the transaction ends, so no trigger update is lost.
+CREATE OR REPLACE FUNCTION rebuild_report_summaries() RETURNS void AS $$
+BEGIN
+	LOCK TABLE Service_Request, Closed_Request IN SHARE MODE;
+	TRUNCATE Car_Service_Count, Customer_Total_Bill;
+	INSERT INTO Car_Service_Count (car_vin, num)
+	SELECT car_vin, COUNT(*) FROM Service_Request GROUP BY car_vin;
+	INSERT INTO Customer_Total_Bill (customer_id, total)
+	SELECT S.customer_id, SUM(C.bill) FROM Closed_Request C, Service_Request S
+	WHERE C.rid = S.rid GROUP BY S.customer_id;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS service_request_summaries ON Service_Request;
+CREATE TRIGGER service_request_summaries
+AFTER INSERT OR DELETE OR UPDATE OF car_vin, customer_id ON Service_Request
+FOR EACH ROW EXECUTE PROCEDURE service_request_summaries();
+
+DROP TRIGGER IF EXISTS closed_request_summaries ON Closed_Request;
+CREATE TRIGGER closed_request_summaries
+AFTER INSERT OR DELETE OR UPDATE OF rid, bill ON Closed_Request
+FOR EACH ROW EXECUTE PROCEDURE closed_request_summaries();
+
+-- backfill
+SELECT rebuild_report_summaries();
+
+INSERT INTO Schema_Version (version, description)
+SELECT 3, 'report summary tables'
+WHERE NOT EXISTS (SELECT 1 FROM Schema_Version WHERE version = 3);
+
+COMMIT;
+
+ANALYZE Car_Service_Count;
+ANALYZE Customer_Total_Bill;
@@ -0,0 +1,32 @@
+-- Migration 004: indexes for the keyset paginated listings.
+-- A page is read with "WHERE <filter> AND id > ? ORDER BY id LIMIT ?", so
+-- each filter column is indexed together with the key; the scan then
+-- starts right after the last row shown and stops after one page.
+
+BEGIN;
+
+-- InsertServiceRequest: customers by last name, page by page.
+-- Replaces customer_lname_idx of migration 001.
+CREATE INDEX IF NOT EXISTS customer_lname_id_idx ON Customer (lname, id);
+DROP INDEX IF EXISTS customer_lname_idx;
+
+-- CloseServiceRequest: mechanics by last name, page by page
+CREATE INDEX IF NOT EXISTS mechanic_lname_id_idx ON Mechanic (lname, id);
+
+-- Requests of a customer, newest first.
+-- Replaces service_request_customer_idx of migration 001.
+CREATE INDEX IF NOT EXISTS service_request_customer_rid_idx ON Service_Request (customer_id, rid);
+DROP INDEX IF EXISTS service_request_customer_idx;
+
+-- Requests in a date range
+CREATE INDEX IF NOT EXISTS service_request_date_idx ON Service_Request (date);
+
+INSERT INTO Schema_Version (version, description)
+SELECT 4, 'paging indexes'
+WHERE NOT EXISTS (SELECT 1 FROM Schema_Version WHERE version = 4);
+
+COMMIT;
+
+ANALYZE Customer;
+ANALYZE Mechanic;
+ANALYZE Service_Request;
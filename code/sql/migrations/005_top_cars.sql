@@ -0,0 +1,27 @@
+-- Migration 005: indexes for the filtered top-K cars report (report 9,
+-- see TopCarsFilter).  Ties are broken by VIN, so the unfiltered report is
+-- read in index order and stops after K entries.
+
+BEGIN;
+
+-- Report 9: the K cars with the most services, ties by VIN.
+-- Replaces car_service_count_num_idx of migration 003.
+CREATE INDEX IF NOT EXISTS car_service_count_top_idx ON Car_Service_Count (num DESC, car_vin);
+DROP INDEX IF EXISTS car_service_count_num_idx;
+
+-- Report 9 with a date range: the requests in the range are counted per
+-- car from the index alone
+CREATE INDEX IF NOT EXISTS service_request_date_car_idx ON Service_Request (date, car_vin);
+
+-- Report 9 with a make or model: the VINs of the matching cars
+CREATE INDEX IF NOT EXISTS car_make_model_idx ON Car (make, model, vin);
+
+INSERT INTO Schema_Version (version, description)
+SELECT 5, 'top cars indexes'
+WHERE NOT EXISTS (SELECT 1 FROM Schema_Version WHERE version = 5);
+
+COMMIT;
+
+ANALYZE Car;
+ANALYZE Car_Service_Count;
+ANALYZE Service_Request;
@@ -0,0 +1,172 @@
+-- Migration 006: monthly partitions of Service_Request and Closed_Request.
+-- Needs PostgreSQL 12 or later.  Converts the two tables of an existing
+-- database into partitioned tables (see the PARTITIONS section of
+-- create.sql, which already declares them for new databases), and
+-- recreates the indexes of migrations 001 to 005 on them.  The rows are
+-- copied into the default partitions; migration 009 splits them into one
+-- partition per month.
+-- Closed_Request gets request_date, the date of the request it closes,
+-- so both halves of a request land in the same month.  The conversion
+-- copies both tables once and holds them locked while it runs.
+-- Archive old months with: java MechanicShop <dbname> <port> <user> archive --before <yyyy-mm-dd> --dir <dir>
+
+BEGIN;
+
+DO $$
+BEGIN
+	IF (SELECT relkind FROM pg_class WHERE oid = 'service_request'::regclass) = 'p' THEN
+		RETURN;
+	END IF;
+	LOCK TABLE Service_Request, Closed_Request IN ACCESS EXCLUSIVE MODE;
+	ALTER TABLE Closed_Request RENAME TO Closed_Request_Old;
+	ALTER TABLE Service_Request RENAME TO Service_Request_Old;
+	ALTER INDEX service_request_pkey RENAME TO service_request_old_pkey;
+	ALTER INDEX closed_request_pkey RENAME TO closed_request_old_pkey;
+	ALTER INDEX IF EXISTS closed_request_rid_key RENAME TO closed_request_old_rid_key;
+
+	CREATE TABLE Service_Request
+	(
+		rid INTEGER NOT NULL,
+		customer_id INTEGER NOT NULL,
+		car_vin VARCHAR(16) NOT NULL,
+		date DATE NOT NULL,
+		odometer _PINTEGER NOT NULL,
+		complain TEXT,
+		PRIMARY KEY (rid, date),
+		FOREIGN KEY (customer_id) REFERENCES Customer(id),
+		FOREIGN KEY (car_vin) REFERENCES Car(vin)
+	) PARTITION BY RANGE (date);
+
+	CREATE TABLE Closed_Request
+	(
+		wid INTEGER NOT NULL,
+		rid INTEGER NOT NULL,
+		mid INTEGER NOT NULL,
+		date DATE NOT NULL,
+		comment TEXT,
+		bill _PINTEGER NOT NULL,
+		request_date DATE NOT NULL,
+		PRIMARY KEY (wid, request_date),
+		CONSTRAINT closed_request_rid_key UNIQUE (rid, request_date),
+		FOREIGN KEY (rid, request_date) REFERENCES Service_Request(rid, date),
+		FOREIGN KEY (mid) REFERENCES Mechanic(id)
+	) PARTITION BY RANGE (request_date);
+
+	CREATE TABLE Service_Request_Default PARTITION OF Service_Request DEFAULT;
+	CREATE TABLE Closed_Request_Default PARTITION OF Closed_Request DEFAULT;
+END;
+$$;
+
+-- Fills the new tables.  The rows land in the default partitions until
+-- migration 009 moves them to monthly partitions with
+-- create_request_partitions().  The summary tables already hold the
+-- totals of these rows.
+DO $$
+BEGIN
+	IF to_regclass('service_request_old') IS NULL THEN
+		RETURN;
+	END IF;
+	PERFORM set_config('mechanicshop.skip_summaries', 'on', true);
+	INSERT INTO Service_Request (rid, customer_id, car_vin, date, odometer, complain)
+	SELECT rid, customer_id, car_vin, date, odometer, complain FROM Service_Request_Old;
+	INSERT INTO Closed_Request (wid, rid, mid, date, comment, bill, request_date)
+	SELECT C.wid, C.rid, C.mid, C.date, C.comment, C.bill, S.date
+	FROM Closed_Request_Old C, Service_Request_Old S WHERE S.rid = C.rid;
+	ALTER SEQUENCE service_request_rid_seq OWNED BY Service_Request.rid;
+	ALTER SEQUENCE closed_request_wid_seq OWNED BY Closed_Request.wid;
+	DROP TABLE Closed_Request_Old;
+	DROP TABLE Service_Request_Old;
+	PERFORM set_config('mechanicshop.skip_summaries', 'off', true);
+END;
+$$;
+
+-- The indexes of migrations 001, 004 and 005, one per partition
+CREATE INDEX IF NOT EXISTS service_request_car_odometer_idx ON Service_Request (car_vin, odometer);
+CREATE INDEX IF NOT EXISTS service_request_customer_rid_idx ON Service_Request (customer_id, rid);
+CREATE INDEX IF NOT EXISTS service_request_date_idx ON Service_Request (date);
+CREATE INDEX IF NOT EXISTS service_request_date_car_idx ON Service_Request (date, car_vin);
+CREATE INDEX IF NOT EXISTS closed_request_rid_bill_idx ON Closed_Request (rid, bill);
+CREATE INDEX IF NOT EXISTS closed_request_bill_lt100_idx ON Closed_Request (bill) WHERE bill < 100;
+
+-- The summary functions of migration 003, changed only to also join on
+-- the partition keys (request_date = date) so a lookup reads one month;
+-- keep both copies in step.  The triggers are created again as the
+-- tables are new.
+CREATE OR REPLACE FUNCTION service_request_summaries() RETURNS trigger AS $$
+BEGIN
+	IF current_setting('mechanicshop.skip_summaries', true) = 'on' THEN
+		RETURN NULL;
+	END IF;
+	IF TG_OP IN ('UPDATE', 'DELETE') THEN
+		UPDATE Car_Service_Count SET num = num - 1 WHERE car_vin = OLD.car_vin;
+		DELETE FROM Car_Service_Count WHERE car_vin = OLD.car_vin AND num <= 0;
+	END IF;
+	IF TG_OP IN ('INSERT', 'UPDATE') THEN
+		INSERT INTO Car_Service_Count (car_vin, num) VALUES (NEW.car_vin, 1)
+		ON CONFLICT (car_vin) DO UPDATE SET num = Car_Service_Count.num + 1;
+	END IF;
+	-- a request moved to another customer takes its bill along
+	IF TG_OP = 'UPDATE' AND NEW.customer_id <> OLD.customer_id THEN
+		UPDATE Customer_Total_Bill T SET total = T.total - C.bill
+		FROM Closed_Request C WHERE C.rid = OLD.rid AND C.request_date = OLD.date AND T.customer_id = OLD.customer_id;
+		DELETE FROM Customer_Total_Bill WHERE customer_id = OLD.customer_id AND total <= 0;
+		INSERT INTO Customer_Total_Bill (customer_id, total)
+		SELECT NEW.customer_id, C.bill FROM Closed_Request C WHERE C.rid = NEW.rid AND C.request_date = NEW.date
+		ON CONFLICT (customer_id) DO UPDATE SET total = Customer_Total_Bill.total + EXCLUDED.total;
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION closed_request_summaries() RETURNS trigger AS $$
+BEGIN
+	IF current_setting('mechanicshop.skip_summaries', true) = 'on' THEN
+		RETURN NULL;
+	END IF;
+	IF TG_OP IN ('UPDATE', 'DELETE') THEN
+		UPDATE Customer_Total_Bill T SET total = T.total - OLD.bill
+		FROM Service_Request S WHERE S.rid = OLD.rid AND S.date = OLD.request_date AND T.customer_id = S.customer_id;
+		DELETE FROM Customer_Total_Bill
+		WHERE customer_id = (SELECT customer_id FROM Service_Request WHERE rid = OLD.rid AND date = OLD.request_date) AND total <= 0;
+	END IF;
+	IF TG_OP IN ('INSERT', 'UPDATE') THEN
+		INSERT INTO Customer_Total_Bill (customer_id, total)
+		SELECT S.customer_id, NEW.bill FROM Service_Request S WHERE S.rid = NEW.rid AND S.date = NEW.request_date
+		ON CONFLICT (customer_id) DO UPDATE SET total = Customer_Total_Bill.total + EXCLUDED.total;
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Recomputes both tables.  The SHARE locks wait for running writers and
+-- hold off new ones until the transaction ends, so no trigger update is lost.
+CREATE OR REPLACE FUNCTION rebuild_report_summaries() RETURNS void AS $$
+BEGIN
+	LOCK TABLE Service_Request, Closed_Request IN SHARE MODE;
+	TRUNCATE Car_Service_Count, Customer_Total_Bill;
+	INSERT INTO Car_Service_Count (car_vin, num)
+	SELECT car_vin, COUNT(*) FROM Service_Request GROUP BY car_vin;
+	INSERT INTO Customer_Total_Bill (customer_id, total)
+	SELECT S.customer_id, SUM(C.bill) FROM Closed_Request C, Service_Request S
+	WHERE C.rid = S.rid AND C.request_date = S.date GROUP BY S.customer_id;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS service_request_summaries ON Service_Request;
+CREATE TRIGGER service_request_summaries
+AFTER INSERT OR DELETE OR UPDATE OF car_vin, customer_id ON Service_Request
+FOR EACH ROW EXECUTE PROCEDURE service_request_summaries();
+
+DROP TRIGGER IF EXISTS closed_request_summaries ON Closed_Request;
+CREATE TRIGGER closed_request_summaries
+AFTER INSERT OR DELETE OR UPDATE OF rid, bill ON Closed_Request
+FOR EACH ROW EXECUTE PROCEDURE closed_request_summaries();
+
+INSERT INTO Schema_Version (version, description)
+SELECT 6, 'monthly request partitions'
+WHERE NOT EXISTS (SELECT 1 FROM Schema_Version WHERE version = 6);
+
+COMMIT;
+
+ANALYZE Service_Request;
+ANALYZE Closed_Request;
@@ -0,0 +1,33 @@
+-- Migration 007: indexes for the customer search of InsertServiceRequest
+-- (see CustomerSearch).  Last names are matched case-insensitively, by
+-- prefix and by trigram similarity for typos; phone numbers by their
+-- digits, as a prefix or anywhere in the number.  The expressions must stay
+-- exactly as CustomerSearch writes them, or the planner cannot use the
+-- indexes.
+
+-- similarity(), % and <-> on text
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+
+BEGIN;
+
+-- Last name prefix, in name order.  COLLATE "C" makes the range
+-- lname >= 'smi' AND lname < 'smj' cover exactly the names starting with smi.
+CREATE INDEX IF NOT EXISTS customer_lname_prefix_idx ON Customer ((lower(rtrim(lname)) COLLATE "C"), id);
+
+-- Last names similar to what was typed, nearest first (GiST answers
+-- ORDER BY <-> LIMIT n without reading every candidate)
+CREATE INDEX IF NOT EXISTS customer_lname_trgm_idx ON Customer USING gist (lower(rtrim(lname)) gist_trgm_ops);
+
+-- Phone digits as a prefix, e.g. the area code first
+CREATE INDEX IF NOT EXISTS customer_phone_prefix_idx ON Customer ((regexp_replace(phone, '\D', '', 'g') COLLATE "C"), id);
+
+-- Phone digits anywhere, e.g. the last four
+CREATE INDEX IF NOT EXISTS customer_phone_trgm_idx ON Customer USING gin (regexp_replace(phone, '\D', '', 'g') gin_trgm_ops);
+
+INSERT INTO Schema_Version (version, description)
+SELECT 7, 'customer search indexes'
+WHERE NOT EXISTS (SELECT 1 FROM Schema_Version WHERE version = 7);
+
+COMMIT;
+
+ANALYZE Customer;
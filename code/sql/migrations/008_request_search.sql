@@ -0,0 +1,28 @@
+-- Migration 008: full-text search over the complaints of the service
+-- requests and the comments of their closings (see RequestSearch).  Both
+-- tables get a tsvector column generated from the text, so every insert,
+-- update and partition move keeps it current without triggers, and a GIN
+-- index on it in every monthly partition.  Needs PostgreSQL 12 or later.
+-- Adding the columns rewrites both tables once.  The expressions must stay
+-- exactly as RequestSearch writes its queries ('english' configuration).
+
+BEGIN;
+
+ALTER TABLE Service_Request ADD COLUMN IF NOT EXISTS complain_tsv tsvector
+	GENERATED ALWAYS AS (to_tsvector('english', coalesce(complain, ''))) STORED;
+ALTER TABLE Closed_Request ADD COLUMN IF NOT EXISTS comment_tsv tsvector
+	GENERATED ALWAYS AS (to_tsvector('english', coalesce(comment, ''))) STORED;
+
+-- Created on the partitioned tables, so every partition, present or
+-- future, gets its own
+CREATE INDEX IF NOT EXISTS service_request_complain_tsv_idx ON Service_Request USING gin (complain_tsv);
+CREATE INDEX IF NOT EXISTS closed_request_comment_tsv_idx ON Closed_Request USING gin (comment_tsv);
+
+INSERT INTO Schema_Version (version, description)
+SELECT 8, 'request full-text search'
+WHERE NOT EXISTS (SELECT 1 FROM Schema_Version WHERE version = 8);
+
+COMMIT;
+
+ANALYZE Service_Request;
+ANALYZE Closed_Request;
@@ -0,0 +1,88 @@
+-- Migration 009: create_request_partitions(), which creates the monthly
+-- partitions of Service_Request and Closed_Request (see the PARTITIONS
+-- section of create.sql).  Unlike the other migrations this one also runs
+-- before the data is loaded, as load.sql and BulkLoader create the months
+-- of the requests they load with it; see createPostgreDB.sh.  It builds no
+-- index, so it does not slow the load down.  On a database
+-- converted by migration 006 it splits the rows left in the default
+-- partitions into months.
+
+BEGIN;
+
+-- Creates the missing monthly partitions of both tables for the months
+-- from from_day to to_day and returns how many months it created, e.g.
+--   SELECT create_request_partitions(current_date, current_date + 62);
+-- Rows of those months already in the default partitions are moved to
+-- the new partitions, with the summary triggers skipped since the totals
+-- do not change.  The rows are set aside in temporary tables while the
+-- partitions are created, as a partition cannot be created while the
+-- default partition holds rows of its range.  The default partitions are
+-- never detached: Closed_Request references Service_Request, and a
+-- partition still referenced by rows cannot be detached.  Generated
+-- columns cannot be inserted into, so the rows moved name the columns
+-- they copy.
+CREATE OR REPLACE FUNCTION create_request_partitions(from_day DATE, to_day DATE) RETURNS integer AS $$
+DECLARE
+	month_start DATE := date_trunc('month', from_day)::date;
+	month_end DATE;
+	range_end DATE := (date_trunc('month', to_day) + interval '1 month')::date;
+	moving BOOLEAN;
+	saved_skip TEXT := current_setting('mechanicshop.skip_summaries', true);
+	created INTEGER := 0;
+BEGIN
+	IF from_day IS NULL OR to_day IS NULL OR from_day > to_day THEN
+		RETURN 0;
+	END IF;
+	moving := EXISTS (SELECT 1 FROM Service_Request_Default WHERE date >= month_start AND date < range_end)
+		OR EXISTS (SELECT 1 FROM Closed_Request_Default WHERE request_date >= month_start AND request_date < range_end);
+	IF moving THEN
+		PERFORM set_config('mechanicshop.skip_summaries', 'on', true);
+		DROP TABLE IF EXISTS Service_Request_Moving, Closed_Request_Moving;
+		CREATE TEMP TABLE Service_Request_Moving AS
+		SELECT rid, customer_id, car_vin, date, odometer, complain FROM Service_Request_Default
+		WHERE date >= month_start AND date < range_end;
+		CREATE TEMP TABLE Closed_Request_Moving AS
+		SELECT wid, rid, mid, date, comment, bill, request_date FROM Closed_Request_Default
+		WHERE request_date >= month_start AND request_date < range_end;
+		-- the closings first, as they reference the requests
+		DELETE FROM Closed_Request_Default WHERE request_date >= month_start AND request_date < range_end;
+		DELETE FROM Service_Request_Default WHERE date >= month_start AND date < range_end;
+	END IF;
+	WHILE month_start < range_end LOOP
+		month_end := (month_start + interval '1 month')::date;
+		IF to_regclass('service_request_p' || to_char(month_start, 'YYYY_MM')) IS NULL THEN
+			EXECUTE format('CREATE TABLE %I PARTITION OF Service_Request FOR VALUES FROM (%L) TO (%L)',
+				'service_request_p' || to_char(month_start, 'YYYY_MM'), month_start, month_end);
+			created := created + 1;
+		END IF;
+		IF to_regclass('closed_request_p' || to_char(month_start, 'YYYY_MM')) IS NULL THEN
+			EXECUTE format('CREATE TABLE %I PARTITION OF Closed_Request FOR VALUES FROM (%L) TO (%L)',
+				'closed_request_p' || to_char(month_start, 'YYYY_MM'), month_start, month_end);
+		END IF;
+		month_start := month_end;
+	END LOOP;
+	IF moving THEN
+		-- the requests first, so the closings find them; the search
+		-- columns are generated again
+		INSERT INTO Service_Request (rid, customer_id, car_vin, date, odometer, complain)
+		SELECT rid, customer_id, car_vin, date, odometer, complain FROM Service_Request_Moving;
+		INSERT INTO Closed_Request (wid, rid, mid, date, comment, bill, request_date)
+		SELECT wid, rid, mid, date, comment, bill, request_date FROM Closed_Request_Moving;
+		DROP TABLE Service_Request_Moving, Closed_Request_Moving;
+		PERFORM set_config('mechanicshop.skip_summaries', COALESCE(saved_skip, 'off'), true);
+	END IF;
+	RETURN created;
+END;
+$$ LANGUAGE plpgsql;
+
+-- the rows of months without a partition, e.g. copied by migration 006
+SELECT create_request_partitions(MIN(date), MAX(date)) FROM Service_Request_Default;
+
+INSERT INTO Schema_Version (version, description)
+SELECT 9, 'monthly request partition function'
+WHERE NOT EXISTS (SELECT 1 FROM Schema_Version WHERE version = 9);
+
+COMMIT;
+
+ANALYZE Service_Request;
+ANALYZE Closed_Request;